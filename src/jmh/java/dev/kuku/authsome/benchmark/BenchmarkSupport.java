@@ -0,0 +1,43 @@
+package dev.kuku.authsome.benchmark;
+
+import dev.kuku.authsome.AuthsomeCoreApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Shared fixtures for the benchmarks.
+ */
+final class BenchmarkSupport {
+    static final String JWT_SECRET = "authsome-benchmark-secret-that-is-at-least-256-bits";
+    static final String ENCRYPTION_KEY = "MySecretKey123456MySecretKey1234";
+    static final String TENANT_ID = "550e8400-e29b-41d4-a716-446655440000";
+    static final String PASSWORD = "correct-horse-battery-staple";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Starts the application against an in-memory H2 database in PostgreSQL mode.
+     *
+     * @param properties further properties, {@code key=value}, overriding the defaults
+     * @return the running application context, to be closed by the caller
+     */
+    static ConfigurableApplicationContext startApplication(String... properties) {
+        return new SpringApplicationBuilder(AuthsomeCoreApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.main.banner-mode=off",
+                        "spring.datasource.url=jdbc:h2:mem:authsome-bench;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;NON_KEYWORDS=KEY,VALUE",
+                        "spring.datasource.username=sa",
+                        "spring.datasource.password=",
+                        "spring.jpa.hibernate.ddl-auto=create-drop",
+                        "spring.jpa.open-in-view=false",
+                        "logging.level.root=WARN",
+                        "jwt.secret=" + JWT_SECRET,
+                        "authsome.encryption.key=" + ENCRYPTION_KEY,
+                        "authsome.tenant.max-simultaneous-sessions=" + Integer.MAX_VALUE
+                )
+                .properties(properties)
+                .run();
+    }
+}
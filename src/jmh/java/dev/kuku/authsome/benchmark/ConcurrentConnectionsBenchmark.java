@@ -0,0 +1,138 @@
+package dev.kuku.authsome.benchmark;
+
+import dev.kuku.authsome.orchestrator.TenantCoordinator;
+import dev.kuku.authsome.services.tenant.api.TenantService;
+import dev.kuku.authsome.services.tenant.api.dto.FetchedTenant;
+import dev.kuku.authsome.services.tenant.api.dto.IdentityType;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the whole application under {@code connections} requests in flight at once, each on its own connection,
+ * with request handling on Tomcat's platform thread pool ({@code virtualThreads=false}) or on virtual threads
+ * ({@code spring.threads.virtual.enabled}). Every request is an access token authenticated {@code GET /api-key},
+ * which inserts a row and so blocks on JDBC.
+ * <p>
+ * The single shot time is how long all requests took. Secondary results: {@code requestsPerSecond}, {@code failed}
+ * requests, {@code peakThreads} live in the JVM and {@code peakHeapMb}, the sum of the peak usage of the heap pools.
+ * The client runs in the same JVM on a small fixed pool, so the thread figures are mostly the server's. Virtual
+ * threads need Java 21; on an older JVM the build passes {@code -p virtualThreads=false} (profile
+ * {@code before-java-21}), and running the benchmark by hand needs the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+// Event counters are summed over iterations, so a single measured iteration reports the figures directly
+@Measurement(iterations = 1)
+@Fork(1)
+public class ConcurrentConnectionsBenchmark {
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"10000"})
+    public int connections;
+
+    private ConfigurableApplicationContext context;
+    private ExecutorService clientExecutor;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Load {
+        public long requestsPerSecond;
+        public long failed;
+        public long peakThreads;
+        public long peakHeapMb;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (virtualThreads && Runtime.version().feature() < 21) {
+            throw new IllegalStateException("Virtual threads need Java 21, run with -p virtualThreads=false");
+        }
+        context = BenchmarkSupport.startApplication(
+                "spring.threads.virtual.enabled=" + virtualThreads,
+                "server.tomcat.max-connections=" + (connections + 100),
+                "server.tomcat.accept-count=" + connections,
+                "server.tomcat.connection-timeout=PT2M");
+        TenantService tenantService = context.getBean(TenantService.class);
+        TenantCoordinator tenantCoordinator = context.getBean(TenantCoordinator.class);
+
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        String identity = "bench-" + suffix + "@authsome.dev";
+        FetchedTenant tenant = tenantService.createTenant("bench-" + suffix, BenchmarkSupport.PASSWORD);
+        tenantService.addIdentityForTenant(tenant.id(), IdentityType.EMAIL, identity);
+        String accessToken = tenantCoordinator.signInTenantWithPassword(IdentityType.EMAIL, identity, BenchmarkSupport.PASSWORD, "127.0.0.1").accessToken();
+
+        String port = context.getEnvironment().getProperty("local.server.port");
+        clientExecutor = Executors.newFixedThreadPool(4);
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMinutes(1))
+                .executor(clientExecutor)
+                .build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/authsome-service/api-key"))
+                .header("Authorization", "Bearer " + accessToken)
+                .timeout(Duration.ofMinutes(2))
+                .GET()
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        clientExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public int concurrentRequests(Load load) {
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; i++) {
+            responses[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, error) -> {
+                        if (error != null || response.statusCode() != 200) {
+                            failed.incrementAndGet();
+                        }
+                        return null;
+                    });
+        }
+        CompletableFuture.allOf(responses).join();
+        long elapsed = System.nanoTime() - start;
+
+        load.requestsPerSecond = connections * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        load.failed = failed.get();
+        load.peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        load.peakHeapMb = peakHeap >> 20;
+        return connections - failed.get();
+    }
+}
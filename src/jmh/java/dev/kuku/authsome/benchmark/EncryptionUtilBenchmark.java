@@ -0,0 +1,37 @@
+package dev.kuku.authsome.benchmark;
+
+import dev.kuku.authsome.util.EncryptionUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the symmetric encryption used to keep signup passwords in OTP metadata.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionUtilBenchmark {
+
+    private EncryptionUtil encryptionUtil;
+    private String encrypted;
+
+    @Setup
+    public void setup() {
+        encryptionUtil = new EncryptionUtil(BenchmarkSupport.ENCRYPTION_KEY);
+        encrypted = encryptionUtil.encrypt(BenchmarkSupport.PASSWORD);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return encryptionUtil.encrypt(BenchmarkSupport.PASSWORD);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return encryptionUtil.decrypt(encrypted);
+    }
+}
@@ -0,0 +1,66 @@
+package dev.kuku.authsome.benchmark;
+
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import dev.kuku.authsome.services.jwt.impl.JwtServiceImpl;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures access token signing and verification as done for every sign-in and every authenticated request.
+ * <p>
+ * The {@code jjwt*} benchmarks reproduce the previous implementation, which derived the key and built a new jjwt
+ * builder or parser for every token, and are kept as the baseline for {@link JwtServiceImpl}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtServiceBenchmark {
+
+    private JwtServiceImpl jwtService;
+    private String token;
+
+    @Setup
+    public void setup() {
+        jwtService = new JwtServiceImpl(BenchmarkSupport.JWT_SECRET);
+        token = jwtService.generateToken(BenchmarkSupport.TENANT_ID, null, "AUTHSOME_TENANT", 60, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtService.generateToken(BenchmarkSupport.TENANT_ID, null, "AUTHSOME_TENANT", 60, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public ParsedToken parseToken() {
+        return jwtService.parseToken(token);
+    }
+
+    @Benchmark
+    public String jjwtGenerateToken() {
+        SecretKey key = Keys.hmacShaKeyFor(BenchmarkSupport.JWT_SECRET.getBytes(StandardCharsets.UTF_8));
+        Date now = new Date();
+        return Jwts.builder()
+                .subject(BenchmarkSupport.TENANT_ID)
+                .issuer("AUTHSOME_TENANT")
+                .issuedAt(now)
+                .expiration(new Date(now.getTime() + TimeUnit.MINUTES.toMillis(60)))
+                .signWith(key)
+                .compact();
+    }
+
+    @Benchmark
+    public Claims jjwtParseToken() {
+        SecretKey key = Keys.hmacShaKeyFor(BenchmarkSupport.JWT_SECRET.getBytes(StandardCharsets.UTF_8));
+        return Jwts.parser().verifyWith(key).build().parseSignedClaims(token).getPayload();
+    }
+}
@@ -0,0 +1,74 @@
+package dev.kuku.authsome.benchmark;
+
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import dev.kuku.authsome.services.otp.impl.OtpCodeGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures OTP code generation against a naive baseline that creates a {@link SecureRandom} per call and retries
+ * until the code meets the digit and letter bounds. {@code bounds=signup} is the 4 digit code used by tenant signup,
+ * {@code bounds=mixed} an 8 character alphanumeric code with at least 2 digits and 2 letters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OtpCodeGeneratorBenchmark {
+
+    @Param({"signup", "mixed"})
+    public String bounds;
+
+    private OtpType otpType;
+    private int length;
+    private int minNumber;
+    private int minAlphabet;
+
+    @Setup
+    public void setup() {
+        if (bounds.equals("signup")) {
+            otpType = OtpType.NUMERIC;
+            length = 4;
+            minNumber = -1;
+            minAlphabet = -1;
+        } else {
+            otpType = OtpType.ALPHANUMERIC;
+            length = 8;
+            minNumber = 2;
+            minAlphabet = 2;
+        }
+    }
+
+    @Benchmark
+    public String generate() {
+        return OtpCodeGenerator.generate(otpType, length, minNumber, minAlphabet, -1, -1);
+    }
+
+    @Benchmark
+    public String naiveGenerate() {
+        SecureRandom random = new SecureRandom();
+        String alphabet = switch (otpType) {
+            case NUMERIC -> "0123456789";
+            case ALPHABETIC -> "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+            case ALPHANUMERIC -> "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        };
+        while (true) {
+            StringBuilder code = new StringBuilder();
+            int digits = 0;
+            for (int i = 0; i < length; i++) {
+                char c = alphabet.charAt(random.nextInt(alphabet.length()));
+                if (Character.isDigit(c)) {
+                    digits++;
+                }
+                code.append(c);
+            }
+            if (digits >= Math.max(0, minNumber) && length - digits >= Math.max(0, minAlphabet)) {
+                return code.toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package dev.kuku.authsome.benchmark;
+
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import dev.kuku.authsome.services.otp.impl.InMemoryOtpService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap retained by the in-memory OTP store per pending OTP, reported as the {@code bytesPerOtp}
+ * secondary result. {@code metadata=signup} stores the same metadata as a tenant signup, with distinct values per
+ * OTP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+// Event counters are summed over iterations, so a single measured iteration reports the per-OTP figure directly
+@Measurement(iterations = 1)
+@Fork(1)
+public class OtpFootprintBenchmark {
+    private static final int PENDING = 1_000_000;
+
+    @Param({"none", "signup"})
+    public String metadata;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long bytesPerOtp;
+    }
+
+    @Benchmark
+    public InMemoryOtpService fillMillion(Footprint footprint) {
+        long before = usedHeap();
+        InMemoryOtpService service = OtpServiceBenchmark.newService();
+        for (int i = 0; i < PENDING; i++) {
+            Map<String, String> otpMetadata = metadata.equals("signup")
+                    ? Map.of("identity", "tenant" + i + "@example.com",
+                             "identityType", "EMAIL",
+                             "username", "tenant" + i,
+                             "password", "c2lnbnVwLXBhc3N3b3JkLWNpcGhlcnRleHQtIyIrIgo=" + i)
+                    : null;
+            service.generateAndSaveOtp(OtpType.NUMERIC, 6, -1, -1, -1, -1, 300, "AUTHSOME_TENANT_SIGNUP", otpMetadata);
+        }
+        footprint.bytesPerOtp = (usedHeap() - before) / PENDING;
+        return service;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
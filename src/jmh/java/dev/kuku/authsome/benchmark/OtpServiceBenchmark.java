@@ -0,0 +1,53 @@
+package dev.kuku.authsome.benchmark;
+
+import dev.kuku.authsome.services.otp.api.model.FetchedOtp;
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import dev.kuku.authsome.services.otp.impl.InMemoryOtpService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures insert and lookup throughput of the in-memory OTP store with a million OTPs pending.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OtpServiceBenchmark {
+    private static final int PENDING = 1_000_000;
+
+    private InMemoryOtpService otpService;
+    private String[] ids;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        otpService = newService();
+        ids = new String[PENDING];
+        for (int i = 0; i < PENDING; i++) {
+            ids[i] = otpService.generateAndSaveOtp(OtpType.NUMERIC, 6, -1, -1, -1, -1, 300, "AUTHSOME_TENANT_SIGNUP", null).id;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public FetchedOtp generateAndSaveOtp() {
+        return otpService.generateAndSaveOtp(OtpType.NUMERIC, 6, -1, -1, -1, -1, 300, "AUTHSOME_TENANT_SIGNUP", null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public FetchedOtp getOtpById() {
+        return otpService.getOtpById(ids[ThreadLocalRandom.current().nextInt(PENDING)]);
+    }
+
+    static InMemoryOtpService newService() {
+        return new InMemoryOtpService(64, 20_000_000, 1000, new SimpleMeterRegistry());
+    }
+
+}
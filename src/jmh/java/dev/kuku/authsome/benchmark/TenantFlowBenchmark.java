@@ -0,0 +1,94 @@
+package dev.kuku.authsome.benchmark;
+
+import dev.kuku.authsome.orchestrator.TenantCoordinator;
+import dev.kuku.authsome.services.tenant.api.TenantService;
+import dev.kuku.authsome.services.tenant.api.dto.FetchedTenant;
+import dev.kuku.authsome.services.tenant.api.dto.IdentityType;
+import dev.kuku.authsome.services.tenant.api.dto.TokenData;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full sign-in and refresh flows of {@link TenantCoordinator} against an embedded H2 database,
+ * the access token and API key lookups done by the security filters for every request, and the bcrypt verification done by
+ * {@link TenantService#validateTenantCredentials} on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TenantFlowBenchmark {
+
+    private ConfigurableApplicationContext context;
+    private TenantCoordinator tenantCoordinator;
+    private TenantService tenantService;
+    private String tenantId;
+    private String identity;
+    private String accessToken;
+    private String apiKey;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkSupport.startApplication();
+        tenantCoordinator = context.getBean(TenantCoordinator.class);
+        tenantService = context.getBean(TenantService.class);
+
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        identity = "bench-" + suffix + "@authsome.dev";
+        FetchedTenant tenant = tenantService.createTenant("bench-" + suffix, BenchmarkSupport.PASSWORD);
+        tenantService.addIdentityForTenant(tenant.id(), IdentityType.EMAIL, identity);
+        tenantId = tenant.id();
+        accessToken = tenantCoordinator.signInTenantWithPassword(IdentityType.EMAIL, identity, BenchmarkSupport.PASSWORD, "127.0.0.1").accessToken();
+        apiKey = tenantCoordinator.generateAPIKeyForTenant(tenantId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * Holds one refresh token per benchmark thread, as each refresh rotates the token it was given.
+     */
+    @State(Scope.Thread)
+    public static class RefreshState {
+        String refreshToken;
+
+        @Setup(Level.Trial)
+        public void setup(TenantFlowBenchmark benchmark) {
+            refreshToken = benchmark.tenantService.createTenantRefreshToken(benchmark.tenantId, null);
+        }
+    }
+
+    @Benchmark
+    public boolean validateTenantCredentials() {
+        return tenantService.validateTenantCredentials(tenantId, BenchmarkSupport.PASSWORD);
+    }
+
+    @Benchmark
+    public TokenData signInTenantWithPassword() {
+        return tenantCoordinator.signInTenantWithPassword(IdentityType.EMAIL, identity, BenchmarkSupport.PASSWORD, "127.0.0.1");
+    }
+
+    @Benchmark
+    public FetchedTenant getTenantFromAccessToken() {
+        return tenantCoordinator.getTenantFromAccessToken(accessToken);
+    }
+
+    @Benchmark
+    public FetchedTenant getTenantFromApi() {
+        return tenantCoordinator.getTenantFromApi(apiKey);
+    }
+
+    @Benchmark
+    public TokenData refreshTenantToken(RefreshState state) {
+        TokenData tokenData = tenantCoordinator.refreshTenantToken(state.refreshToken);
+        state.refreshToken = tokenData.refreshToken();
+        return tokenData;
+    }
+}
@@ -0,0 +1,12 @@
+package dev.kuku.authsome.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables {@code @Scheduled} background jobs such as filter rebuilds and expiry sweeps.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -2,6 +2,7 @@ package dev.kuku.authsome.config;
 
 import dev.kuku.authsome.config.securityFilter.AuthsomeTenantApiKeyFilter;
 import dev.kuku.authsome.config.securityFilter.AuthsomeTenantJwtFilter;
+import dev.kuku.authsome.controller.JwksController;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -28,7 +29,7 @@ public class SecurityConfig {
                         session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .authorizeHttpRequests(auth -> auth
                         // Public endpoints
-                        .requestMatchers("/api/public/**", "/health", "/actuator/**").permitAll()
+                        .requestMatchers("/api/public/**", "/health", "/actuator/**", JwksController.PATH).permitAll()
                         // All other requests require authentication
                         .anyRequest().authenticated()
                 )
@@ -0,0 +1,186 @@
+package dev.kuku.authsome.config.securityFilter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kuku.authsome.model.ResponseModel;
+import dev.kuku.authsome.services.ratelimit.api.ClusterRateLimiter;
+import dev.kuku.authsome.util.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limits the unauthenticated endpoints that cost the most, signup (an OTP e-mail) and password sign-in (a bcrypt
+ * verification), before the request reaches security, the controller or {@code TenantCoordinator}.
+ * <p>
+ * Each endpoint has up to three token bucket limits, {@code authsome.rate-limit.<endpoint>.ip}, {@code .identity}
+ * and {@code .endpoint}, written as {@code <permits>/<duration>} (e.g. {@code 20/PT1M}) and checked in that order;
+ * a blank limit is not enforced. The client address is {@link HttpServletRequest#getRemoteAddr()}, so deployments
+ * behind a proxy need {@code server.forward-headers-strategy} set. Rejected requests get a 429 with
+ * {@code Retry-After}. At most {@code authsome.rate-limit.max-keys} keys are tracked per limit, and buckets of idle
+ * keys are evicted every {@code authsome.rate-limit.sweep-interval}.
+ * <p>
+ * With {@code authsome.rate-limit.cluster.enabled=true} every limit is also enforced across all instances by the
+ * {@link ClusterRateLimiter}, so that spreading requests over instances does not multiply the budget.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@ConditionalOnProperty(name = "authsome.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class RateLimitFilter extends OncePerRequestFilter {
+    static final String SIGNUP_PATH = "/api/v1/authsome-service/signup";
+    static final String SIGN_IN_PATH = "/api/v1/authsome-service/sign-in/password";
+
+    /**
+     * One limit of an endpoint, e.g. {@code sign-in.ip}; a null limiter is not enforced.
+     */
+    private record Limit(String name, RateLimiter limiter, Counter rejected) {
+    }
+
+    /**
+     * The limits of one endpoint.
+     */
+    private record EndpointLimits(String name, Limit ip, Limit identity, Limit endpoint) {
+    }
+
+    private final ObjectMapper objectMapper;
+    private final ClusterRateLimiter clusterRateLimiter;
+    private final Map<String, EndpointLimits> limitsByPath;
+
+    public RateLimitFilter(ObjectMapper objectMapper,
+                           ObjectProvider<ClusterRateLimiter> clusterRateLimiter,
+                           @Value("${authsome.rate-limit.max-keys:200000}") int maxKeys,
+                           @Value("${authsome.rate-limit.stripes:16}") int stripes,
+                           @Value("${authsome.rate-limit.signup.ip:20/PT1M}") String signupIp,
+                           @Value("${authsome.rate-limit.signup.identity:5/PT10M}") String signupIdentity,
+                           @Value("${authsome.rate-limit.signup.endpoint:200/PT1S}") String signupEndpoint,
+                           @Value("${authsome.rate-limit.sign-in.ip:60/PT1M}") String signInIp,
+                           @Value("${authsome.rate-limit.sign-in.identity:20/PT1M}") String signInIdentity,
+                           @Value("${authsome.rate-limit.sign-in.endpoint:500/PT1S}") String signInEndpoint,
+                           MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.clusterRateLimiter = clusterRateLimiter.getIfAvailable();
+        this.limitsByPath = Map.of(
+                SIGNUP_PATH, limits("signup", signupIp, signupIdentity, signupEndpoint, maxKeys, stripes, meterRegistry),
+                SIGN_IN_PATH, limits("sign-in", signInIp, signInIdentity, signInEndpoint, maxKeys, stripes, meterRegistry));
+        log.info("RateLimitFilter initialized, cluster: {}, maxKeys: {}, stripes: {}, signup: ip {}, identity {}, endpoint {}, sign-in: ip {}, identity {}, endpoint {}",
+                this.clusterRateLimiter != null, maxKeys, stripes, signupIp, signupIdentity, signupEndpoint, signInIp, signInIdentity, signInEndpoint);
+    }
+
+    private static EndpointLimits limits(String name, String ip, String identity, String endpoint, int maxKeys, int stripes,
+                                         MeterRegistry meterRegistry) {
+        EndpointLimits limits = new EndpointLimits(name,
+                limit(name, "ip", RateLimiter.parse(ip, maxKeys, stripes), meterRegistry),
+                limit(name, "identity", RateLimiter.parse(identity, maxKeys, stripes), meterRegistry),
+                limit(name, "endpoint", RateLimiter.parse(endpoint, 1, 1), meterRegistry));
+        Gauge.builder("authsome.rate-limit.keys", limits, l -> size(l.ip()) + size(l.identity()))
+                .tag("endpoint", name)
+                .register(meterRegistry);
+        return limits;
+    }
+
+    private static Limit limit(String endpoint, String dimension, RateLimiter limiter, MeterRegistry meterRegistry) {
+        Counter rejected = Counter.builder("authsome.rate-limit.rejected").tag("endpoint", endpoint).tag("limit", dimension).register(meterRegistry);
+        return new Limit(endpoint + "." + dimension, limiter, rejected);
+    }
+
+    private static int size(Limit limit) {
+        return limit.limiter() == null ? 0 : limit.limiter().size();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equals(request.getMethod()) || !limitsByPath.containsKey(path(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        EndpointLimits limits = limitsByPath.get(path(request));
+        long waitNanos = acquire(limits.ip(), request.getRemoteAddr());
+        if (waitNanos == 0) {
+            String identity = request.getParameter("identity");
+            if (identity != null) {
+                waitNanos = acquire(limits.identity(), identity.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        if (waitNanos == 0) {
+            waitNanos = acquire(limits.endpoint(), "");
+        }
+        if (waitNanos > 0) {
+            log.debug("Rate limited {} from {}", limits.name(), request.getRemoteAddr());
+            reject(response, waitNanos);
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * Takes a permit from this instance's bucket and, when limits are shared, from the cluster's budget. A request the
+     * cluster turns away gets its local token back, so it does not count against this instance twice.
+     */
+    private long acquire(Limit limit, String key) {
+        RateLimiter limiter = limit.limiter();
+        if (limiter == null || key == null) {
+            return 0;
+        }
+        long waitNanos = limiter.tryAcquire(key);
+        if (waitNanos == 0 && clusterRateLimiter != null) {
+            waitNanos = clusterRateLimiter.tryAcquire(limit.name(), key, limiter.permits(), limiter.period());
+            if (waitNanos > 0) {
+                limiter.release(key);
+            }
+        }
+        if (waitNanos > 0) {
+            limit.rejected().increment();
+        }
+        return waitNanos;
+    }
+
+    private void reject(HttpServletResponse response, long waitNanos) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1))));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), ResponseModel.of(null, "Too many requests, try again later"));
+    }
+
+    /**
+     * Drops the buckets of keys that have been quiet long enough to be full again.
+     */
+    @Scheduled(fixedDelayString = "${authsome.rate-limit.sweep-interval:PT30S}")
+    public void evictIdle() {
+        int evicted = 0;
+        for (EndpointLimits limits : limitsByPath.values()) {
+            evicted += evictIdle(limits.ip().limiter()) + evictIdle(limits.identity().limiter());
+        }
+        if (evicted > 0) {
+            log.debug("Evicted {} idle rate limit keys", evicted);
+        }
+    }
+
+    private static int evictIdle(RateLimiter limiter) {
+        return limiter == null ? 0 : limiter.evictIdle();
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+}
@@ -1,16 +1,21 @@
 package dev.kuku.authsome.controller;
 
+import dev.kuku.authsome.model.IntrospectTokensRequest;
 import dev.kuku.authsome.model.ResponseModel;
 import dev.kuku.authsome.model.SignupTenantRequest;
 import dev.kuku.authsome.model.TenantSignInRequest;
 import dev.kuku.authsome.orchestrator.TenantCoordinator;
+import dev.kuku.authsome.services.jwt.api.dto.TokenIntrospection;
 import dev.kuku.authsome.services.tenant.api.dto.FetchedTenant;
 import dev.kuku.authsome.services.tenant.api.dto.TokenData;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 /**
  * REST controller for Authsome service operations.
  * <p>
@@ -60,9 +65,9 @@ public class AuthsomeController {
     }
 
     @PostMapping("/sign-in/password")
-    public ResponseModel<TokenData> signIn(TenantSignInRequest body) {
+    public ResponseModel<TokenData> signIn(TenantSignInRequest body, HttpServletRequest request) {
         log.trace("signIn : {}", body);
-        TokenData tokenData = tenantCoordinator.signInTenantWithPassword(body.identityType, body.identity, body.password);
+        TokenData tokenData = tenantCoordinator.signInTenantWithPassword(body.identityType, body.identity, body.password, request.getRemoteAddr());
         return ResponseModel.of(tokenData);
     }
 
@@ -87,4 +92,28 @@ public class AuthsomeController {
         String apiKey = tenantCoordinator.generateAPIKeyForTenant(currentUser.id());
         return ResponseModel.of(apiKey);
     }
+
+    @DeleteMapping("/api-key")
+    public ResponseModel<Void> revokeAPIKey(String apiKey) {
+        log.trace("revokeAPIKey");
+        FetchedTenant currentUser = (FetchedTenant) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        tenantCoordinator.revokeAPIKeyForTenant(currentUser.id(), apiKey);
+        return ResponseModel.of(null);
+    }
+
+    /**
+     * Verifies a batch of access tokens on behalf of a resource server.
+     * <p>
+     * Each distinct token is verified once, and large batches are verified in parallel. A malformed, forged or expired
+     * token does not fail the call but is reported as not valid.
+     *
+     * @param body the tokens to verify
+     * @return the subject, expiry and validity of every token, in the order of the request
+     */
+    @PostMapping("/introspect")
+    public ResponseModel<List<TokenIntrospection>> introspectTokens(@RequestBody IntrospectTokensRequest body) {
+        log.trace("introspectTokens : {} tokens", body.tokens == null ? 0 : body.tokens.size());
+        List<TokenIntrospection> results = tenantCoordinator.introspectAccessTokens(body.tokens);
+        return ResponseModel.of(results);
+    }
 }
@@ -0,0 +1,42 @@
+package dev.kuku.authsome.controller;
+
+import dev.kuku.authsome.services.jwt.api.JwtService;
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes the public keys tokens are signed with as a JSON Web Key Set (RFC 7517), so that other services can
+ * verify tokens locally instead of calling back.
+ * <p>
+ * The response may be cached for {@code jwt.jwks.max-age}; a new key is published at least that long before it signs.
+ * The set is empty when tokens are signed with a shared secret.
+ */
+@RequiredArgsConstructor
+@RestController
+@Slf4j
+public class JwksController {
+    public static final String PATH = "/.well-known/jwks.json";
+
+    final JwtService jwtService;
+
+    @Value("${jwt.jwks.max-age:PT10M}")
+    Duration maxAge;
+
+    @GetMapping(PATH)
+    public ResponseEntity<Map<String, List<JsonWebKey>>> jwks() {
+        log.trace("jwks");
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(maxAge).cachePublic())
+                .body(Map.of("keys", jwtService.publicKeys()));
+    }
+}
@@ -0,0 +1,18 @@
+package dev.kuku.authsome.model;
+
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Request dto for batch token introspection.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+public class IntrospectTokensRequest {
+    /**
+     * The access tokens to verify, at most {@code authsome.introspection.max-batch-size}
+     */
+    public List<String> tokens;
+}
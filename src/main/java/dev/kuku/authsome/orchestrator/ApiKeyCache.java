@@ -0,0 +1,89 @@
+package dev.kuku.authsome.orchestrator;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import dev.kuku.authsome.services.tenant.api.dto.FetchedTenant;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static dev.kuku.authsome.util.Util.Sha256Base64;
+
+/**
+ * Read-through cache of API key to tenant resolutions.
+ * <p>
+ * Unknown keys are cached too, for a shorter time, so repeated requests with a bad key do not reach the database.
+ * Entries are keyed by the SHA-256 digest of the key and must be invalidated whenever a key is created or revoked.
+ * Invalidation is local to this instance, other instances see the change once their entry expires. Hit, miss and
+ * eviction counts are published under the {@code authsome.api-key-cache} cache name.
+ */
+@Component
+@Slf4j
+public class ApiKeyCache {
+
+    private final boolean enabled;
+    private final Cache<String, Optional<FetchedTenant>> cache;
+
+    public ApiKeyCache(@Value("${authsome.api-key-cache.enabled:true}") boolean enabled,
+                       @Value("${authsome.api-key-cache.max-size:100000}") long maxSize,
+                       @Value("${authsome.api-key-cache.ttl-seconds:300}") long ttlSeconds,
+                       @Value("${authsome.api-key-cache.negative-ttl-seconds:30}") long negativeTtlSeconds,
+                       MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        long ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        long negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Optional<FetchedTenant>>() {
+                    @Override
+                    public long expireAfterCreate(String key, Optional<FetchedTenant> tenant, long currentTime) {
+                        return tenant.isPresent() ? ttlNanos : negativeTtlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Optional<FetchedTenant> tenant, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, tenant, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Optional<FetchedTenant> tenant, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "authsome.api-key-cache");
+        log.info("ApiKeyCache initialized, enabled: {}, maxSize: {}, ttlSeconds: {}, negativeTtlSeconds: {}", enabled, maxSize, ttlSeconds, negativeTtlSeconds);
+    }
+
+    /**
+     * Resolves an API key, loading it with the given function on a miss. Concurrent misses for the same key share a
+     * single load.
+     *
+     * @param apiKey the raw API key
+     * @param loader loads the tenant owning the key, returning null if there is none
+     * @return the tenant owning the key, null if there is none
+     */
+    public FetchedTenant get(String apiKey, Function<String, FetchedTenant> loader) {
+        if (!enabled) {
+            return loader.apply(apiKey);
+        }
+        return cache.get(Sha256Base64(apiKey), digest -> Optional.ofNullable(loader.apply(apiKey))).orElse(null);
+    }
+
+    /**
+     * Drops the cached resolution of an API key.
+     *
+     * @param apiKey the raw API key
+     */
+    public void invalidate(String apiKey) {
+        cache.invalidate(Sha256Base64(apiKey));
+    }
+}
@@ -0,0 +1,200 @@
+package dev.kuku.authsome.orchestrator;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks failed password sign-ins per tenant and per client address and locks either out once it fails too often, so
+ * that guessing passwords stops costing a bcrypt verification per attempt.
+ * <p>
+ * Failures are counted in a sliding window of {@code authsome.sign-in.lockout.window}, estimated from the counts of
+ * the current and the previous fixed window. Reaching {@code max-failures-per-tenant} or
+ * {@code max-failures-per-address} locks the key for {@code base-lockout}, doubled with every further lockout of the
+ * same key up to {@code max-lockout}; the count starts over after each lockout. A successful sign-in clears the
+ * tenant's state but not the address's, so that an attacker cannot reset its address with an account of its own.
+ * <p>
+ * Each tracker is a Caffeine cache of at most {@code authsome.sign-in.lockout.max-keys} small entries, dropped once a
+ * key has been quiet for a window and the longest lockout. Under a flood of distinct addresses its frequency-based
+ * eviction keeps the keys that keep failing, such as an attacked tenant, over one-off ones. Statistics are published
+ * under the {@code authsome.sign-in.lockout.tenants} and {@code authsome.sign-in.lockout.addresses} cache names.
+ */
+@Component
+@Slf4j
+public class SignInLockout {
+
+    /**
+     * Failure counts of one key, in seconds since the tracker started.
+     */
+    static final class Window {
+        private int windowStart;
+        private short previous;
+        private short current;
+        private byte lockouts;
+        private int lockedUntil;
+
+        synchronized int lockedFor(int now) {
+            return Math.max(0, lockedUntil - now);
+        }
+
+        /**
+         * Counts a failure.
+         *
+         * @return seconds the key is locked out for because of it, 0 if it is not
+         */
+        synchronized int recordFailure(int now, int window, int maxFailures, int baseLockout, int maxLockout) {
+            int elapsed = now - windowStart;
+            if (elapsed >= window) {
+                previous = elapsed < 2 * window ? current : 0;
+                current = 0;
+                windowStart = now - elapsed % window;
+                elapsed = now - windowStart;
+            }
+            if (current < Short.MAX_VALUE) {
+                current++;
+            }
+            long estimate = (long) previous * (window - elapsed) / window + current;
+            if (estimate < maxFailures) {
+                return 0;
+            }
+            int lockout = (int) Math.min(maxLockout, (long) baseLockout << Math.min(lockouts, 30));
+            if (lockouts < Byte.MAX_VALUE) {
+                lockouts++;
+            }
+            previous = 0;
+            current = 0;
+            lockedUntil = now + lockout;
+            return lockout;
+        }
+    }
+
+    private final boolean enabled;
+    private final int windowSeconds;
+    private final int maxFailuresPerTenant;
+    private final int maxFailuresPerAddress;
+    private final int baseLockoutSeconds;
+    private final int maxLockoutSeconds;
+    private final long startNanos = System.nanoTime();
+    private final Cache<String, Window> tenants;
+    private final Cache<String, Window> addresses;
+    private final Counter lockedOut;
+    private final Counter rejected;
+
+    public SignInLockout(@Value("${authsome.sign-in.lockout.enabled:true}") boolean enabled,
+                         @Value("${authsome.sign-in.lockout.window:PT15M}") Duration window,
+                         @Value("${authsome.sign-in.lockout.max-failures-per-tenant:10}") int maxFailuresPerTenant,
+                         @Value("${authsome.sign-in.lockout.max-failures-per-address:30}") int maxFailuresPerAddress,
+                         @Value("${authsome.sign-in.lockout.base-lockout:PT1M}") Duration baseLockout,
+                         @Value("${authsome.sign-in.lockout.max-lockout:PT1H}") Duration maxLockout,
+                         @Value("${authsome.sign-in.lockout.max-keys:1000000}") long maxKeys,
+                         MeterRegistry meterRegistry) {
+        if (window.toSeconds() < 1 || maxFailuresPerTenant < 1 || maxFailuresPerAddress < 1) {
+            throw new IllegalArgumentException("authsome.sign-in.lockout window and failure limits must be positive");
+        }
+        this.enabled = enabled;
+        this.windowSeconds = (int) window.toSeconds();
+        this.maxFailuresPerTenant = maxFailuresPerTenant;
+        this.maxFailuresPerAddress = maxFailuresPerAddress;
+        this.baseLockoutSeconds = (int) baseLockout.toSeconds();
+        this.maxLockoutSeconds = (int) maxLockout.toSeconds();
+        this.tenants = newTracker(maxKeys, window.plus(maxLockout), meterRegistry, "authsome.sign-in.lockout.tenants");
+        this.addresses = newTracker(maxKeys, window.plus(maxLockout), meterRegistry, "authsome.sign-in.lockout.addresses");
+        this.lockedOut = Counter.builder("authsome.sign-in.lockout.locked-out").register(meterRegistry);
+        this.rejected = Counter.builder("authsome.sign-in.lockout.rejected").register(meterRegistry);
+        log.info("SignInLockout initialized, enabled: {}, window: {}, maxFailuresPerTenant: {}, maxFailuresPerAddress: {}, baseLockout: {}, maxLockout: {}, maxKeys: {}",
+                enabled, window, maxFailuresPerTenant, maxFailuresPerAddress, baseLockout, maxLockout, maxKeys);
+    }
+
+    private static Cache<String, Window> newTracker(long maxKeys, Duration idle, MeterRegistry meterRegistry, String name) {
+        Cache<String, Window> cache = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(idle)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        return cache;
+    }
+
+    /**
+     * @param clientAddress address the sign-in comes from, null if unknown
+     * @return seconds the address is locked out for, 0 if it may try
+     */
+    public int addressLockedFor(String clientAddress) {
+        return lockedFor(addresses, clientAddress);
+    }
+
+    /**
+     * @param tenantId tenant being signed in to
+     * @return seconds the tenant is locked out for, 0 if it may try
+     */
+    public int tenantLockedFor(String tenantId) {
+        return lockedFor(tenants, tenantId);
+    }
+
+    private int lockedFor(Cache<String, Window> tracker, String key) {
+        if (!enabled || key == null) {
+            return 0;
+        }
+        Window window = tracker.getIfPresent(key);
+        int lockedFor = window == null ? 0 : window.lockedFor(now());
+        if (lockedFor > 0) {
+            rejected.increment();
+        }
+        return lockedFor;
+    }
+
+    /**
+     * Counts a failed sign-in against the address and, if the identity belonged to one, the tenant.
+     *
+     * @param tenantId      tenant the sign-in was for, null if the identity is unknown
+     * @param clientAddress address the sign-in came from, null if unknown
+     */
+    public void recordFailure(String tenantId, String clientAddress) {
+        if (!enabled) {
+            return;
+        }
+        int now = now();
+        if (tenantId != null) {
+            recordFailure(tenants, tenantId, now, maxFailuresPerTenant);
+        }
+        if (clientAddress != null) {
+            recordFailure(addresses, clientAddress, now, maxFailuresPerAddress);
+        }
+    }
+
+    private void recordFailure(Cache<String, Window> tracker, String key, int now, int maxFailures) {
+        Window window = tracker.get(key, k -> {
+            Window created = new Window();
+            created.windowStart = now;
+            return created;
+        });
+        int lockout = window.recordFailure(now, windowSeconds, maxFailures, baseLockoutSeconds, maxLockoutSeconds);
+        if (lockout > 0) {
+            lockedOut.increment();
+            log.warn("Sign-in locked out for {} s after repeated failures: {}", lockout, key);
+        }
+    }
+
+    /**
+     * Forgets the failures of a tenant that signed in successfully.
+     *
+     * @param tenantId the tenant
+     */
+    public void recordSuccess(String tenantId) {
+        if (enabled) {
+            tenants.invalidate(tenantId);
+        }
+    }
+
+    private int now() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+    }
+}
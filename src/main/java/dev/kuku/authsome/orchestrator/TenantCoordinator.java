@@ -1,6 +1,8 @@
 package dev.kuku.authsome.orchestrator;
 
 import dev.kuku.authsome.services.jwt.api.JwtService;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import dev.kuku.authsome.services.jwt.api.dto.TokenIntrospection;
 import dev.kuku.authsome.services.notifier.api.NotifierService;
 import dev.kuku.authsome.services.otp.api.OtpService;
 import dev.kuku.authsome.services.otp.api.model.FetchedOtp;
@@ -11,14 +13,18 @@ import dev.kuku.authsome.services.tenant.api.dto.IdentityType;
 import dev.kuku.authsome.services.tenant.api.dto.TenantAndRefreshToken;
 import dev.kuku.authsome.services.tenant.api.dto.TokenData;
 import dev.kuku.authsome.util.EncryptionUtil;
+import dev.kuku.authsome.util.MessageTemplate;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -32,11 +38,33 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 @RequiredArgsConstructor
 public class TenantCoordinator {
+    static final String CLAIM_USERNAME = "username";
+    static final String CLAIM_CREATED_AT = "tenant_created_at";
+    static final String CLAIM_UPDATED_AT = "tenant_updated_at";
+    private static final MessageTemplate SIGNUP_OTP_BODY =
+            MessageTemplate.compile("Your OTP to create your Authsome account is: {{code}}", "code");
+
     final TenantService tenantService;
     final OtpService otpService;
     final NotifierService notifierService;
     final JwtService jwtService;
     final EncryptionUtil encryptionUtil;
+    final VerifiedTokenCache verifiedTokenCache;
+    final ApiKeyCache apiKeyCache;
+    final SignInLockout signInLockout;
+
+    /**
+     * When enabled, access tokens carry the tenant fields and requests are authenticated from the verified claims
+     * alone, without loading the tenant from the database.
+     */
+    @Value("${authsome.access-token.stateless:false}")
+    boolean statelessAccessTokens;
+
+    /**
+     * Upper bound on the number of tokens in one introspection call.
+     */
+    @Value("${authsome.introspection.max-batch-size:1000}")
+    int maxIntrospectionBatchSize;
 
     /**
      * Initiates the tenant signup process by validating the request, generating an OTP,
@@ -61,7 +89,7 @@ public class TenantCoordinator {
      * @throws ResponseStatusException with CONFLICT if the identity or username is already in use
      */
     public String startTenantSignupProcess(IdentityType identityType, String identity, String username, String password) {
-        //TODO rate limiting
+        // Rate limited per client address, identity and endpoint by RateLimitFilter
         log.info("Start tenant signup process for identityType: {}, identity: {}, username: {}", identityType, identity, username);
 
         // Validate identity type is supported for signup
@@ -70,14 +98,12 @@ public class TenantCoordinator {
         }
 
         // Check if the identity is already registered
-        FetchedTenant fetchedTenant = tenantService.getTenantByIdentity(identityType, identity);
-        if (fetchedTenant != null) {
+        if (tenantService.isIdentityTaken(identityType, identity)) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "Identity already in use exists");
         }
 
         // Verify that the username is available
-        fetchedTenant = tenantService.getTenantByUsername(username);
-        if (fetchedTenant != null) {
+        if (tenantService.isUsernameTaken(username)) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "Username already in use exists");
         }
 
@@ -103,13 +129,17 @@ public class TenantCoordinator {
                 )                              // Metadata containing signup information
         );
 
-        // Send the OTP to the user's identity (email/phone)
-        notifierService.sendNotification(
-                dev.kuku.authsome.services.notifier.api.model.IdentityType.valueOf(identityType.name()),
-                identity,
-                "OTP to create authsome account",
-                "Your OTP to create your Authsome account is: " + fetchedOtp.code
-        );
+        // Queue the OTP for delivery to the user's identity (email/phone); sending happens in the background
+        try {
+            notifierService.sendNotification(
+                    dev.kuku.authsome.services.notifier.api.model.IdentityType.valueOf(identityType.name()),
+                    identity,
+                    "OTP to create authsome account",
+                    SIGNUP_OTP_BODY.render(fetchedOtp.code)
+            );
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many signup requests, try again later");
+        }
 
         // Return the OTP ID as the signup token for verification
         return fetchedOtp.id;
@@ -169,33 +199,77 @@ public class TenantCoordinator {
         String encryptedPassword = fetchedOtp.metadata.get("password").toString();
         String password = encryptionUtil.decrypt(encryptedPassword);
         //3. create tenant
-        FetchedTenant createdUser = tenantService.createTenant(username, password);
+        FetchedTenant createdUser;
+        try {
+            createdUser = tenantService.createTenant(username, password);
+        } catch (RejectedExecutionException e) {
+            throw passwordHashingBusy();
+        }
         // Add identity for the tenant
         tenantService.addIdentityForTenant(createdUser.id(), identityType, identity);
     }
 
-    public TokenData signInTenantWithPassword(IdentityType identityType, String identity, String password) {
+    /**
+     * Signs a tenant in with its password.
+     * <p>
+     * Addresses and tenants that failed too often recently are turned away by {@link SignInLockout} before the
+     * password is verified.
+     *
+     * @param identityType  the type of the identity
+     * @param identity      the identity value
+     * @param password      the password to verify
+     * @param clientAddress address the request comes from, null if unknown
+     * @return access and refresh token of the new session
+     * @throws ResponseStatusException with TOO_MANY_REQUESTS if the address or tenant is locked out
+     */
+    public TokenData signInTenantWithPassword(IdentityType identityType, String identity, String password, String clientAddress) {
         log.trace("signInTenant : {}, {}", identityType, identity);
+        if (signInLockout.addressLockedFor(clientAddress) > 0) {
+            throw tooManyFailedSignIns();
+        }
         //Fetch tenant by identity
         FetchedTenant fetchedTenant = tenantService.getTenantByIdentity(identityType, identity);
         //Validate if the tenant exists
         if (fetchedTenant == null) {
+            signInLockout.recordFailure(null, clientAddress);
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found with identity");
         }
+        // Checked before the password, so that locked out attempts cost no bcrypt verification
+        if (signInLockout.tenantLockedFor(fetchedTenant.id()) > 0) {
+            throw tooManyFailedSignIns();
+        }
         //Validate credentials
-        boolean valid = tenantService.validateTenantCredentials(fetchedTenant.id(), password);
+        boolean valid;
+        try {
+            valid = tenantService.validateTenantCredentials(fetchedTenant.id(), password);
+        } catch (RejectedExecutionException e) {
+            throw passwordHashingBusy();
+        }
         if (!valid) {
+            signInLockout.recordFailure(fetchedTenant.id(), clientAddress);
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid credentials");
         }
+        signInLockout.recordSuccess(fetchedTenant.id());
         //Generate refresh token.
         String refreshToken = tenantService.createTenantRefreshToken(fetchedTenant.id(), null);
         //Generate access token
-        String accessToken = generateAccessToken(fetchedTenant.id());
+        String accessToken = generateAccessToken(fetchedTenant);
         TokenData tokenData = new TokenData(accessToken, refreshToken);
         log.debug("Generated token data = {}... {}...", tokenData.accessToken().substring(5, 10), tokenData.refreshToken().substring(5, 10));
         return tokenData;
     }
 
+    /**
+     * Password hashing runs on a bounded pool; when its queue is full the request is refused immediately so that it
+     * does not hold a request thread while other endpoints wait.
+     */
+    private static ResponseStatusException passwordHashingBusy() {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many password requests, try again later");
+    }
+
+    private static ResponseStatusException tooManyFailedSignIns() {
+        return new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many failed sign-in attempts, try again later");
+    }
 
     public TokenData refreshTenantToken(String refreshToken) {
         log.trace("refreshTenantToken : {}", refreshToken);
@@ -204,7 +278,7 @@ public class TenantCoordinator {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid refresh token");
         }
         //Generate new access token
-        String accessToken = generateAccessToken(tenantAndRefreshToken.tenant.id());
+        String accessToken = generateAccessToken(tenantAndRefreshToken.tenant);
         TokenData tokenData = new TokenData(accessToken, tenantAndRefreshToken.refreshToken);
         log.debug("Generated new token data = {}... {}...", tokenData.accessToken().substring(5, 10), tokenData.refreshToken().substring(5, 10));
         return tokenData;
@@ -216,35 +290,98 @@ public class TenantCoordinator {
         tenantService.revokeTenantRefreshToken(refreshToken);
     }
 
-    private String generateAccessToken(String tenantId) {
-        log.trace("generateAccessToken : {}", tenantId);
-        String accessToken = jwtService.generateToken(tenantId, null, "AUTHSOME_TENANT", 3600, TimeUnit.MINUTES);
+    private String generateAccessToken(FetchedTenant tenant) {
+        log.trace("generateAccessToken : {}", tenant.id());
+        Map<String, String> claims = null;
+        if (statelessAccessTokens) {
+            claims = Map.of(
+                    CLAIM_USERNAME, tenant.username(),
+                    CLAIM_CREATED_AT, String.valueOf(tenant.createdAt()),
+                    CLAIM_UPDATED_AT, String.valueOf(tenant.updatedAt())
+            );
+        }
+        String accessToken = jwtService.generateToken(tenant.id(), claims, "AUTHSOME_TENANT", 3600, TimeUnit.MINUTES);
         return accessToken;
     }
 
     public String generateAPIKeyForTenant(String tenantId) {
         log.trace("generateAPIKeyForTenant : {}, {}", tenantId);
         String apiKey = tenantService.generateAPIKeyForTenant(tenantId);
+        // Drop a possibly cached "unknown key" result
+        apiKeyCache.invalidate(apiKey);
         log.debug("generateAPIKeyForTenant : {}, {}", apiKey, tenantId);
         return apiKey;
     }
 
+    public void revokeAPIKeyForTenant(String tenantId, String apiKey) {
+        log.trace("revokeAPIKeyForTenant : {}", tenantId);
+        tenantService.revokeAPIKeyForTenant(tenantId, apiKey);
+        apiKeyCache.invalidate(apiKey);
+    }
+
     public FetchedTenant getTenantFromApi(String apiKey) {
         log.trace("getTenantFromApi : {}", apiKey);
-        FetchedTenant fetchedTenant = tenantService.getTenantByApiKey(apiKey);
+        // Reject garbage keys before they reach the cache or the database
+        if (!tenantService.isWellFormedApiKey(apiKey)) {
+            log.debug("getTenantFromApi : malformed api key");
+            return null;
+        }
+        FetchedTenant fetchedTenant = apiKeyCache.get(apiKey, tenantService::getTenantByApiKey);
         log.debug("getTenantFromApi : {}", fetchedTenant);
         return fetchedTenant;
     }
 
     public FetchedTenant getTenantFromAccessToken(String accessToken) {
         log.trace("getTenantFromAccessToken : {}", accessToken);
+        // Tokens that were verified before are served from memory until they expire
+        VerifiedTokenCache.Entry cached = verifiedTokenCache.get(accessToken);
+        if (cached != null) {
+            log.debug("getTenantFromAccessToken (cached) : {}", cached.tenant());
+            return cached.tenant();
+        }
         var parsedData = jwtService.parseToken(accessToken);
         if (parsedData.expired()) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Token is expired");
         }
-        String tenantId = parsedData.subject();
-        FetchedTenant fetchedTenant = tenantService.getTenantById(tenantId);
+        FetchedTenant fetchedTenant = statelessAccessTokens ? tenantFromClaims(parsedData) : null;
+        if (fetchedTenant == null) {
+            // Tokens issued before stateless mode was enabled do not carry the tenant fields
+            fetchedTenant = tenantService.getTenantById(parsedData.subject());
+        }
+        if (fetchedTenant != null) {
+            verifiedTokenCache.put(accessToken, parsedData, fetchedTenant);
+        }
         log.debug("getTenantFromAccessToken : {}", fetchedTenant);
         return fetchedTenant;
     }
+
+    /**
+     * Verifies a batch of access tokens for a resource server.
+     *
+     * @param accessTokens the tokens, may contain repeats
+     * @return one result per token, in the order of the tokens
+     * @throws ResponseStatusException with BAD_REQUEST if no tokens or more than
+     *                                 {@code authsome.introspection.max-batch-size} tokens are given
+     */
+    public List<TokenIntrospection> introspectAccessTokens(List<String> accessTokens) {
+        log.trace("introspectAccessTokens : {} tokens", accessTokens == null ? 0 : accessTokens.size());
+        if (accessTokens == null || accessTokens.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Tokens cannot be null or empty");
+        }
+        if (accessTokens.size() > maxIntrospectionBatchSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxIntrospectionBatchSize + " tokens can be introspected at once");
+        }
+        return jwtService.introspectTokens(accessTokens);
+    }
+
+    private FetchedTenant tenantFromClaims(ParsedToken parsedToken) {
+        Map<String, String> claims = parsedToken.claims();
+        String username = claims.get(CLAIM_USERNAME);
+        String createdAt = claims.get(CLAIM_CREATED_AT);
+        String updatedAt = claims.get(CLAIM_UPDATED_AT);
+        if (username == null || createdAt == null || updatedAt == null) {
+            return null;
+        }
+        return new FetchedTenant(parsedToken.subject(), username, Long.parseLong(createdAt), Long.parseLong(updatedAt));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package dev.kuku.authsome.orchestrator;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import dev.kuku.authsome.services.tenant.api.dto.FetchedTenant;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+import static dev.kuku.authsome.util.Util.Sha256Base64;
+
+/**
+ * Bounded cache of access tokens that have already been verified, together with the tenant they resolved to.
+ * <p>
+ * Entries are keyed by the SHA-256 digest of the token, so raw bearer tokens are not kept in memory, and expire when
+ * the token expires or after {@code authsome.token-cache.max-ttl-seconds}, whichever comes first. Hit, miss and
+ * eviction counts are published under the {@code authsome.token-cache} cache name.
+ */
+@Component
+@Slf4j
+public class VerifiedTokenCache {
+
+    /**
+     * A verified token and the tenant it belongs to.
+     *
+     * @param parsedToken the verified token
+     * @param tenant      the tenant identified by the token subject
+     */
+    public record Entry(ParsedToken parsedToken, FetchedTenant tenant) {
+    }
+
+    private final boolean enabled;
+    private final Cache<String, Entry> cache;
+
+    public VerifiedTokenCache(@Value("${authsome.token-cache.enabled:true}") boolean enabled,
+                              @Value("${authsome.token-cache.max-size:100000}") long maxSize,
+                              @Value("${authsome.token-cache.max-ttl-seconds:900}") long maxTtlSeconds,
+                              MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        long maxTtlNanos = TimeUnit.SECONDS.toNanos(maxTtlSeconds);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        long expiresAt = entry.parsedToken().expiresAt();
+                        if (expiresAt == 0L) {
+                            return maxTtlNanos;
+                        }
+                        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(expiresAt - NowUTCMilli());
+                        return Math.max(0L, Math.min(maxTtlNanos, remainingNanos));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "authsome.token-cache");
+        log.info("VerifiedTokenCache initialized, enabled: {}, maxSize: {}, maxTtlSeconds: {}", enabled, maxSize, maxTtlSeconds);
+    }
+
+    /**
+     * Looks up a previously verified token.
+     *
+     * @param accessToken the raw access token
+     * @return the cached entry, or null if the token has not been verified yet or its entry expired
+     */
+    public Entry get(String accessToken) {
+        if (!enabled) {
+            return null;
+        }
+        return cache.getIfPresent(Sha256Base64(accessToken));
+    }
+
+    /**
+     * Remembers a verified token until it expires.
+     *
+     * @param accessToken the raw access token
+     * @param parsedToken the verified token
+     * @param tenant      the tenant identified by the token subject
+     */
+    public void put(String accessToken, ParsedToken parsedToken, FetchedTenant tenant) {
+        if (!enabled) {
+            return;
+        }
+        cache.put(Sha256Base64(accessToken), new Entry(parsedToken, tenant));
+    }
+}
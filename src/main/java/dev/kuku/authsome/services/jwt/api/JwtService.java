@@ -1,7 +1,10 @@
 package dev.kuku.authsome.services.jwt.api;
 
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
 import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import dev.kuku.authsome.services.jwt.api.dto.TokenIntrospection;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -9,4 +12,18 @@ public interface JwtService {
     String generateToken(String subject, Map<String, String> claims, String issuer, int expiry, TimeUnit expiryUnit);
 
     ParsedToken parseToken(String accessToken);
+
+    /**
+     * Verifies a batch of tokens. Unlike {@link #parseToken}, a malformed or forged token does not fail the call but
+     * is reported as {@link TokenIntrospection#INVALID}.
+     *
+     * @param accessTokens the tokens, may contain repeats
+     * @return one result per token, in the order of the tokens
+     */
+    List<TokenIntrospection> introspectTokens(List<String> accessTokens);
+
+    /**
+     * @return the keys other services can verify tokens with locally, empty when tokens are signed with a shared secret
+     */
+    List<JsonWebKey> publicKeys();
 }
@@ -0,0 +1,18 @@
+package dev.kuku.authsome.services.jwt.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Record representing a public signing key as a JSON Web Key (RFC 7517).
+ *
+ * @param kty the key type, {@code OKP} or {@code EC}
+ * @param crv the curve, {@code Ed25519} or {@code P-256}
+ * @param x   base64url of the public key, or of its x coordinate for {@code EC} keys
+ * @param y   base64url of the y coordinate for {@code EC} keys, null otherwise
+ * @param kid the key id, as found in the {@code kid} header of the tokens signed with the key
+ * @param alg the JWS algorithm of the key, {@code EdDSA} or {@code ES256}
+ * @param use always {@code sig}
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record JsonWebKey(String kty, String crv, String x, String y, String kid, String alg, String use) {
+}
@@ -2,5 +2,15 @@ package dev.kuku.authsome.services.jwt.api.dto;
 
 import java.util.Map;
 
-public record ParsedToken(String subject, String issuer, long issuedAt, boolean expired, Map<String, String> claims) {
+/**
+ * Record representing a verified JWT.
+ *
+ * @param subject   the subject of the token
+ * @param issuer    the issuer of the token
+ * @param issuedAt  the timestamp when the token was issued (in milliseconds since epoch)
+ * @param expiresAt the timestamp when the token expires (in milliseconds since epoch), 0 if it never expires
+ * @param expired   whether the token was already expired when it was parsed
+ * @param claims    the custom claims of the token
+ */
+public record ParsedToken(String subject, String issuer, long issuedAt, long expiresAt, boolean expired, Map<String, String> claims) {
 }
@@ -0,0 +1,16 @@
+package dev.kuku.authsome.services.jwt.api.dto;
+
+/**
+ * Record representing the outcome of introspecting one access token.
+ *
+ * @param subject   the subject of the token, null if its signature could not be verified
+ * @param expiresAt the timestamp when the token expires (in milliseconds since epoch), 0 if it never expires or could
+ *                  not be verified
+ * @param valid     whether the token has a valid signature and has not expired
+ */
+public record TokenIntrospection(String subject, long expiresAt, boolean valid) {
+    /**
+     * Result for a token that is malformed or whose signature does not match.
+     */
+    public static final TokenIntrospection INVALID = new TokenIntrospection(null, 0L, false);
+}
@@ -0,0 +1,174 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import dev.kuku.authsome.util.ObjectPool;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs and verifies compact HS256 JWTs.
+ * <p>
+ * The HMAC key is derived once and initialised {@link Mac}s are reused from an {@link ObjectPool}, so signing and
+ * verifying a token only allocates the token itself, the decoded segments and the parsed claims. Tokens are standard
+ * JWTs and can be verified by any JWT library that knows the secret.
+ * <p>
+ * New tokens are always HS256. The jjwt signer used before picked the strongest HMAC the secret allowed, HS384 for
+ * secrets of 48 bytes and HS512 for secrets of 64 bytes or more, so tokens with those headers are still verified when
+ * the secret is long enough for them to have been issued that way.
+ */
+final class Hs256JwtEngine implements JwtEngine {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /**
+     * Base64url of {@code {"alg":"HS256","typ":"JWT"}} followed by the segment separator.
+     */
+    private static final String HEADER_SEGMENT = ENCODER.encodeToString(JwtJson.header("HS256", null).getBytes(StandardCharsets.US_ASCII)) + ".";
+    /**
+     * Base64url of {@code {"alg":"HS256"}}, the header written by jjwt.
+     */
+    private static final String JJWT_HEADER = ENCODER.encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.US_ASCII));
+
+    private final ObjectPool<Signer> signers;
+    /**
+     * Verify HS384 and HS512 tokens, null if the secret is too short for jjwt to have issued them.
+     */
+    private final ObjectPool<Signer> hs384Verifiers;
+    private final ObjectPool<Signer> hs512Verifiers;
+
+    /**
+     * @param secret the HMAC secret, at least 256 bits long as required by RFC 7518 for HS256
+     * @throws IllegalArgumentException if the secret is shorter than 256 bits
+     */
+    Hs256JwtEngine(byte[] secret) {
+        if (secret == null || secret.length < 32) {
+            throw new IllegalArgumentException("JWT secret must be at least 256 bits (32 bytes) long");
+        }
+        signers = pool(secret, "HmacSHA256");
+        hs384Verifiers = secret.length >= 48 ? pool(secret, "HmacSHA384") : null;
+        hs512Verifiers = secret.length >= 64 ? pool(secret, "HmacSHA512") : null;
+    }
+
+    private static ObjectPool<Signer> pool(byte[] secret, String algorithm) {
+        Mac prototype;
+        try {
+            prototype = Mac.getInstance(algorithm);
+            prototype.init(new SecretKeySpec(secret, algorithm));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(algorithm + " is not available", e);
+        }
+        return new ObjectPool<>(() -> {
+            try {
+                return new Signer((Mac) prototype.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(algorithm + " implementation cannot be cloned", e);
+            }
+        });
+    }
+
+    @Override
+    public String sign(String subject, String issuer, long issuedAtMillis, long expiresAtMillis, Map<String, String> claims) {
+        String payload = JwtJson.payload(subject, issuer, issuedAtMillis, expiresAtMillis, claims);
+        StringBuilder token = new StringBuilder(HEADER_SEGMENT.length() + payload.length() * 2 + 44);
+        token.append(HEADER_SEGMENT).append(ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8)));
+        byte[] signature = mac(signers, token, token.length());
+        return token.append('.').append(ENCODER.encodeToString(signature)).toString();
+    }
+
+    @Override
+    public ParsedToken verify(String token, long nowMillis) {
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if (firstDot <= 0 || secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0) {
+            throw new IllegalArgumentException("Malformed JWT token");
+        }
+        ObjectPool<Signer> verifiers = verifiers(token, firstDot);
+
+        byte[] signature;
+        byte[] payload;
+        try {
+            signature = DECODER.decode(token.substring(secondDot + 1));
+            payload = DECODER.decode(token.substring(firstDot + 1, secondDot));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed JWT token", e);
+        }
+        if (!MessageDigest.isEqual(signature, mac(verifiers, token, secondDot))) {
+            throw new IllegalArgumentException("Invalid JWT signature");
+        }
+        return JwtJson.readPayload(payload, nowMillis);
+    }
+
+    @Override
+    public List<JsonWebKey> publicKeys() {
+        return List.of();
+    }
+
+    private static byte[] mac(ObjectPool<Signer> pool, CharSequence signingInput, int length) {
+        Signer signer = pool.take();
+        // Only handed back once finished, so a failure cannot leave input in a pooled Mac
+        byte[] mac = signer.mac(signingInput, length);
+        pool.release(signer);
+        return mac;
+    }
+
+    /**
+     * @return the Macs to verify the token with, picked by its {@code alg} header
+     */
+    private ObjectPool<Signer> verifiers(String token, int firstDot) {
+        if (token.regionMatches(0, HEADER_SEGMENT, 0, HEADER_SEGMENT.length())
+            || (firstDot == JJWT_HEADER.length() && token.startsWith(JJWT_HEADER))) {
+            return signers;
+        }
+        String alg;
+        try {
+            alg = JwtJson.readHeader(DECODER.decode(token.substring(0, firstDot))).alg();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed JWT header", e);
+        }
+        ObjectPool<Signer> verifiers = switch (alg == null ? "" : alg) {
+            case "HS256" -> signers;
+            case "HS384" -> hs384Verifiers;
+            case "HS512" -> hs512Verifiers;
+            default -> null;
+        };
+        if (verifiers == null) {
+            throw new IllegalArgumentException("Unsupported JWT algorithm: " + alg);
+        }
+        return verifiers;
+    }
+
+    /**
+     * A pooled {@link Mac} together with a scratch buffer for the signing input.
+     */
+    private static final class Signer {
+        private final Mac mac;
+        private byte[] buffer = new byte[512];
+
+        private Signer(Mac mac) {
+            this.mac = mac;
+        }
+
+        /**
+         * @param signingInput text starting with the header and payload segments, which are base64url and therefore ASCII
+         * @param length       number of leading characters to sign
+         */
+        byte[] mac(CharSequence signingInput, int length) {
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                buffer[i] = (byte) signingInput.charAt(i);
+            }
+            mac.update(buffer, 0, length);
+            return mac.doFinal();
+        }
+    }
+}
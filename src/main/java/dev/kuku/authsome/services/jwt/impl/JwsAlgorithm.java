@@ -0,0 +1,100 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The asymmetric JWS algorithms a {@link SigningKeyRing} can sign with, selected by {@code jwt.algorithm}.
+ */
+enum JwsAlgorithm {
+    /**
+     * Ed25519 signatures (RFC 8037).
+     */
+    EdDSA("Ed25519", "Ed25519") {
+        @Override
+        KeyPair generateKeyPair() throws GeneralSecurityException {
+            return KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+        }
+
+        @Override
+        JsonWebKey toJwk(String kid, PublicKey publicKey) {
+            byte[] encoded = publicKey.getEncoded();
+            // The X.509 encoding ends with the 32 byte public key
+            byte[] x = Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length);
+            return new JsonWebKey("OKP", "Ed25519", ENCODER.encodeToString(x), null, kid, name(), "sig");
+        }
+    },
+    /**
+     * ECDSA on P-256 with SHA-256, signatures in the fixed length form JWS requires (RFC 7518).
+     */
+    ES256("SHA256withECDSAinP1363Format", "EC") {
+        @Override
+        KeyPair generateKeyPair() throws GeneralSecurityException {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            return generator.generateKeyPair();
+        }
+
+        @Override
+        JsonWebKey toJwk(String kid, PublicKey publicKey) {
+            ECPublicKey key = (ECPublicKey) publicKey;
+            return new JsonWebKey("EC", "P-256", coordinate(key.getW().getAffineX()), coordinate(key.getW().getAffineY()),
+                    kid, name(), "sig");
+        }
+    };
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    /**
+     * JCA name of the signature algorithm.
+     */
+    final String signatureAlgorithm;
+    private final String keyAlgorithm;
+
+    JwsAlgorithm(String signatureAlgorithm, String keyAlgorithm) {
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    abstract KeyPair generateKeyPair() throws GeneralSecurityException;
+
+    abstract JsonWebKey toJwk(String kid, PublicKey publicKey);
+
+    /**
+     * @param encoded the X.509 encoding, as returned by {@link PublicKey#getEncoded()}
+     */
+    PublicKey decodePublicKey(byte[] encoded) throws GeneralSecurityException {
+        return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+    /**
+     * @param encoded the PKCS #8 encoding, as returned by {@link PrivateKey#getEncoded()}
+     */
+    PrivateKey decodePrivateKey(byte[] encoded) throws GeneralSecurityException {
+        return KeyFactory.getInstance(keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    }
+
+    /**
+     * @return base64url of the coordinate as an unsigned 32 byte big-endian number
+     */
+    private static String coordinate(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] fixed = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, fixed, 32 - length, length);
+        return ENCODER.encodeToString(fixed);
+    }
+}
@@ -0,0 +1,40 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs and verifies compact JWTs with one signing scheme.
+ */
+interface JwtEngine {
+    /**
+     * Creates a signed token.
+     *
+     * @param subject         the {@code sub} claim
+     * @param issuer          the {@code iss} claim
+     * @param issuedAtMillis  issue time in milliseconds since epoch
+     * @param expiresAtMillis expiry time in milliseconds since epoch
+     * @param claims          additional claims, may be null. Entries named like a registered claim are ignored
+     * @return the compact serialised token
+     */
+    String sign(String subject, String issuer, long issuedAtMillis, long expiresAtMillis, Map<String, String> claims);
+
+    /**
+     * Verifies the signature of a token and reads its claims. Expired tokens are returned with
+     * {@link ParsedToken#expired()} set, the caller decides how to handle them.
+     *
+     * @param token     the compact serialised token
+     * @param nowMillis current time in milliseconds since epoch
+     * @return the verified token
+     * @throws IllegalArgumentException if the token is malformed, uses another algorithm or has an invalid signature
+     */
+    ParsedToken verify(String token, long nowMillis);
+
+    /**
+     * @return the keys other services can verify tokens with, empty for a shared secret
+     */
+    List<JsonWebKey> publicKeys();
+}
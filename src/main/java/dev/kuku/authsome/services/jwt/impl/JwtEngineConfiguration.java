@@ -0,0 +1,33 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Selects how tokens are signed, by {@code jwt.algorithm}: {@code HS256}, the default, with the shared secret
+ * {@code jwt.secret}, or {@code EdDSA} or {@code ES256} with rotating key pairs, see {@link SigningKeyRotator}.
+ */
+@Configuration
+public class JwtEngineConfiguration {
+
+    @Bean
+    @ConditionalOnExpression("!(" + SigningKeyRotator.ENABLED + ")")
+    JwtEngine hs256JwtEngine(@Value("${jwt.secret}") String jwtSecret) {
+        return new Hs256JwtEngine(jwtSecret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param legacySecret the shared secret used before the switch to key pairs, if any; tokens signed with it are
+     *                     accepted until they expire
+     */
+    @Bean
+    @ConditionalOnExpression(SigningKeyRotator.ENABLED)
+    JwtEngine keyRingJwtEngine(SigningKeyRotator rotator, @Value("${jwt.secret:}") String legacySecret) {
+        JwtEngine legacy = legacySecret.isBlank() ? null : new Hs256JwtEngine(legacySecret.getBytes(StandardCharsets.UTF_8));
+        return new KeyRingJwtEngine(rotator.ring(), legacy, rotator::reloadIfStale);
+    }
+}
@@ -0,0 +1,167 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes and reads the JSON of JWT headers and payloads, shared by the {@link JwtEngine}s.
+ */
+final class JwtJson {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /**
+     * The fields of a JOSE header that decide how a token is verified.
+     *
+     * @param alg the {@code alg} header, null if absent
+     * @param kid the {@code kid} header, null if absent
+     */
+    record Header(String alg, String kid) {
+    }
+
+    private JwtJson() {
+    }
+
+    /**
+     * @param alg the {@code alg} header
+     * @param kid the {@code kid} header, may be null
+     * @return the header JSON, with {@code typ} set to {@code JWT}
+     */
+    static String header(String alg, String kid) {
+        StringBuilder header = new StringBuilder(64);
+        header.append("{\"alg\":");
+        appendString(header, alg);
+        header.append(",\"typ\":\"JWT\"");
+        appendField(header, "kid", kid);
+        return header.append('}').toString();
+    }
+
+    /**
+     * @return the payload JSON, see {@link JwtEngine#sign}
+     */
+    static String payload(String subject, String issuer, long issuedAtMillis, long expiresAtMillis, Map<String, String> claims) {
+        StringBuilder payload = new StringBuilder(128);
+        payload.append("{\"iat\":").append(issuedAtMillis / 1000);
+        payload.append(",\"exp\":").append(expiresAtMillis / 1000);
+        appendField(payload, "sub", subject);
+        appendField(payload, "iss", issuer);
+        if (claims != null) {
+            for (Map.Entry<String, String> claim : claims.entrySet()) {
+                if (!isRegistered(claim.getKey())) {
+                    appendField(payload, claim.getKey(), claim.getValue());
+                }
+            }
+        }
+        return payload.append('}').toString();
+    }
+
+    /**
+     * @param header the decoded header segment
+     * @throws IllegalArgumentException if the header is not a JSON object
+     */
+    static Header readHeader(byte[] header) {
+        String alg = null;
+        String kid = null;
+        try (JsonParser parser = JSON.createParser(header)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Malformed JWT header");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                switch (name) {
+                    case "alg" -> alg = parser.getValueAsString();
+                    case "kid" -> kid = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed JWT header", e);
+        }
+        return new Header(alg, kid);
+    }
+
+    /**
+     * @param payload   the decoded payload segment
+     * @param nowMillis current time in milliseconds since epoch, to tell whether the token has expired
+     * @throws IllegalArgumentException if the payload is not a JSON object
+     */
+    static ParsedToken readPayload(byte[] payload, long nowMillis) {
+        String subject = null;
+        String issuer = null;
+        long issuedAt = 0L;
+        long expiresAt = 0L;
+        Map<String, String> claims = new HashMap<>();
+        try (JsonParser parser = JSON.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Malformed JWT payload");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (name) {
+                    case "sub" -> subject = parser.getValueAsString();
+                    case "iss" -> issuer = parser.getValueAsString();
+                    case "iat" -> issuedAt = parser.getValueAsLong() * 1000;
+                    case "exp" -> expiresAt = parser.getValueAsLong() * 1000;
+                    default -> {
+                        if (value.isScalarValue()) {
+                            if (value != JsonToken.VALUE_NULL && !isRegistered(name)) {
+                                claims.put(name, parser.getValueAsString());
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed JWT payload", e);
+        }
+        return new ParsedToken(subject, issuer, issuedAt, expiresAt, expiresAt != 0L && expiresAt <= nowMillis, claims);
+    }
+
+    private static boolean isRegistered(String name) {
+        return switch (name) {
+            case "sub", "iss", "iat", "exp", "nbf", "aud", "jti" -> true;
+            default -> false;
+        };
+    }
+
+    private static void appendField(StringBuilder json, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        json.append(',');
+        appendString(json, name);
+        json.append(':');
+        appendString(json, value);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -1,47 +1,108 @@
 package dev.kuku.authsome.services.jwt.impl;
 
 import dev.kuku.authsome.services.jwt.api.JwtService;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.security.Keys;
-import lombok.RequiredArgsConstructor;
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import dev.kuku.authsome.services.jwt.api.dto.TokenIntrospection;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+
+/**
+ * Implementation of {@link JwtService} on top of the {@link JwtEngine} picked by {@link JwtEngineConfiguration}.
+ * <p>
+ * Batches of at least {@value #PARALLEL_INTROSPECTION_THRESHOLD} distinct tokens are verified in parallel on the
+ * common fork-join pool; verifying a token is pure CPU work, and below that size splitting it up costs more than it
+ * saves.
+ */
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class JwtServiceImpl implements JwtService {
+    static final int PARALLEL_INTROSPECTION_THRESHOLD = 64;
+
+    private final JwtEngine engine;
+
+    @Autowired
+    JwtServiceImpl(JwtEngine engine) {
+        this.engine = engine;
+    }
 
-    @Value("${jwt.secret}")
-    private String jwtSecret;
+    /**
+     * Signs with HS256, see {@link Hs256JwtEngine}.
+     *
+     * @param jwtSecret the shared HMAC secret, at least 32 bytes long
+     */
+    public JwtServiceImpl(String jwtSecret) {
+        this(new Hs256JwtEngine(jwtSecret.getBytes(StandardCharsets.UTF_8)));
+    }
 
     @Override
     public String generateToken(String subject, Map<String, String> claims, String issuer, int expiry, TimeUnit expiryUnit) {
         try {
-            long expiryMillis = expiryUnit.toMillis(expiry);
-            Date now = new Date();
-            Date expiryDate = new Date(now.getTime() + expiryMillis);
-
-            SecretKey key = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
-
-            return Jwts.builder()
-                    .subject(subject)
-                    .claims(claims)
-                    .issuer(issuer)
-                    .issuedAt(now)
-                    .expiration(expiryDate)
-                    .signWith(key)
-                    .compact();
+            long now = NowUTCMilli();
+            return engine.sign(subject, issuer, now, now + expiryUnit.toMillis(expiry), claims);
         } catch (Exception e) {
             log.error("Error generating JWT token for subject: {}", subject, e);
             throw new RuntimeException("Failed to generate JWT token", e);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public ParsedToken parseToken(String accessToken) {
+        if (accessToken == null || accessToken.isBlank()) {
+            throw new IllegalArgumentException("Token cannot be null or empty");
+        }
+        return engine.verify(accessToken, NowUTCMilli());
+    }
+
+    @Override
+    public List<TokenIntrospection> introspectTokens(List<String> accessTokens) {
+        long now = NowUTCMilli();
+        // Repeated tokens are verified once
+        String[] distinct = new LinkedHashSet<>(accessTokens).toArray(new String[0]);
+        TokenIntrospection[] verified = new TokenIntrospection[distinct.length];
+        IntStream indexes = IntStream.range(0, distinct.length);
+        if (distinct.length >= PARALLEL_INTROSPECTION_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> verified[i] = introspect(distinct[i], now));
+
+        Map<String, TokenIntrospection> byToken = new HashMap<>(distinct.length * 2);
+        for (int i = 0; i < distinct.length; i++) {
+            byToken.put(distinct[i], verified[i]);
+        }
+        List<TokenIntrospection> results = new ArrayList<>(accessTokens.size());
+        for (String accessToken : accessTokens) {
+            results.add(byToken.get(accessToken));
+        }
+        return results;
+    }
+
+    @Override
+    public List<JsonWebKey> publicKeys() {
+        return engine.publicKeys();
+    }
+
+    private TokenIntrospection introspect(String accessToken, long now) {
+        if (accessToken == null || accessToken.isBlank()) {
+            return TokenIntrospection.INVALID;
+        }
+        try {
+            ParsedToken parsed = engine.verify(accessToken, now);
+            return new TokenIntrospection(parsed.subject(), parsed.expiresAt(), !parsed.expired());
+        } catch (IllegalArgumentException e) {
+            return TokenIntrospection.INVALID;
+        }
+    }
+}
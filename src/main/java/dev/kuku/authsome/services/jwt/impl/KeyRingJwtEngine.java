@@ -0,0 +1,105 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs and verifies compact JWTs with the asymmetric keys of a {@link SigningKeyRing}.
+ * <p>
+ * Every token names its key in the {@code kid} header, so other services can verify it locally against the published
+ * key set, and tokens signed with a key that has since been rotated out stay valid for as long as the ring keeps the
+ * key. A token naming a key the ring does not know makes it reload, at most once per reload interval, as another
+ * instance may just have rotated. When a legacy HS256 engine is given, HS256 tokens without {@code kid} are verified
+ * with it, so tokens issued before the switch to asymmetric keys keep working until they expire.
+ */
+final class KeyRingJwtEngine implements JwtEngine {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SigningKeyRing ring;
+    private final JwtEngine legacy;
+    private final Runnable reloadKeys;
+
+    /**
+     * @param ring       the keys to sign and verify with
+     * @param legacy     engine for HS256 tokens without {@code kid}, null to reject them
+     * @param reloadKeys reloads the ring when a token names an unknown key
+     */
+    KeyRingJwtEngine(SigningKeyRing ring, JwtEngine legacy, Runnable reloadKeys) {
+        this.ring = ring;
+        this.legacy = legacy;
+        this.reloadKeys = reloadKeys;
+    }
+
+    @Override
+    public String sign(String subject, String issuer, long issuedAtMillis, long expiresAtMillis, Map<String, String> claims) {
+        SigningKey key = ring.signingKey(issuedAtMillis);
+        String payload = JwtJson.payload(subject, issuer, issuedAtMillis, expiresAtMillis, claims);
+        String signingInput = key.headerSegment + ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return signingInput + '.' + ENCODER.encodeToString(key.sign(signingInput));
+    }
+
+    @Override
+    public ParsedToken verify(String token, long nowMillis) {
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if (firstDot <= 0 || secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0) {
+            throw new IllegalArgumentException("Malformed JWT token");
+        }
+        // Tokens signed here carry the exact header of their key; anything else is parsed
+        SigningKey key = ring.findByHeader(token.substring(0, firstDot));
+        if (key == null) {
+            JwtJson.Header header;
+            try {
+                header = JwtJson.readHeader(DECODER.decode(token.substring(0, firstDot)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Malformed JWT header", e);
+            }
+            if (header.kid() == null && "HS256".equals(header.alg()) && legacy != null) {
+                return legacy.verify(token, nowMillis);
+            }
+            key = findKey(header.kid());
+            if (!key.algorithm.name().equals(header.alg())) {
+                throw new IllegalArgumentException("Unsupported JWT algorithm: " + header.alg());
+            }
+        }
+
+        byte[] signature;
+        byte[] payload;
+        try {
+            signature = DECODER.decode(token.substring(secondDot + 1));
+            payload = DECODER.decode(token.substring(firstDot + 1, secondDot));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed JWT token", e);
+        }
+        if (!key.verify(token, secondDot, signature)) {
+            throw new IllegalArgumentException("Invalid JWT signature");
+        }
+        return JwtJson.readPayload(payload, nowMillis);
+    }
+
+    @Override
+    public List<JsonWebKey> publicKeys() {
+        return ring.publicKeys();
+    }
+
+    private SigningKey findKey(String kid) {
+        if (kid == null) {
+            throw new IllegalArgumentException("JWT has no kid header");
+        }
+        SigningKey key = ring.find(kid);
+        if (key == null) {
+            reloadKeys.run();
+            key = ring.find(kid);
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("Unknown JWT signing key: " + kid);
+        }
+        return key;
+    }
+}
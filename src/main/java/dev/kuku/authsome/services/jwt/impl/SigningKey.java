@@ -0,0 +1,112 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+import dev.kuku.authsome.util.ObjectPool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
+
+/**
+ * One key pair of a {@link SigningKeyRing}, with the header segment of the tokens it signs.
+ * <p>
+ * Initialised {@link Signature}s are reused from an {@link ObjectPool}, one pool for signing and one for verifying.
+ */
+final class SigningKey {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    final String kid;
+    final JwsAlgorithm algorithm;
+    /**
+     * Creation time in milliseconds since epoch.
+     */
+    final long createdAt;
+    /**
+     * Base64url of the token header, naming the algorithm and {@link #kid}, followed by the segment separator.
+     */
+    final String headerSegment;
+    final JsonWebKey jwk;
+    private final PrivateKey privateKey;
+    private final PublicKey publicKey;
+    private final ObjectPool<Signature> signers;
+    private final ObjectPool<Signature> verifiers;
+
+    SigningKey(String kid, JwsAlgorithm algorithm, long createdAt, PrivateKey privateKey, PublicKey publicKey) {
+        this.kid = kid;
+        this.algorithm = algorithm;
+        this.createdAt = createdAt;
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
+        this.headerSegment = ENCODER.encodeToString(JwtJson.header(algorithm.name(), kid).getBytes(StandardCharsets.UTF_8)) + ".";
+        this.jwk = algorithm.toJwk(kid, publicKey);
+        this.signers = new ObjectPool<>(() -> newSignature(true));
+        this.verifiers = new ObjectPool<>(() -> newSignature(false));
+    }
+
+    private Signature newSignature(boolean sign) {
+        try {
+            Signature signature = Signature.getInstance(algorithm.signatureAlgorithm);
+            if (sign) {
+                signature.initSign(privateKey);
+            } else {
+                signature.initVerify(publicKey);
+            }
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(algorithm.signatureAlgorithm + " is not available", e);
+        }
+    }
+
+    /**
+     * @param signingInput the header and payload segments, which are base64url and therefore ASCII
+     * @return the signature
+     */
+    byte[] sign(String signingInput) {
+        Signature signer = signers.take();
+        try {
+            signer.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+            byte[] signature = signer.sign();
+            // Only handed back once finished, so a failure cannot leave input in a pooled Signature
+            signers.release(signer);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign JWT with key " + kid, e);
+        }
+    }
+
+    /**
+     * @param token     the compact serialised token
+     * @param length    length of the signing input, the header and payload segments at the start of the token
+     * @param signature the decoded signature
+     * @return whether the signature matches
+     */
+    boolean verify(String token, int length, byte[] signature) {
+        Signature verifier = verifiers.take();
+        try {
+            verifier.update(token.substring(0, length).getBytes(StandardCharsets.US_ASCII));
+            boolean valid = verifier.verify(signature);
+            verifiers.release(verifier);
+            return valid;
+        } catch (GeneralSecurityException e) {
+            // A signature of the wrong length or encoding
+            return false;
+        }
+    }
+
+    /**
+     * @return PKCS #8 encoding of the private key
+     */
+    byte[] encodedPrivateKey() {
+        return privateKey.getEncoded();
+    }
+
+    /**
+     * @return X.509 encoding of the public key
+     */
+    byte[] encodedPublicKey() {
+        return publicKey.getEncoded();
+    }
+}
@@ -0,0 +1,114 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link SigningKey}s currently in use: the one new tokens are signed with, and all that tokens still around may
+ * have been signed with.
+ * <p>
+ * A new key is published some time before it signs its first token: only keys created at least {@code publishDelay}
+ * ago are used for signing, the newest of them. Verifiers that cache the key set for less than that have the key by
+ * the time they see it in a token. When no key is that old, on a fresh deployment, the oldest key signs.
+ * <p>
+ * The keys are replaced as a whole by {@link #update}; lookups read an immutable snapshot and take no lock.
+ */
+final class SigningKeyRing {
+    private record Snapshot(List<SigningKey> keys, Map<String, SigningKey> byKid, Map<String, SigningKey> byHeader,
+                            List<JsonWebKey> jwks) {
+    }
+
+    private final JwsAlgorithm algorithm;
+    private final long publishDelayMillis;
+    private volatile Snapshot snapshot = new Snapshot(List.of(), Map.of(), Map.of(), List.of());
+
+    /**
+     * @param algorithm          algorithm new tokens are signed with; keys of other algorithms only verify
+     * @param publishDelayMillis how long a key is published before it signs
+     */
+    SigningKeyRing(JwsAlgorithm algorithm, long publishDelayMillis) {
+        this.algorithm = algorithm;
+        this.publishDelayMillis = publishDelayMillis;
+    }
+
+    JwsAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @param keys the keys to use from now on, replacing the current ones
+     */
+    void update(Collection<SigningKey> keys) {
+        List<SigningKey> sorted = new ArrayList<>(keys);
+        sorted.sort(Comparator.comparingLong((SigningKey key) -> key.createdAt).thenComparing(key -> key.kid));
+        Map<String, SigningKey> byKid = new HashMap<>();
+        Map<String, SigningKey> byHeader = new HashMap<>();
+        List<JsonWebKey> jwks = new ArrayList<>(sorted.size());
+        for (SigningKey key : sorted) {
+            byKid.put(key.kid, key);
+            byHeader.put(key.headerSegment.substring(0, key.headerSegment.length() - 1), key);
+            jwks.add(key.jwk);
+        }
+        snapshot = new Snapshot(List.copyOf(sorted), byKid, byHeader, List.copyOf(jwks));
+    }
+
+    /**
+     * @return all keys, oldest first
+     */
+    List<SigningKey> keys() {
+        return snapshot.keys();
+    }
+
+    /**
+     * @param nowMillis current time in milliseconds since epoch
+     * @return the key to sign new tokens with
+     * @throws IllegalStateException if there is no key of the configured algorithm
+     */
+    SigningKey signingKey(long nowMillis) {
+        SigningKey oldest = null;
+        SigningKey signing = null;
+        for (SigningKey key : snapshot.keys()) {
+            if (key.algorithm != algorithm) {
+                continue;
+            }
+            if (oldest == null) {
+                oldest = key;
+            }
+            if (key.createdAt + publishDelayMillis <= nowMillis) {
+                signing = key;
+            }
+        }
+        if (signing == null && oldest == null) {
+            throw new IllegalStateException("No " + algorithm + " JWT signing key available");
+        }
+        return signing != null ? signing : oldest;
+    }
+
+    /**
+     * @return the key with the given id, null if unknown
+     */
+    SigningKey find(String kid) {
+        return snapshot.byKid().get(kid);
+    }
+
+    /**
+     * @param headerSegment the encoded header segment of a token, without the separator
+     * @return the key whose tokens start with exactly this header, null if none
+     */
+    SigningKey findByHeader(String headerSegment) {
+        return snapshot.byHeader().get(headerSegment);
+    }
+
+    /**
+     * @return the public keys of all keys, oldest first
+     */
+    List<JsonWebKey> publicKeys() {
+        return snapshot.jwks();
+    }
+}
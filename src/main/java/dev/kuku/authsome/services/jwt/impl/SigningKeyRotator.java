@@ -0,0 +1,227 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.impl.entity.JwtSigningKeyEntity;
+import dev.kuku.authsome.util.EncryptionUtil;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+
+/**
+ * Keeps the {@link SigningKeyRing} of this instance in line with the {@code jwt_signing_keys} table and rotates the
+ * keys. Selected by {@code jwt.algorithm=EdDSA} or {@code jwt.algorithm=ES256}.
+ * <p>
+ * Time is cut into periods of {@code jwt.key-rotation-interval} and every period gets one key, named after the
+ * algorithm and the period number. Every {@code jwt.key-refresh-interval} the ring is reloaded from the table and, once
+ * a new period has begun, a key for it is generated and inserted. When several instances do so at once the primary key
+ * lets one of them win and the others pick up its key. Private keys are stored encrypted with {@link EncryptionUtil}.
+ * <p>
+ * A new key starts signing once it has been published for {@code jwt.jwks.max-age} plus the refresh interval, so every
+ * instance and every cached key set has it by then. The keys it replaced are kept, and published, for
+ * {@code jwt.key-retention} after that and are then deleted; the retention must cover the lifetime of access tokens.
+ */
+@Component
+@ConditionalOnExpression(SigningKeyRotator.ENABLED)
+@Slf4j
+public class SigningKeyRotator {
+    static final String ENABLED = "'${jwt.algorithm:HS256}' != 'HS256'";
+    private static final long MIN_RELOAD_INTERVAL_MILLIS = 1000;
+    private static final Base64.Encoder ENCODER = Base64.getEncoder();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final EncryptionUtil encryptionUtil;
+    private final JwsAlgorithm algorithm;
+    private final long rotationMillis;
+    private final long publishDelayMillis;
+    private final long retentionMillis;
+    private final SigningKeyRing ring;
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile long lastReload;
+
+    public SigningKeyRotator(EntityManager entityManager,
+                             TransactionTemplate transactionTemplate,
+                             EncryptionUtil encryptionUtil,
+                             @Value("${jwt.algorithm}") String algorithm,
+                             @Value("${jwt.key-rotation-interval:P7D}") Duration rotationInterval,
+                             @Value("${jwt.key-retention:P3D}") Duration retention,
+                             @Value("${jwt.key-refresh-interval:PT1M}") Duration refreshInterval,
+                             @Value("${jwt.jwks.max-age:PT10M}") Duration jwksMaxAge) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.encryptionUtil = encryptionUtil;
+        try {
+            this.algorithm = JwsAlgorithm.valueOf(algorithm);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported jwt.algorithm " + algorithm + ", expected HS256, EdDSA or ES256", e);
+        }
+        this.rotationMillis = rotationInterval.toMillis();
+        this.publishDelayMillis = jwksMaxAge.plus(refreshInterval).toMillis();
+        this.retentionMillis = retention.toMillis();
+        if (rotationMillis <= publishDelayMillis) {
+            throw new IllegalArgumentException("jwt.key-rotation-interval must be longer than jwt.jwks.max-age plus jwt.key-refresh-interval");
+        }
+        this.ring = new SigningKeyRing(this.algorithm, publishDelayMillis);
+        // Fails startup if no key can be loaded or created, as no token could be signed
+        long now = NowUTCMilli();
+        reload(now);
+        rotateIfDue(now);
+        log.info("SigningKeyRotator initialized, algorithm: {}, keys: {}, rotationInterval: {}, retention: {}, publishDelay: {}",
+                this.algorithm, ring.keys().size(), rotationInterval, retention, Duration.ofMillis(publishDelayMillis));
+    }
+
+    /**
+     * @return the keys of this instance, kept up to date by {@link #refresh}
+     */
+    SigningKeyRing ring() {
+        return ring;
+    }
+
+    /**
+     * Reloads the keys, creates the key of the current period if it does not exist yet and deletes retired keys.
+     * On failure the current keys stay in use until the next run.
+     */
+    @Scheduled(fixedDelayString = "${jwt.key-refresh-interval:PT1M}", initialDelayString = "${jwt.key-refresh-interval:PT1M}")
+    public void refresh() {
+        refresh(NowUTCMilli());
+    }
+
+    void refresh(long now) {
+        try {
+            reload(now);
+            rotateIfDue(now);
+            deleteRetired(now);
+        } catch (RuntimeException e) {
+            log.warn("JWT signing key refresh failed, keeping {} keys: {}", ring.keys().size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Reloads the keys, unless that happened within the last second. Called when a token names an unknown key.
+     */
+    void reloadIfStale() {
+        reloadLock.lock();
+        try {
+            long now = NowUTCMilli();
+            if (now - lastReload < MIN_RELOAD_INTERVAL_MILLIS) {
+                return;
+            }
+            // Counted from the attempt, so a failing database is not hit by every such token
+            lastReload = now;
+            reload(now);
+        } catch (RuntimeException e) {
+            log.warn("JWT signing key reload failed: {}", e.getMessage());
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private void reload(long now) {
+        reloadLock.lock();
+        try {
+            List<JwtSigningKeyEntity> entities = entityManager
+                    .createQuery("SELECT k FROM jwt_signing_keys k", JwtSigningKeyEntity.class)
+                    .getResultList();
+            List<SigningKey> keys = new ArrayList<>(entities.size());
+            for (JwtSigningKeyEntity entity : entities) {
+                // Keys already loaded are kept, along with their pooled Signatures
+                SigningKey key = ring.find(entity.getKid());
+                if (key == null) {
+                    key = decode(entity);
+                }
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+            ring.update(keys);
+            lastReload = now;
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private SigningKey decode(JwtSigningKeyEntity entity) {
+        try {
+            JwsAlgorithm keyAlgorithm = JwsAlgorithm.valueOf(entity.getAlgorithm());
+            return new SigningKey(entity.getKid(), keyAlgorithm, entity.getCreatedAt(),
+                    keyAlgorithm.decodePrivateKey(DECODER.decode(encryptionUtil.decrypt(entity.getPrivateKey()))),
+                    keyAlgorithm.decodePublicKey(DECODER.decode(entity.getPublicKey())));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            log.warn("Skipping unreadable JWT signing key {}: {}", entity.getKid(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Creates the key of the period {@code now} falls in, unless this instance already has it. If another instance
+     * inserted it first, its key is loaded instead.
+     */
+    void rotateIfDue(long now) {
+        String kid = algorithm.name().toLowerCase(Locale.ROOT) + "-" + now / rotationMillis;
+        if (ring.find(kid) != null) {
+            return;
+        }
+        KeyPair keyPair;
+        try {
+            keyPair = algorithm.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(algorithm + " key generation is not available", e);
+        }
+        JwtSigningKeyEntity entity = new JwtSigningKeyEntity(kid, algorithm.name(),
+                ENCODER.encodeToString(keyPair.getPublic().getEncoded()),
+                encryptionUtil.encrypt(ENCODER.encodeToString(keyPair.getPrivate().getEncoded())),
+                now);
+        RuntimeException failure = null;
+        try {
+            transactionTemplate.executeWithoutResult(status -> entityManager.persist(entity));
+            log.info("Created JWT signing key {}", kid);
+        } catch (RuntimeException e) {
+            // Usually another instance inserted the key of this period first
+            failure = e;
+        }
+        reload(now);
+        if (ring.find(kid) == null) {
+            throw new IllegalStateException("Failed to create JWT signing key " + kid, failure);
+        }
+    }
+
+    /**
+     * Deletes the keys older than the signing key once that has signed for the retention.
+     */
+    void deleteRetired(long now) {
+        SigningKey signing = ring.signingKey(now);
+        if (signing.createdAt + publishDelayMillis + retentionMillis > now) {
+            return;
+        }
+        List<String> retired = new ArrayList<>();
+        for (SigningKey key : ring.keys()) {
+            if (key.createdAt < signing.createdAt) {
+                retired.add(key.kid);
+            }
+        }
+        if (retired.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> entityManager
+                .createQuery("DELETE FROM jwt_signing_keys k WHERE k.kid IN :kids")
+                .setParameter("kids", retired)
+                .executeUpdate());
+        log.info("Deleted retired JWT signing keys {}", retired);
+        reload(now);
+    }
+}
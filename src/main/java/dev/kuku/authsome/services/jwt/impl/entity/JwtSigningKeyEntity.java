@@ -0,0 +1,32 @@
+package dev.kuku.authsome.services.jwt.impl.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * A key pair tokens are signed with; the id doubles as the {@code kid} header of the tokens.
+ */
+@Entity(name = "jwt_signing_keys")
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString(exclude = "privateKey")
+@Getter
+@Setter
+public class JwtSigningKeyEntity {
+    @Id
+    private String kid;
+    @Column(nullable = false)
+    private String algorithm;
+    /**
+     * Base64 of the X.509 encoding.
+     */
+    @Column(nullable = false, name = "public_key", length = 1024)
+    private String publicKey;
+    /**
+     * Base64 of the PKCS #8 encoding, encrypted.
+     */
+    @Column(nullable = false, name = "private_key", length = 1024)
+    private String privateKey;
+    @Column(nullable = false, name = "created_at")
+    private Long createdAt;
+}
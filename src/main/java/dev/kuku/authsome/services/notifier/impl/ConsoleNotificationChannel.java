@@ -0,0 +1,40 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import dev.kuku.authsome.services.notifier.api.model.IdentityType;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Development channel that prints e-mails to standard output instead of sending them. The default, unless
+ * {@code authsome.notifier.email.transport} selects another transport.
+ */
+@Component
+@ConditionalOnProperty(name = "authsome.notifier.email.transport", havingValue = "console", matchIfMissing = true)
+public class ConsoleNotificationChannel implements NotificationChannel {
+
+    @Override
+    public IdentityType identityType() {
+        return IdentityType.EMAIL;
+    }
+
+    @Override
+    public List<DeliveryFailure> deliver(List<Notification> batch) {
+        StringBuilder out = new StringBuilder();
+        for (Notification notification : batch) {
+            out.append('\n').append("=".repeat(80)).append('\n')
+                    .append("📧 NOTIFICATION").append('\n')
+                    .append("=".repeat(80)).append('\n')
+                    .append("Type     : ").append(notification.identityType()).append('\n')
+                    .append("To       : ").append(notification.identity()).append('\n')
+                    .append("Subject  : ").append(notification.subject()).append('\n')
+                    .append("-".repeat(80)).append('\n')
+                    .append("Content  :").append('\n')
+                    .append(notification.content()).append('\n')
+                    .append("=".repeat(80)).append('\n');
+        }
+        System.out.print(out);
+        return List.of();
+    }
+}
@@ -0,0 +1,26 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+/**
+ * A notification a {@link NotificationChannel} could not deliver.
+ *
+ * @param notification the notification
+ * @param reason       why delivery failed, kept with the dead letter
+ * @param permanent    true if no retry can succeed, such as an invalid address or a recipient the server does not
+ *                     know; the notification is then dead-lettered right away
+ */
+public record DeliveryFailure(Notification notification, String reason, boolean permanent) {
+
+    /**
+     * A failure that may pass, such as a refused connection or a temporary refusal; the notification is retried.
+     */
+    public static DeliveryFailure retry(Notification notification, String reason) {
+        return new DeliveryFailure(notification, reason, false);
+    }
+
+    /**
+     * A failure no retry can fix.
+     */
+    public static DeliveryFailure permanent(Notification notification, String reason) {
+        return new DeliveryFailure(notification, reason, true);
+    }
+}
@@ -0,0 +1,27 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import dev.kuku.authsome.services.notifier.api.model.IdentityType;
+
+/**
+ * A notification on its way through the delivery pipeline.
+ *
+ * @param identityType    channel to deliver on
+ * @param identity        recipient address on that channel
+ * @param subject         subject line
+ * @param content         message body
+ * @param enqueuedAtNanos {@link System#nanoTime()} when it was first accepted, for delivery latency
+ * @param attempt         number of failed delivery attempts so far
+ */
+public record Notification(IdentityType identityType, String identity, String subject, String content,
+                           long enqueuedAtNanos, int attempt) {
+
+    Notification nextAttempt() {
+        return new Notification(identityType, identity, subject, content, enqueuedAtNanos, attempt + 1);
+    }
+
+    // The body carries one-time codes, keep it out of logs
+    @Override
+    public String toString() {
+        return "Notification[" + identityType + " to " + identity + ", subject=" + subject + ", attempt=" + attempt + "]";
+    }
+}
@@ -0,0 +1,27 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import dev.kuku.authsome.services.notifier.api.model.IdentityType;
+
+import java.util.List;
+
+/**
+ * Delivers notifications of one {@link IdentityType}. Each channel bean gets its own queue and workers in
+ * {@link NotifierServiceImpl}, which hands it notifications in batches.
+ */
+public interface NotificationChannel {
+
+    /**
+     * @return the identity type this channel delivers to
+     */
+    IdentityType identityType();
+
+    /**
+     * Delivers a batch of notifications.
+     *
+     * @param batch notifications to deliver, all of {@link #identityType()}
+     * @return the notifications that could not be delivered, each marked as worth retrying or not; empty if all were
+     * delivered
+     * @throws Exception if the whole batch failed; every notification in it is retried
+     */
+    List<DeliveryFailure> deliver(List<Notification> batch) throws Exception;
+}
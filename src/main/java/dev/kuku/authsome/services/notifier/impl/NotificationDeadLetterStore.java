@@ -0,0 +1,87 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+
+/**
+ * Keeps the most recent notifications that could not be delivered, for inspection and manual replay.
+ * <p>
+ * Holds at most {@code authsome.notifier.dead-letter-capacity} entries in memory; older ones are dropped once it is
+ * full. The current count is published as {@code authsome.notifier.dead-letters}.
+ */
+@Component
+@Slf4j
+public class NotificationDeadLetterStore {
+
+    /**
+     * A notification given up on.
+     *
+     * @param notification the notification, with the number of attempts made
+     * @param reason       why the last attempt failed
+     * @param failedAt     when it was given up on (in milliseconds since epoch)
+     */
+    public record DeadLetter(Notification notification, String reason, long failedAt) {
+    }
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<DeadLetter> deadLetters = new ArrayDeque<>();
+
+    public NotificationDeadLetterStore(@Value("${authsome.notifier.dead-letter-capacity:1000}") int capacity,
+                                       MeterRegistry meterRegistry) {
+        this.capacity = capacity;
+        Gauge.builder("authsome.notifier.dead-letters", this, NotificationDeadLetterStore::size).register(meterRegistry);
+    }
+
+    /**
+     * Records a notification that will not be retried.
+     *
+     * @param notification the notification
+     * @param reason       why the last attempt failed
+     */
+    public void add(Notification notification, String reason) {
+        // Logged outside the lock, as appenders may block on I/O
+        log.warn("Notification dead-lettered: {}, reason: {}", notification, reason);
+        DeadLetter deadLetter = new DeadLetter(notification, reason, NowUTCMilli());
+        lock.lock();
+        try {
+            if (deadLetters.size() == capacity) {
+                deadLetters.removeFirst();
+            }
+            deadLetters.addLast(deadLetter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the dead letters, oldest first
+     */
+    public List<DeadLetter> list() {
+        lock.lock();
+        try {
+            return new ArrayList<>(deadLetters);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return deadLetters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -2,25 +2,301 @@ package dev.kuku.authsome.services.notifier.impl;
 
 import dev.kuku.authsome.services.notifier.api.NotifierService;
 import dev.kuku.authsome.services.notifier.api.model.IdentityType;
+import dev.kuku.authsome.util.Threads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NotifierService} that delivers in the background.
+ * <p>
+ * Every {@link NotificationChannel} gets a queue of {@code authsome.notifier.queue-capacity} notifications and
+ * {@code authsome.notifier.workers} worker threads. {@link #sendNotification} only enqueues, and fails fast with a
+ * {@link RejectedExecutionException} once the queue is full. A worker takes whatever has queued up, at most
+ * {@code authsome.notifier.batch-size} notifications, and hands it to the channel as one batch. Workers are virtual
+ * threads with {@code spring.threads.virtual.enabled=true}, see {@link Threads}.
+ * <p>
+ * Failed notifications are re-queued after an exponential backoff with jitter, starting at
+ * {@code authsome.notifier.initial-backoff} and capped at {@code authsome.notifier.max-backoff}. After
+ * {@code authsome.notifier.max-attempts} attempts they go to the {@link NotificationDeadLetterStore}, and so do
+ * failures the channel reports as {@link DeliveryFailure#permanent() permanent}, without a retry. On shutdown,
+ * retries still waiting for their backoff and notifications the workers did not get to go there too, instead of being
+ * dropped.
+ * <p>
+ * Per channel, queue depth is published as {@code authsome.notifier.queue-depth} and the time from enqueue to
+ * delivery as {@code authsome.notifier.delivery-latency}.
+ */
 @Service
 @Slf4j
 public class NotifierServiceImpl implements NotifierService {
+    private final Map<IdentityType, Lane> lanes = new EnumMap<>(IdentityType.class);
+    private final NotificationDeadLetterStore deadLetterStore;
+    private final ScheduledExecutorService retryScheduler;
+    private final Set<PendingRetry> pendingRetries = ConcurrentHashMap.newKeySet();
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private volatile boolean running = true;
+
+    public NotifierServiceImpl(List<NotificationChannel> channels,
+                               NotificationDeadLetterStore deadLetterStore,
+                               @Value("${authsome.notifier.workers:2}") int workers,
+                               @Value("${authsome.notifier.queue-capacity:10000}") int queueCapacity,
+                               @Value("${authsome.notifier.batch-size:50}") int batchSize,
+                               @Value("${authsome.notifier.max-attempts:5}") int maxAttempts,
+                               @Value("${authsome.notifier.initial-backoff:PT1S}") Duration initialBackoff,
+                               @Value("${authsome.notifier.max-backoff:PT1M}") Duration maxBackoff,
+                               @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                               MeterRegistry meterRegistry) {
+        this.deadLetterStore = deadLetterStore;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notifier-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (NotificationChannel channel : channels) {
+            if (lanes.containsKey(channel.identityType())) {
+                throw new IllegalStateException("More than one notification channel for " + channel.identityType());
+            }
+            lanes.put(channel.identityType(), new Lane(channel, queueCapacity, meterRegistry));
+        }
+        for (Lane lane : lanes.values()) {
+            lane.start(workers, virtualThreads);
+        }
+        log.info("NotifierServiceImpl initialized, channels: {}, workers: {}, queueCapacity: {}, batchSize: {}, maxAttempts: {}, virtualThreads: {}",
+                lanes.keySet(), workers, queueCapacity, batchSize, maxAttempts, virtualThreads);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns once the notification is queued; delivery happens in the background.
+     *
+     * @throws RejectedExecutionException if the channel's queue is full
+     * @throws IllegalArgumentException   if no channel delivers to {@code identityType}
+     */
     @Override
     public void sendNotification(IdentityType identityType, String identity, String subject, String context) {
-        log.debug("sendNotification({}, {}, {}, {})", identityType, identity, subject, context);
-
-        System.out.println("\n" + "=".repeat(80));
-        System.out.println("📧 NOTIFICATION");
-        System.out.println("=".repeat(80));
-        System.out.println("Type     : " + identityType);
-        System.out.println("To       : " + identity);
-        System.out.println("Subject  : " + subject);
-        System.out.println("-".repeat(80));
-        System.out.println("Content  :");
-        System.out.println(context);
-        System.out.println("=".repeat(80) + "\n");
+        log.debug("sendNotification({}, {}, {})", identityType, identity, subject);
+        Lane lane = lanes.get(identityType);
+        if (lane == null) {
+            throw new IllegalArgumentException("No notification channel for " + identityType);
+        }
+        Notification notification = new Notification(identityType, identity, subject, context, System.nanoTime(), 0);
+        if (!running || !lane.queue.offer(notification)) {
+            lane.rejected.increment();
+            throw new RejectedExecutionException("Notification queue for " + identityType + " is full");
+        }
+    }
+
+    private void retryOrDeadLetter(Lane lane, Notification notification, String reason) {
+        Notification retry = notification.nextAttempt();
+        if (retry.attempt() >= maxAttempts || !running) {
+            lane.deadLettered.increment();
+            deadLetterStore.add(retry, reason);
+            return;
+        }
+        lane.retried.increment();
+        PendingRetry pendingRetry = new PendingRetry(lane, retry, reason);
+        pendingRetries.add(pendingRetry);
+        try {
+            retryScheduler.schedule(pendingRetry, backoffMillis(retry.attempt()), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the retry is dead-lettered by shutdown() or right here, whichever claims it first
+            pendingRetry.deadLetter("shut down before retry after: " + reason);
+        }
+    }
+
+    /**
+     * Exponential backoff for the given attempt, with "equal jitter": half the delay is fixed, the other half random,
+     * so retries of a failed batch spread out instead of hitting the channel together.
+     */
+    private long backoffMillis(int attempt) {
+        long delay = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Stops accepting notifications and lets the workers finish what is queued, waiting up to 5 seconds per worker.
+     * Whatever is then still queued or waiting to be retried is dead-lettered.
+     */
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        retryScheduler.shutdownNow();
+        retryScheduler.awaitTermination(5, TimeUnit.SECONDS);
+        for (Lane lane : lanes.values()) {
+            for (Thread worker : lane.workers) {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        }
+        for (PendingRetry pendingRetry : pendingRetries) {
+            pendingRetry.deadLetter("shut down before retry after: " + pendingRetry.reason);
+        }
+        for (Lane lane : lanes.values()) {
+            List<Notification> undelivered = new ArrayList<>();
+            lane.queue.drainTo(undelivered);
+            for (Notification notification : undelivered) {
+                lane.deadLettered.increment();
+                deadLetterStore.add(notification, "shut down before delivery");
+            }
+        }
+    }
+
+    /**
+     * A failed notification waiting out its backoff. Whoever removes it from {@link #pendingRetries} first, the
+     * scheduler or {@link #shutdown()}, decides its fate, so it is neither lost nor handled twice.
+     */
+    private final class PendingRetry implements Runnable {
+        private final Lane lane;
+        private final Notification notification;
+        private final String reason;
+
+        PendingRetry(Lane lane, Notification notification, String reason) {
+            this.lane = lane;
+            this.notification = notification;
+            this.reason = reason;
+        }
+
+        @Override
+        public void run() {
+            if (!pendingRetries.remove(this)) {
+                return;
+            }
+            if (!running) {
+                lane.deadLettered.increment();
+                deadLetterStore.add(notification, "shut down before retry after: " + reason);
+            } else if (!lane.queue.offer(notification)) {
+                lane.deadLettered.increment();
+                deadLetterStore.add(notification, "queue full on retry after: " + reason);
+            }
+        }
+
+        void deadLetter(String why) {
+            if (pendingRetries.remove(this)) {
+                lane.deadLettered.increment();
+                deadLetterStore.add(notification, why);
+            }
+        }
+    }
+
+    /**
+     * Queue, workers and meters of one channel.
+     */
+    private final class Lane {
+        private final NotificationChannel channel;
+        private final BlockingQueue<Notification> queue;
+        private final List<Thread> workers = new ArrayList<>();
+        private final Timer deliveryLatency;
+        private final DistributionSummary batchSizes;
+        private final Counter sent;
+        private final Counter retried;
+        private final Counter deadLettered;
+        private final Counter rejected;
+
+        Lane(NotificationChannel channel, int queueCapacity, MeterRegistry meterRegistry) {
+            this.channel = channel;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            String type = channel.identityType().name();
+            Gauge.builder("authsome.notifier.queue-depth", queue, BlockingQueue::size).tag("channel", type).register(meterRegistry);
+            this.deliveryLatency = Timer.builder("authsome.notifier.delivery-latency").tag("channel", type).register(meterRegistry);
+            this.batchSizes = DistributionSummary.builder("authsome.notifier.batch-size").tag("channel", type).register(meterRegistry);
+            this.sent = Counter.builder("authsome.notifier.sent").tag("channel", type).register(meterRegistry);
+            this.retried = Counter.builder("authsome.notifier.retried").tag("channel", type).register(meterRegistry);
+            this.deadLettered = Counter.builder("authsome.notifier.dead-lettered").tag("channel", type).register(meterRegistry);
+            this.rejected = Counter.builder("authsome.notifier.rejected").tag("channel", type).register(meterRegistry);
+        }
+
+        void start(int workerCount, boolean virtualThreads) {
+            ThreadFactory threads = Threads.factory("notifier-" + channel.identityType().name().toLowerCase(), virtualThreads);
+            for (int i = 0; i < workerCount; i++) {
+                Thread worker = threads.newThread(this::deliverLoop);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+
+        private void deliverLoop() {
+            List<Notification> batch = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    Notification first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    deliver(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void deliver(List<Notification> batch) {
+            batchSizes.record(batch.size());
+            List<DeliveryFailure> failed;
+            try {
+                failed = channel.deliver(batch);
+            } catch (Exception e) {
+                log.warn("Delivery of {} {} notifications failed", batch.size(), channel.identityType(), e);
+                failed = new ArrayList<>(batch.size());
+                for (Notification notification : batch) {
+                    failed.add(DeliveryFailure.retry(notification, e.toString()));
+                }
+            }
+            Set<Notification> failedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (DeliveryFailure failure : failed) {
+                failedSet.add(failure.notification());
+            }
+            long now = System.nanoTime();
+            for (Notification notification : batch) {
+                if (!failedSet.contains(notification)) {
+                    sent.increment();
+                    deliveryLatency.record(now - notification.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+            for (DeliveryFailure failure : failed) {
+                if (failure.permanent()) {
+                    deadLettered.increment();
+                    deadLetterStore.add(failure.notification().nextAttempt(), failure.reason());
+                } else {
+                    retryOrDeadLetter(this, failure.notification(), failure.reason());
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,401 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * One persistent client connection to an SMTP server, used by a single thread at a time.
+ * <p>
+ * When the server advertises {@code PIPELINING} (RFC 2920) a batch costs about one round trip per message: the
+ * envelope of the next message ({@code MAIL}, {@code RCPT}, {@code DATA}) is written together with the content of the
+ * current one, and the replies are read afterwards. Without it every command waits for its reply. An I/O error marks
+ * the connection broken; messages whose outcome is not known by then are reported as undelivered.
+ */
+@Slf4j
+final class SmtpConnection {
+
+    enum Tls {
+        /**
+         * Plain text, for local relays and tests.
+         */
+        NONE,
+        /**
+         * Upgrade with {@code STARTTLS} after the greeting; fails if the server does not offer it.
+         */
+        STARTTLS,
+        /**
+         * TLS from the first byte (SMTPS).
+         */
+        IMPLICIT
+    }
+
+    record Settings(String host, int port, Tls tls, String ehloName, String username, String password,
+                    int connectTimeoutMillis, int readTimeoutMillis) {
+    }
+
+    /**
+     * A message ready for the wire.
+     *
+     * @param notification the notification it was rendered from
+     * @param sender       envelope sender
+     * @param recipient    envelope recipient
+     * @param data         complete message (headers and body), US-ASCII, lines separated by LF or CRLF
+     */
+    record Outgoing(Notification notification, String sender, String recipient, String data) {
+    }
+
+    private record Reply(int code, String text) {
+    }
+
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private boolean pipelining;
+    private boolean broken;
+    private int messagesSent;
+    private long lastUsedNanos;
+
+    private SmtpConnection() {
+    }
+
+    /**
+     * Connects, greets with {@code EHLO}, upgrades to TLS and authenticates as configured.
+     */
+    static SmtpConnection open(Settings settings) throws IOException {
+        SmtpConnection connection = new SmtpConnection();
+        try {
+            connection.connect(settings);
+        } catch (IOException | RuntimeException e) {
+            connection.closeQuietly();
+            throw e;
+        }
+        return connection;
+    }
+
+    private void connect(Settings settings) throws IOException {
+        Socket plain = new Socket();
+        plain.connect(new InetSocketAddress(settings.host(), settings.port()), settings.connectTimeoutMillis());
+        plain.setSoTimeout(settings.readTimeoutMillis());
+        plain.setTcpNoDelay(true);
+        socket = settings.tls() == Tls.IMPLICIT ? upgrade(plain, settings.host(), settings.port()) : plain;
+        bindStreams();
+        expect(readReply(), 220);
+        Set<String> capabilities = ehlo(settings.ehloName());
+        if (settings.tls() == Tls.STARTTLS) {
+            if (!capabilities.contains("STARTTLS")) {
+                throw new IOException("SMTP server does not offer STARTTLS");
+            }
+            expect(command("STARTTLS"), 220);
+            socket = upgrade(socket, settings.host(), settings.port());
+            bindStreams();
+            capabilities = ehlo(settings.ehloName());
+        }
+        if (settings.username() != null && !settings.username().isEmpty()) {
+            String credentials = "\0" + settings.username() + "\0" + settings.password();
+            expect(command("AUTH PLAIN " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8))), 235);
+        }
+        pipelining = capabilities.contains("PIPELINING");
+        lastUsedNanos = System.nanoTime();
+    }
+
+    private static SSLSocket upgrade(Socket plain, String host, int port) throws IOException {
+        SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(plain, host, port, true);
+        SSLParameters parameters = tls.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        tls.setSSLParameters(parameters);
+        tls.startHandshake();
+        return tls;
+    }
+
+    private void bindStreams() throws IOException {
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+    }
+
+    private Set<String> ehlo(String name) throws IOException {
+        Reply reply = expect(command("EHLO " + name), 250);
+        Set<String> capabilities = new HashSet<>();
+        String[] lines = reply.text().split("\n");
+        // The first line is the server's greeting, the rest are extension keywords with optional parameters
+        for (int i = 1; i < lines.length; i++) {
+            String keyword = lines[i].trim().split(" ", 2)[0];
+            if (!keyword.isEmpty()) {
+                capabilities.add(keyword.toUpperCase(Locale.ROOT));
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * Sends a batch of messages.
+     *
+     * @return the notifications the server did not accept, or whose outcome is unknown because the connection broke.
+     * A recipient or message refused with a 5xx reply is a permanent failure, anything else may be retried.
+     */
+    List<DeliveryFailure> send(List<Outgoing> batch) {
+        List<DeliveryFailure> undelivered = new ArrayList<>();
+        int decided = 0;
+        try {
+            DeliveryFailure refused = startTransaction(batch.get(0));
+            for (int i = 0; i < batch.size(); i++) {
+                Outgoing current = batch.get(i);
+                Outgoing next = i + 1 < batch.size() ? batch.get(i + 1) : null;
+                if (refused != null) {
+                    undelivered.add(refused);
+                    decided = i + 1;
+                    refused = next == null ? null : startTransaction(next);
+                    continue;
+                }
+                writeData(current.data());
+                if (next != null && pipelining) {
+                    writeEnvelope(next);
+                }
+                out.flush();
+                Reply reply = readReply();
+                if (reply.code() == 250) {
+                    messagesSent++;
+                } else {
+                    log.warn("SMTP server rejected message to {}: {} {}", current.recipient(), reply.code(), reply.text().trim());
+                    undelivered.add(refusal(current, "message", reply, reply.code() >= 500));
+                }
+                decided = i + 1;
+                if (next != null) {
+                    refused = pipelining ? readEnvelopeReplies(next) : startTransaction(next);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("SMTP connection failed, {} of {} messages undelivered", batch.size() - decided, batch.size(), e);
+            broken = true;
+            for (int i = decided; i < batch.size(); i++) {
+                undelivered.add(DeliveryFailure.retry(batch.get(i).notification(), "SMTP connection failed: " + e));
+            }
+            closeQuietly();
+        }
+        lastUsedNanos = System.nanoTime();
+        return undelivered;
+    }
+
+    /**
+     * Sends the envelope of a message and reads its replies.
+     *
+     * @return null if the server is ready for the message content, otherwise why it is not
+     */
+    private DeliveryFailure startTransaction(Outgoing outgoing) throws IOException {
+        if (pipelining) {
+            writeEnvelope(outgoing);
+            out.flush();
+            return readEnvelopeReplies(outgoing);
+        }
+        Reply mail = command("MAIL FROM:<" + outgoing.sender() + ">");
+        if (mail.code() != 250) {
+            reset();
+            return refusal(outgoing, "MAIL", mail, false);
+        }
+        Reply rcpt = command("RCPT TO:<" + outgoing.recipient() + ">");
+        if (!isRecipientAccepted(rcpt.code())) {
+            reset();
+            return refusal(outgoing, "RCPT", rcpt, rcpt.code() >= 500);
+        }
+        Reply data = command("DATA");
+        if (data.code() != 354) {
+            reset();
+            return refusal(outgoing, "DATA", data, false);
+        }
+        return null;
+    }
+
+    private void writeEnvelope(Outgoing outgoing) throws IOException {
+        writeLine("MAIL FROM:<" + outgoing.sender() + ">");
+        writeLine("RCPT TO:<" + outgoing.recipient() + ">");
+        writeLine("DATA");
+    }
+
+    private DeliveryFailure readEnvelopeReplies(Outgoing outgoing) throws IOException {
+        Reply mail = readReply();
+        Reply rcpt = readReply();
+        Reply data = readReply();
+        if (mail.code() == 250 && isRecipientAccepted(rcpt.code()) && data.code() == 354) {
+            return null;
+        }
+        log.warn("SMTP server refused envelope: MAIL {}, RCPT {} {}, DATA {}", mail.code(), rcpt.code(), rcpt.text().trim(), data.code());
+        if (data.code() == 354) {
+            // The server opened DATA despite a refused command; close it with an empty message before resetting
+            writeLine(".");
+            out.flush();
+            readReply();
+        }
+        reset();
+        if (mail.code() != 250) {
+            return refusal(outgoing, "MAIL", mail, false);
+        }
+        if (!isRecipientAccepted(rcpt.code())) {
+            return refusal(outgoing, "RCPT", rcpt, rcpt.code() >= 500);
+        }
+        return refusal(outgoing, "DATA", data, false);
+    }
+
+    /**
+     * Only refusals of the recipient or of the message itself are taken as final: a refused {@code MAIL} or
+     * {@code DATA} says more about the server or the sender than about this notification.
+     */
+    private static DeliveryFailure refusal(Outgoing outgoing, String command, Reply reply, boolean permanent) {
+        String reason = "SMTP server refused " + command + ": " + reply.code() + " " + reply.text().trim();
+        return permanent ? DeliveryFailure.permanent(outgoing.notification(), reason)
+                : DeliveryFailure.retry(outgoing.notification(), reason);
+    }
+
+    private static boolean isRecipientAccepted(int code) {
+        return code == 250 || code == 251;
+    }
+
+    private void reset() throws IOException {
+        expect(command("RSET"), 250);
+    }
+
+    /**
+     * Writes message content followed by the terminating dot, normalising line endings to CRLF and doubling dots at
+     * the start of lines.
+     */
+    private void writeData(String data) throws IOException {
+        boolean lineStart = true;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' && i + 1 < data.length() && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                out.write('\r');
+                out.write('\n');
+                lineStart = true;
+                continue;
+            }
+            if (lineStart && c == '.') {
+                out.write('.');
+            }
+            out.write(c);
+            lineStart = false;
+        }
+        if (!lineStart) {
+            out.write('\r');
+            out.write('\n');
+        }
+        writeLine(".");
+    }
+
+    private Reply command(String line) throws IOException {
+        writeLine(line);
+        out.flush();
+        return readReply();
+    }
+
+    private void writeLine(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.US_ASCII));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static Reply expect(Reply reply, int code) throws IOException {
+        if (reply.code() != code) {
+            throw new IOException("Unexpected SMTP reply " + reply.code() + " (expected " + code + "): " + reply.text().trim());
+        }
+        return reply;
+    }
+
+    private Reply readReply() throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            String line = readLine();
+            if (line.length() < 3) {
+                throw new IOException("Malformed SMTP reply: " + line);
+            }
+            int code;
+            try {
+                code = Integer.parseInt(line.substring(0, 3));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed SMTP reply: " + line);
+            }
+            text.append(line.length() > 4 ? line.substring(4) : "").append('\n');
+            if (line.length() == 3 || line.charAt(3) == ' ') {
+                return new Reply(code, text.toString());
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("SMTP connection closed by server");
+            }
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("SMTP reply line too long");
+            }
+            line.append((char) b);
+        }
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    int messagesSent() {
+        return messagesSent;
+    }
+
+    long lastUsedNanos() {
+        return lastUsedNanos;
+    }
+
+    /**
+     * Says {@code QUIT} and closes the socket, ignoring errors.
+     */
+    void close() {
+        if (!broken) {
+            try {
+                command("QUIT");
+            } catch (IOException e) {
+                log.debug("SMTP QUIT failed", e);
+            }
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        broken = true;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Closing SMTP socket failed", e);
+            }
+        }
+    }
+}
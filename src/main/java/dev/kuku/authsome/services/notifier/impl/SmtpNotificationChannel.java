@@ -0,0 +1,242 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import dev.kuku.authsome.services.notifier.api.model.IdentityType;
+import dev.kuku.authsome.util.MessageTemplate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends e-mail over SMTP through a pool of persistent connections. Selected by
+ * {@code authsome.notifier.email.transport=smtp}.
+ * <p>
+ * At most {@code authsome.notifier.smtp.pool-size} connections are open at once. A batch borrows one connection and is
+ * pipelined over it (see {@link SmtpConnection}), so the TCP and TLS handshakes, {@code EHLO} and authentication are
+ * paid once per connection instead of once per message. Idle connections are reused most-recently-used first and
+ * closed once idle longer than {@code authsome.notifier.smtp.idle-timeout} or after
+ * {@code authsome.notifier.smtp.max-messages-per-connection} messages.
+ * <p>
+ * Messages are rendered from a template compiled at startup; subjects and bodies outside US-ASCII are encoded
+ * (RFC 2047 and base64), so what goes on the wire is always 7-bit.
+ */
+@Component
+@ConditionalOnProperty(name = "authsome.notifier.email.transport", havingValue = "smtp")
+@Slf4j
+public class SmtpNotificationChannel implements NotificationChannel {
+    private static final MessageTemplate MESSAGE = MessageTemplate.compile("""
+                    From: {{from}}
+                    To: {{to}}
+                    Subject: {{subject}}
+                    Date: {{date}}
+                    Message-ID: <{{messageId}}>
+                    MIME-Version: 1.0
+                    Content-Type: text/plain; charset=UTF-8
+                    Content-Transfer-Encoding: {{encoding}}
+
+                    {{body}}""",
+            "from", "to", "subject", "date", "messageId", "encoding", "body");
+    private static final int MAX_LINE_LENGTH = 998;
+
+    private final SmtpConnection.Settings settings;
+    private final String from;
+    private final String messageIdDomain;
+    private final long idleTimeoutNanos;
+    private final int maxMessagesPerConnection;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<SmtpConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final Counter connects;
+
+    public SmtpNotificationChannel(@Value("${authsome.notifier.smtp.host:localhost}") String host,
+                                   @Value("${authsome.notifier.smtp.port:587}") int port,
+                                   @Value("${authsome.notifier.smtp.tls:starttls}") String tls,
+                                   @Value("${authsome.notifier.smtp.username:}") String username,
+                                   @Value("${authsome.notifier.smtp.password:}") String password,
+                                   @Value("${authsome.notifier.smtp.from:no-reply@authsome.local}") String from,
+                                   @Value("${authsome.notifier.smtp.ehlo-name:localhost}") String ehloName,
+                                   @Value("${authsome.notifier.smtp.pool-size:4}") int poolSize,
+                                   @Value("${authsome.notifier.smtp.max-messages-per-connection:1000}") int maxMessagesPerConnection,
+                                   @Value("${authsome.notifier.smtp.idle-timeout:PT1M}") Duration idleTimeout,
+                                   @Value("${authsome.notifier.smtp.connect-timeout:PT5S}") Duration connectTimeout,
+                                   @Value("${authsome.notifier.smtp.read-timeout:PT30S}") Duration readTimeout,
+                                   MeterRegistry meterRegistry) {
+        if (!isValidAddress(from)) {
+            throw new IllegalArgumentException("Invalid sender address: " + from);
+        }
+        this.settings = new SmtpConnection.Settings(host, port, SmtpConnection.Tls.valueOf(tls.toUpperCase(Locale.ROOT)), ehloName,
+                username, password, (int) connectTimeout.toMillis(), (int) readTimeout.toMillis());
+        this.from = from;
+        this.messageIdDomain = from.substring(from.indexOf('@') + 1);
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.permits = new Semaphore(poolSize);
+        this.connects = Counter.builder("authsome.notifier.smtp.connects").register(meterRegistry);
+        Gauge.builder("authsome.notifier.smtp.connections", openConnections, AtomicInteger::get).register(meterRegistry);
+        log.info("SmtpNotificationChannel initialized, server: {}:{}, tls: {}, poolSize: {}", host, port, settings.tls(), poolSize);
+    }
+
+    @Override
+    public IdentityType identityType() {
+        return IdentityType.EMAIL;
+    }
+
+    @Override
+    public List<DeliveryFailure> deliver(List<Notification> batch) throws IOException, InterruptedException {
+        List<DeliveryFailure> failed = new ArrayList<>();
+        List<SmtpConnection.Outgoing> outgoing = new ArrayList<>(batch.size());
+        for (Notification notification : batch) {
+            if (isValidAddress(notification.identity())) {
+                outgoing.add(new SmtpConnection.Outgoing(notification, from, notification.identity(), render(notification)));
+            } else {
+                failed.add(DeliveryFailure.permanent(notification, "invalid e-mail address"));
+            }
+        }
+        if (outgoing.isEmpty()) {
+            return failed;
+        }
+        permits.acquire();
+        // Whatever connection is held when an exception escapes is discarded, so none leaks and the gauge stays right
+        SmtpConnection connection = idle.pollFirst();
+        try {
+            if (connection != null && System.nanoTime() - connection.lastUsedNanos() > idleTimeoutNanos) {
+                discard(connection);
+                connection = null;
+            }
+            boolean reused = connection != null;
+            if (!reused) {
+                connection = open();
+            }
+            List<DeliveryFailure> undelivered = connection.send(outgoing);
+            if (reused && connection.isBroken() && undelivered.size() == outgoing.size()) {
+                // Most likely the server dropped the idle connection; one fresh connection before giving up the batch
+                discard(connection);
+                connection = null;
+                connection = open();
+                undelivered = connection.send(outgoing);
+            }
+            release(connection);
+            connection = null;
+            failed.addAll(undelivered);
+        } finally {
+            if (connection != null) {
+                discard(connection);
+            }
+            permits.release();
+        }
+        return failed;
+    }
+
+    private SmtpConnection open() throws IOException {
+        SmtpConnection connection = SmtpConnection.open(settings);
+        openConnections.incrementAndGet();
+        connects.increment();
+        return connection;
+    }
+
+    private void release(SmtpConnection connection) {
+        if (connection.isBroken() || connection.messagesSent() >= maxMessagesPerConnection) {
+            discard(connection);
+        } else {
+            idle.offerFirst(connection);
+        }
+    }
+
+    private void discard(SmtpConnection connection) {
+        connection.close();
+        openConnections.decrementAndGet();
+    }
+
+    private String render(Notification notification) {
+        String body = notification.content() == null ? "" : notification.content();
+        boolean plain = isAscii(body) && hasShortLines(body);
+        return MESSAGE.render(
+                from,
+                notification.identity(),
+                encodeHeader(notification.subject() == null ? "" : notification.subject()),
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)),
+                UUID.randomUUID() + "@" + messageIdDomain,
+                plain ? "7bit" : "base64",
+                plain ? body : Base64.getMimeEncoder().encodeToString(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Keeps a header value on one line and encodes it as an RFC 2047 encoded-word if it is not US-ASCII.
+     */
+    private static String encodeHeader(String value) {
+        String singleLine = value.replace('\r', ' ').replace('\n', ' ');
+        if (isAscii(singleLine)) {
+            return singleLine;
+        }
+        return "=?UTF-8?B?" + Base64.getEncoder().encodeToString(singleLine.getBytes(StandardCharsets.UTF_8)) + "?=";
+    }
+
+    /**
+     * Accepts plain US-ASCII addresses with one {@code @} and nothing that could break out of an SMTP command or
+     * header.
+     */
+    private static boolean isValidAddress(String address) {
+        if (address == null || address.isEmpty() || address.length() > 254) {
+            return false;
+        }
+        int at = address.indexOf('@');
+        if (at <= 0 || at != address.lastIndexOf('@') || at == address.length() - 1) {
+            return false;
+        }
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c <= ' ' || c >= 0x7F || c == '<' || c == '>' || c == ',' || c == ';') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasShortLines(String value) {
+        int lineLength = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            lineLength = c == '\n' || c == '\r' ? 0 : lineLength + 1;
+            if (lineLength > MAX_LINE_LENGTH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        SmtpConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+}
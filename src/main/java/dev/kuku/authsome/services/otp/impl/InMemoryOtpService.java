@@ -0,0 +1,361 @@
+package dev.kuku.authsome.services.otp.impl;
+
+import dev.kuku.authsome.services.otp.api.OtpService;
+import dev.kuku.authsome.services.otp.api.model.FetchedOtp;
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+
+/**
+ * {@link OtpService} keeping OTPs in process memory. Selected by {@code authsome.otp.store=memory}, the default.
+ * <p>
+ * OTPs are spread over {@code authsome.otp.memory.shards} shards by a hash of their id, each an open addressing table
+ * behind its own lock, so concurrent requests rarely contend. Expiry runs on a per-shard hierarchical timer wheel of
+ * five levels of 64 slots with a tick of {@code authsome.otp.memory.tick-millis}: an OTP is filed under the slot of
+ * its expiry tick at the coarsest level needed and moved down a level each time its slot comes round, so insert and
+ * expiry are constant time and no scan over pending OTPs is ever needed. Lookups also check the expiry time, so an OTP
+ * is never returned after it expires even if its tick has not been processed yet.
+ * <p>
+ * Entries hold the id as two longs, the code as ASCII bytes and the metadata as a flat key/value array; context
+ * strings are shared. At most {@code authsome.otp.memory.max-entries} OTPs are held. OTPs do not survive a restart
+ * and are not shared between instances.
+ */
+@Service
+@ConditionalOnProperty(name = "authsome.otp.store", havingValue = "memory", matchIfMissing = true)
+@Slf4j
+public class InMemoryOtpService implements OtpService {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int WHEEL_LEVELS = 5;
+    private static final long WHEEL_SPAN = 1L << (WHEEL_BITS * WHEEL_LEVELS);
+    private static final int MAX_SHARED_CONTEXTS = 1024;
+    private static final String[] NO_METADATA = new String[0];
+
+    private final Shard[] shards;
+    private final int shardMask;
+    private final long tickMillis;
+    private final Map<String, String> contexts = new ConcurrentHashMap<>();
+    private final Counter expired;
+
+    public InMemoryOtpService(@Value("${authsome.otp.memory.shards:64}") int shardCount,
+                              @Value("${authsome.otp.memory.max-entries:10000000}") long maxEntries,
+                              @Value("${authsome.otp.memory.tick-millis:1000}") long tickMillis,
+                              MeterRegistry meterRegistry) {
+        int size = Integer.highestOneBit(Math.max(1, shardCount - 1)) << 1;
+        this.shards = new Shard[size];
+        this.shardMask = size - 1;
+        this.tickMillis = tickMillis;
+        long nowTick = NowUTCMilli() / tickMillis;
+        int maxEntriesPerShard = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(1, maxEntries / size));
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard(maxEntriesPerShard, nowTick);
+        }
+        this.expired = Counter.builder("authsome.otp.memory.expired").register(meterRegistry);
+        Gauge.builder("authsome.otp.memory.size", this, InMemoryOtpService::size).register(meterRegistry);
+        log.info("InMemoryOtpService initialized, shards: {}, maxEntries: {}, tickMillis: {}", size, maxEntries, tickMillis);
+    }
+
+    @Override
+    public FetchedOtp generateAndSaveOtp(OtpType otpType, int otpLength, int minNumber, int minAlphabet,
+                                         int maxNumber, int maxAlphabet, int expiresAfterSecond,
+                                         String context, Map<String, String> metadata) {
+        log.debug("generateAndSaveOtp({}, {}, {}s, {})", otpType, otpLength, expiresAfterSecond, context);
+        if (expiresAfterSecond <= 0) {
+            throw new IllegalArgumentException("OTP expiry must be positive");
+        }
+        String code = OtpCodeGenerator.generate(otpType, otpLength, minNumber, minAlphabet, maxNumber, maxAlphabet);
+        UUID id = UUID.randomUUID();
+        long expiresAt = NowUTCMilli() + expiresAfterSecond * 1000L;
+        Entry entry = new Entry(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+                code.getBytes(StandardCharsets.US_ASCII), shared(context), flatten(metadata), expiresAt);
+        shardFor(entry.msb, entry.lsb).put(entry, expiryTick(expiresAt));
+        return toFetchedOtp(id.toString(), entry);
+    }
+
+    @Override
+    public FetchedOtp getOtpById(String id) {
+        log.debug("getOtpById({})", id);
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(id);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        Entry entry = shardFor(msb, lsb).get(msb, lsb);
+        if (entry == null || entry.expiresAt <= NowUTCMilli()) {
+            return null;
+        }
+        return toFetchedOtp(id, entry);
+    }
+
+    /**
+     * Advances every shard's timer wheel to the current tick, dropping the OTPs that expired.
+     */
+    @Scheduled(fixedDelayString = "${authsome.otp.memory.tick-millis:1000}")
+    public void expireDue() {
+        expire(NowUTCMilli());
+    }
+
+    int expire(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.advance(nowTick);
+        }
+        if (count > 0) {
+            expired.increment(count);
+        }
+        return count;
+    }
+
+    long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    private Shard shardFor(long msb, long lsb) {
+        return shards[(int) (hash(msb, lsb) >>> 40) & shardMask];
+    }
+
+    private long expiryTick(long expiresAt) {
+        return (expiresAt + tickMillis - 1) / tickMillis;
+    }
+
+    private String shared(String context) {
+        if (context == null) {
+            return null;
+        }
+        String shared = contexts.get(context);
+        if (shared != null) {
+            return shared;
+        }
+        if (contexts.size() >= MAX_SHARED_CONTEXTS) {
+            return context;
+        }
+        shared = contexts.putIfAbsent(context, context);
+        return shared != null ? shared : context;
+    }
+
+    private static String[] flatten(Map<String, String> metadata) {
+        if (metadata == null || metadata.isEmpty()) {
+            return NO_METADATA;
+        }
+        String[] flat = new String[metadata.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> e : metadata.entrySet()) {
+            flat[i++] = e.getKey();
+            flat[i++] = e.getValue();
+        }
+        return flat;
+    }
+
+    private static FetchedOtp toFetchedOtp(String id, Entry entry) {
+        Map<String, Object> metadata = new HashMap<>(entry.metadata.length);
+        for (int i = 0; i < entry.metadata.length; i += 2) {
+            metadata.put(entry.metadata[i], entry.metadata[i + 1]);
+        }
+        return new FetchedOtp(id, new String(entry.code, StandardCharsets.US_ASCII), entry.context, entry.expiresAt, metadata);
+    }
+
+    private static long hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * A pending OTP. Also the node of the timer wheel slot list it is filed under.
+     */
+    private static final class Entry {
+        final long msb;
+        final long lsb;
+        final byte[] code;
+        final String context;
+        final String[] metadata;
+        final long expiresAt;
+        long expiryTick;
+        Entry next;
+
+        Entry(long msb, long lsb, byte[] code, String context, String[] metadata, long expiresAt) {
+            this.msb = msb;
+            this.lsb = lsb;
+            this.code = code;
+            this.context = context;
+            this.metadata = metadata;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * One lock stripe: a linear probing table of entries and the timer wheel over them.
+     */
+    private static final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int maxEntries;
+        private final Entry[][] wheel = new Entry[WHEEL_LEVELS][WHEEL_SIZE];
+        private Entry[] table = new Entry[16];
+        private long currentTick;
+        volatile int size;
+
+        Shard(int maxEntries, long currentTick) {
+            this.maxEntries = maxEntries;
+            this.currentTick = currentTick;
+        }
+
+        void put(Entry entry, long expiryTick) {
+            lock.lock();
+            try {
+                if (size >= maxEntries) {
+                    throw new IllegalStateException("OTP store is full");
+                }
+                if ((size + 1) * 4 > table.length * 3) {
+                    resize();
+                }
+                insert(table, entry);
+                size++;
+                entry.expiryTick = expiryTick;
+                // The current tick's slot may already have been processed, so file no earlier than the next one
+                schedule(entry, 1);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Entry get(long msb, long lsb) {
+            lock.lock();
+            try {
+                int mask = table.length - 1;
+                for (int i = (int) hash(msb, lsb) & mask; ; i = (i + 1) & mask) {
+                    Entry entry = table[i];
+                    if (entry == null || (entry.msb == msb && entry.lsb == lsb)) {
+                        return entry;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Processes every tick up to and including {@code nowTick}.
+         *
+         * @return number of entries expired
+         */
+        int advance(long nowTick) {
+            lock.lock();
+            try {
+                if (size == 0) {
+                    currentTick = Math.max(currentTick, nowTick);
+                    return 0;
+                }
+                int count = 0;
+                while (currentTick < nowTick) {
+                    currentTick++;
+                    // Cascade from the coarsest level whose slot boundary was crossed, so entries moved down land
+                    // in finer slots that have not been processed yet
+                    int level = 0;
+                    while (level + 1 < WHEEL_LEVELS && (currentTick & ((1L << (WHEEL_BITS * (level + 1))) - 1)) == 0) {
+                        level++;
+                    }
+                    for (; level > 0; level--) {
+                        int slot = (int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+                        Entry entry = wheel[level][slot];
+                        wheel[level][slot] = null;
+                        while (entry != null) {
+                            Entry next = entry.next;
+                            schedule(entry, 0);
+                            entry = next;
+                        }
+                    }
+                    int slot = (int) currentTick & WHEEL_MASK;
+                    Entry entry = wheel[0][slot];
+                    wheel[0][slot] = null;
+                    while (entry != null) {
+                        Entry next = entry.next;
+                        if (entry.expiryTick > currentTick) {
+                            // Expiry beyond the span of the wheel, filed at the far end and not due yet
+                            schedule(entry, 1);
+                        } else {
+                            remove(entry);
+                            count++;
+                        }
+                        entry = next;
+                    }
+                }
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void schedule(Entry entry, long minDelta) {
+            long delta = Math.min(Math.max(minDelta, entry.expiryTick - currentTick), WHEEL_SPAN - 1);
+            long tick = currentTick + delta;
+            int level = delta == 0 ? 0 : (63 - Long.numberOfLeadingZeros(delta)) / WHEEL_BITS;
+            int slot = (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+            entry.next = wheel[level][slot];
+            wheel[level][slot] = entry;
+        }
+
+        private void remove(Entry entry) {
+            Entry[] tab = table;
+            int mask = tab.length - 1;
+            int i = (int) hash(entry.msb, entry.lsb) & mask;
+            while (tab[i] != entry) {
+                i = (i + 1) & mask;
+            }
+            tab[i] = null;
+            size--;
+            // Backward shift deletion keeps probe sequences intact without tombstones
+            for (int j = (i + 1) & mask; tab[j] != null; j = (j + 1) & mask) {
+                int home = (int) hash(tab[j].msb, tab[j].lsb) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    tab[i] = tab[j];
+                    tab[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize() {
+            Entry[] bigger = new Entry[table.length * 2];
+            for (Entry entry : table) {
+                if (entry != null) {
+                    insert(bigger, entry);
+                }
+            }
+            table = bigger;
+        }
+
+        private static void insert(Entry[] tab, Entry entry) {
+            int mask = tab.length - 1;
+            int i = (int) hash(entry.msb, entry.lsb) & mask;
+            while (tab[i] != null) {
+                i = (i + 1) & mask;
+            }
+            tab[i] = entry;
+        }
+    }
+}
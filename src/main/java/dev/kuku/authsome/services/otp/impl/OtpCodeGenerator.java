@@ -0,0 +1,159 @@
+package dev.kuku.authsome.services.otp.impl;
+
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import dev.kuku.authsome.util.ObjectPool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Generates OTP codes from digits and upper case letters.
+ * <p>
+ * Codes are drawn uniformly from all codes that satisfy the requested bounds, in a single pass and without retries:
+ * the number of digits is picked with probability proportional to the number of codes having that many digits, the
+ * digit positions by selection sampling, and each character uniformly from its class. Random bytes come from pooled
+ * DRBG {@link SecureRandom}s, read in blocks into a buffer, so threads do not contend on a shared generator (the
+ * default NativePRNG funnels every instance through one lock on {@code /dev/urandom}), a virtual thread per request
+ * does not seed a generator of its own, and a code costs little allocation beyond the returned string.
+ */
+public final class OtpCodeGenerator {
+    private static final byte[] DIGITS = "0123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes(StandardCharsets.US_ASCII);
+    static final int MAX_LENGTH = 256;
+    private static final ObjectPool<RandomBuffer> RANDOM = new ObjectPool<>(RandomBuffer::new);
+
+    private OtpCodeGenerator() {
+    }
+
+    /**
+     * Generates a code. The minimum and maximum counts only apply to {@link OtpType#ALPHANUMERIC}; -1 leaves a bound
+     * unset.
+     *
+     * @return the code
+     * @throws IllegalArgumentException if the length is out of range or the bounds cannot be satisfied
+     */
+    public static String generate(OtpType otpType, int length, int minNumber, int minAlphabet, int maxNumber, int maxAlphabet) {
+        if (length <= 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("OTP length must be between 1 and " + MAX_LENGTH);
+        }
+        int minDigits;
+        int maxDigits;
+        switch (otpType) {
+            case NUMERIC -> {
+                minDigits = length;
+                maxDigits = length;
+            }
+            case ALPHABETIC -> {
+                minDigits = 0;
+                maxDigits = 0;
+            }
+            default -> {
+                // Letters are the complement of digits, so the letter bounds become digit bounds
+                minDigits = Math.max(Math.max(0, minNumber), maxAlphabet >= 0 ? length - maxAlphabet : 0);
+                maxDigits = Math.min(maxNumber >= 0 ? maxNumber : length, length - Math.max(0, minAlphabet));
+            }
+        }
+        if (minDigits > maxDigits) {
+            throw new IllegalArgumentException("OTP digit and letter bounds cannot be satisfied for length " + length);
+        }
+        RandomBuffer random = RANDOM.take();
+        int digits = minDigits == maxDigits ? minDigits : digitCount(random, length, minDigits, maxDigits);
+        byte[] code = random.code(length);
+        int remainingDigits = digits;
+        for (int i = 0; i < length; i++) {
+            // Selection sampling: every set of digit positions of the chosen size is equally likely. Positions that
+            // are forced either way skip the draw, so NUMERIC and ALPHABETIC codes take one draw per character
+            int remainingPositions = length - i;
+            if (remainingDigits == remainingPositions
+                || (remainingDigits > 0 && random.nextInt(remainingPositions) < remainingDigits)) {
+                code[i] = DIGITS[random.nextInt(DIGITS.length)];
+                remainingDigits--;
+            } else {
+                code[i] = LETTERS[random.nextInt(LETTERS.length)];
+            }
+        }
+        String generated = new String(code, 0, length, StandardCharsets.US_ASCII);
+        RANDOM.release(random);
+        return generated;
+    }
+
+    /**
+     * Picks the number of digits k in [min, max] with probability proportional to C(length, k) 10^k 26^(length-k),
+     * the number of codes with exactly k digits. Weights are taken relative to k = min and stepped by their ratio,
+     * which stays well inside double range for codes up to {@link #MAX_LENGTH} characters.
+     */
+    private static int digitCount(RandomBuffer random, int length, int min, int max) {
+        double total = 0;
+        double weight = 1;
+        for (int k = min; k <= max; k++) {
+            total += weight;
+            weight *= nextWeightRatio(length, k);
+        }
+        double target = random.nextDouble() * total;
+        weight = 1;
+        for (int k = min; k < max; k++) {
+            target -= weight;
+            if (target < 0) {
+                return k;
+            }
+            weight *= nextWeightRatio(length, k);
+        }
+        return max;
+    }
+
+    private static double nextWeightRatio(int length, int digits) {
+        return (double) (length - digits) / (digits + 1) * DIGITS.length / LETTERS.length;
+    }
+
+    /**
+     * Pooled generator with a block of random bytes read ahead and a scratch buffer for the code.
+     */
+    private static final class RandomBuffer {
+        private final SecureRandom random = newSecureRandom();
+        private final byte[] bytes = new byte[1024];
+        private int position = bytes.length;
+        private byte[] code = new byte[16];
+
+        private static SecureRandom newSecureRandom() {
+            try {
+                return SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+        }
+
+        byte[] code(int length) {
+            if (code.length < length) {
+                code = new byte[length];
+            }
+            return code;
+        }
+
+        /**
+         * Uniform in [0, bound) by multiply-shift of 32 random bits. The bias is below bound / 2^32, negligible for
+         * the alphabet and code sizes used here, and unlike rejection sampling it never loops.
+         */
+        int nextInt(int bound) {
+            return (int) (((nextInt() & 0xFFFFFFFFL) * bound) >>> 32);
+        }
+
+        double nextDouble() {
+            long bits = ((long) nextInt() << 32) | (nextInt() & 0xFFFFFFFFL);
+            return (bits >>> 11) * 0x1.0p-53;
+        }
+
+        private int nextInt() {
+            if (position + 4 > bytes.length) {
+                random.nextBytes(bytes);
+                position = 0;
+            }
+            int value = (bytes[position] & 0xFF) << 24
+                        | (bytes[position + 1] & 0xFF) << 16
+                        | (bytes[position + 2] & 0xFF) << 8
+                        | (bytes[position + 3] & 0xFF);
+            position += 4;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package dev.kuku.authsome.services.otp.impl;
+
+import dev.kuku.authsome.services.otp.api.OtpService;
+import dev.kuku.authsome.services.otp.api.model.FetchedOtp;
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import dev.kuku.authsome.services.otp.impl.entity.OtpEntity;
+import dev.kuku.authsome.util.Threads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+
+/**
+ * {@link OtpService} storing OTPs in the {@code otps} table, so they survive restarts and are shared between
+ * instances. Selected by {@code authsome.otp.store=postgres}.
+ * <p>
+ * Inserts are group committed: callers hand their row to a queue and wait, while {@code authsome.otp.postgres.writers}
+ * writer threads each take whatever has queued up, at most {@code authsome.otp.postgres.insert-batch-size} rows, and
+ * insert it as one JDBC batch in one transaction. An idle service writes single rows without delay; under load rows
+ * share a round trip and a commit. If the queue is full the caller inserts its own row. A call returns only once its
+ * row is committed or has failed: a writer fails every row it took before it exits for any reason, and once the last
+ * writer is gone the rows still queued are failed and later callers insert their own. The writers are virtual threads
+ * with {@code spring.threads.virtual.enabled=true}.
+ * <p>
+ * Lookups go by primary key and ignore rows past their expiry. Expired rows are deleted off the request path by a
+ * sweeper every {@code authsome.otp.postgres.sweep-interval}, in chunks of {@code authsome.otp.postgres.sweep-batch-size}
+ * rows taken in {@code expires_at} order along {@code idx_otps_expires_at}, each chunk in its own short transaction
+ * and with {@code SKIP LOCKED} so sweepers on several instances do not block each other.
+ */
+@Service
+@ConditionalOnProperty(name = "authsome.otp.store", havingValue = "postgres")
+@Slf4j
+public class PostgresOtpService implements OtpService {
+    private static final String SWEEP_SQL = """
+            DELETE FROM otps WHERE id IN (
+                SELECT id FROM otps WHERE expires_at < :now ORDER BY expires_at LIMIT :limit FOR UPDATE SKIP LOCKED)
+            """;
+
+    /**
+     * A row waiting for a writer, completed once it is committed.
+     */
+    private record PendingInsert(OtpEntity otp, CompletableFuture<Void> committed) {
+    }
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<PendingInsert> pending;
+    private final List<Thread> writers = new ArrayList<>();
+    private final AtomicInteger liveWriters = new AtomicInteger();
+    private final int insertBatchSize;
+    private final int sweepBatchSize;
+    private final int maxSweepBatches;
+    private final DistributionSummary insertBatches;
+    private final Timer insertTimer;
+    private final Counter swept;
+    private final Timer sweepTimer;
+    private volatile boolean running = true;
+
+    public PostgresOtpService(EntityManager entityManager,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${authsome.otp.postgres.writers:2}") int writerCount,
+                              @Value("${authsome.otp.postgres.insert-batch-size:100}") int insertBatchSize,
+                              @Value("${authsome.otp.postgres.insert-queue-capacity:10000}") int insertQueueCapacity,
+                              @Value("${authsome.otp.postgres.sweep-batch-size:1000}") int sweepBatchSize,
+                              @Value("${authsome.otp.postgres.max-sweep-batches:100}") int maxSweepBatches,
+                              @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                              MeterRegistry meterRegistry) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.pending = new ArrayBlockingQueue<>(insertQueueCapacity);
+        this.insertBatchSize = insertBatchSize;
+        this.sweepBatchSize = sweepBatchSize;
+        this.maxSweepBatches = maxSweepBatches;
+        this.insertBatches = DistributionSummary.builder("authsome.otp.postgres.insert-batch-size").register(meterRegistry);
+        this.insertTimer = Timer.builder("authsome.otp.postgres.insert").register(meterRegistry);
+        this.swept = Counter.builder("authsome.otp.postgres.swept").register(meterRegistry);
+        this.sweepTimer = Timer.builder("authsome.otp.postgres.sweep").register(meterRegistry);
+        ThreadFactory writerThreads = Threads.factory("otp-writer", virtualThreads);
+        liveWriters.set(writerCount);
+        for (int i = 0; i < writerCount; i++) {
+            Thread writer = writerThreads.newThread(this::writeLoop);
+            writer.start();
+            writers.add(writer);
+        }
+        log.info("PostgresOtpService initialized, writers: {}, insertBatchSize: {}, sweepBatchSize: {}", writerCount, insertBatchSize, sweepBatchSize);
+    }
+
+    @Override
+    public FetchedOtp generateAndSaveOtp(OtpType otpType, int otpLength, int minNumber, int minAlphabet,
+                                         int maxNumber, int maxAlphabet, int expiresAfterSecond,
+                                         String context, Map<String, String> metadata) {
+        log.debug("generateAndSaveOtp({}, {}, {}s, {})", otpType, otpLength, expiresAfterSecond, context);
+        if (expiresAfterSecond <= 0) {
+            throw new IllegalArgumentException("OTP expiry must be positive");
+        }
+        long now = NowUTCMilli();
+        OtpEntity otp = new OtpEntity(
+                UUID.randomUUID(),
+                OtpCodeGenerator.generate(otpType, otpLength, minNumber, minAlphabet, maxNumber, maxAlphabet),
+                context,
+                now + expiresAfterSecond * 1000L,
+                metadata == null ? null : new HashMap<>(metadata),
+                now);
+        PendingInsert insert = new PendingInsert(otp, new CompletableFuture<>());
+        if (running && pending.offer(insert)) {
+            if (liveWriters.get() == 0 && pending.remove(insert)) {
+                // The last writer died between our check and the offer, after draining the queue.
+                insertBatch(List.of(otp));
+                return toFetchedOtp(otp);
+            }
+            try {
+                insert.committed().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw e;
+            }
+        } else {
+            insertBatch(List.of(otp));
+        }
+        return toFetchedOtp(otp);
+    }
+
+    @Override
+    public FetchedOtp getOtpById(String id) {
+        log.debug("getOtpById({})", id);
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(id);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+        OtpEntity otp = entityManager.find(OtpEntity.class, uuid);
+        if (otp == null || otp.getExpiresAt() <= NowUTCMilli()) {
+            return null;
+        }
+        return toFetchedOtp(otp);
+    }
+
+    /**
+     * Deletes expired OTPs in bounded chunks. Stops after {@code authsome.otp.postgres.max-sweep-batches} chunks and
+     * leaves the rest to the next run, so a large backlog cannot keep the sweeper busy indefinitely.
+     */
+    @Scheduled(fixedDelayString = "${authsome.otp.postgres.sweep-interval:PT30S}")
+    public void sweepExpired() {
+        long start = System.nanoTime();
+        long now = NowUTCMilli();
+        int total = 0;
+        for (int batch = 0; batch < maxSweepBatches; batch++) {
+            Integer deleted = transactionTemplate.execute(status -> entityManager.createNativeQuery(SWEEP_SQL)
+                    .setParameter("now", now)
+                    .setParameter("limit", sweepBatchSize)
+                    .executeUpdate());
+            total += deleted == null ? 0 : deleted;
+            if (deleted == null || deleted < sweepBatchSize) {
+                break;
+            }
+        }
+        swept.increment(total);
+        sweepTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (total > 0) {
+            log.debug("Swept {} expired OTPs", total);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingInsert> batch = new ArrayList<>(insertBatchSize);
+        try {
+            while (running || !pending.isEmpty()) {
+                try {
+                    PendingInsert first = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    pending.drainTo(batch, insertBatchSize - 1);
+                    List<OtpEntity> otps = new ArrayList<>(batch.size());
+                    for (PendingInsert insert : batch) {
+                        otps.add(insert.otp());
+                    }
+                    try {
+                        insertBatch(otps);
+                        batch.forEach(insert -> insert.committed().complete(null));
+                    } catch (RuntimeException e) {
+                        log.warn("OTP insert batch of {} failed", batch.size(), e);
+                        batch.forEach(insert -> insert.committed().completeExceptionally(e));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    // Anything still incomplete here was taken by a writer that is dying; fail it rather than strand it.
+                    failAll(batch, "OTP writer stopped");
+                    batch.clear();
+                }
+            }
+        } finally {
+            if (liveWriters.decrementAndGet() == 0) {
+                if (running) {
+                    log.error("All OTP writers stopped, inserting inline from now on");
+                }
+                running = false;
+                drainPending();
+            }
+        }
+    }
+
+    /**
+     * Fails every row still queued, so no caller waits on a writer that will never come.
+     */
+    private void drainPending() {
+        List<PendingInsert> stranded = new ArrayList<>();
+        pending.drainTo(stranded);
+        failAll(stranded, "OTP writers stopped");
+    }
+
+    private static void failAll(List<PendingInsert> inserts, String reason) {
+        if (inserts.isEmpty()) {
+            return;
+        }
+        IllegalStateException failure = new IllegalStateException(reason);
+        inserts.forEach(insert -> insert.committed().completeExceptionally(failure));
+    }
+
+    private void insertBatch(List<OtpEntity> otps) {
+        long start = System.nanoTime();
+        transactionTemplate.executeWithoutResult(status -> {
+            entityManager.unwrap(Session.class).setJdbcBatchSize(otps.size());
+            for (OtpEntity otp : otps) {
+                entityManager.persist(otp);
+            }
+            entityManager.flush();
+        });
+        insertTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        insertBatches.record(otps.size());
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        drainPending();
+    }
+
+    private static FetchedOtp toFetchedOtp(OtpEntity otp) {
+        Map<String, Object> metadata = otp.getMetadata() == null ? new HashMap<>() : new HashMap<>(otp.getMetadata());
+        return new FetchedOtp(otp.getId().toString(), otp.getCode(), otp.getContext(), otp.getExpiresAt(), metadata);
+    }
+}
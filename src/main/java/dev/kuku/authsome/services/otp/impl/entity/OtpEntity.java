@@ -0,0 +1,33 @@
+package dev.kuku.authsome.services.otp.impl.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.util.Map;
+import java.util.UUID;
+
+@Entity(name = "otps")
+@Table(indexes = {@Index(columnList = "expires_at", name = "idx_otps_expires_at")})
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString(exclude = "code")
+@Getter
+@Setter
+public class OtpEntity {
+    // Assigned before insert so that batched inserts need no generated keys back
+    @Id
+    private UUID id;
+    @Column(nullable = false)
+    private String code;
+    @Column(nullable = false)
+    private String context;
+    @Column(nullable = false, name = "expires_at")
+    private Long expiresAt;
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "metadata")
+    private Map<String, Object> metadata;
+    @Column(nullable = false, name = "created_at")
+    private Long createdAt;
+}
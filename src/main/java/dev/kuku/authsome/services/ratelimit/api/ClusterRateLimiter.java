@@ -0,0 +1,20 @@
+package dev.kuku.authsome.services.ratelimit.api;
+
+import java.time.Duration;
+
+/**
+ * Rate limits shared by all instances of the service, on top of the limits each instance enforces on its own.
+ */
+public interface ClusterRateLimiter {
+
+    /**
+     * Takes a permit from a key's budget for the current window of {@code period}, counted across all instances.
+     *
+     * @param limit   name of the limit, e.g. {@code sign-in.ip}
+     * @param key     the key to limit within it, e.g. a client address
+     * @param permits permits per window and key across all instances
+     * @param period  length of a window
+     * @return 0 if a permit was taken, otherwise the nanoseconds until the window ends
+     */
+    long tryAcquire(String limit, String key, int permits, Duration period);
+}
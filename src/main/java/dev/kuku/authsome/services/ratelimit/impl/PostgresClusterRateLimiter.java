@@ -0,0 +1,408 @@
+package dev.kuku.authsome.services.ratelimit.impl;
+
+import dev.kuku.authsome.services.ratelimit.api.ClusterRateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+import static dev.kuku.authsome.util.Util.Sha256Base64;
+
+/**
+ * {@link ClusterRateLimiter} counting in memory and synchronising through the {@code rate_limit_counters} table.
+ * Selected by {@code authsome.rate-limit.cluster.enabled=true}.
+ * <p>
+ * Budgets are counted per fixed window of the limit's period. A request only takes a permit from an in-memory
+ * counter, with one compare-and-set, up to this instance's lease: its share of what the rest of the cluster has
+ * left of the budget. Every {@code authsome.rate-limit.cluster.sync-interval} one thread writes the permits taken
+ * since the last sync into this instance's own rows, reads back what the other instances took or still hold leases on
+ * for the same keys, and renews the leases by splitting what is left evenly among the instances that sent a heartbeat
+ * within {@code authsome.rate-limit.cluster.node-timeout}; the new leases are written back so the others leave them
+ * out. Every key asked for since the last sync is renewed, including ones whose lease is used up, so an instance that
+ * runs out picks up what the others leave unused. A lease lapses one node timeout after it was last renewed, and a
+ * lapsed lease only counts with what was actually taken, so shares of idle or departed instances return to the pool.
+ * <p>
+ * Because instances renew from views up to one sync interval old, the cluster-wide count can still run somewhat over
+ * the limit when several instances draw on one key at once: an instance's first lease on a key, and a lapsed lease
+ * until its next renewal, are used without seeing what the others took meanwhile.
+ * <p>
+ * Keys are stored as SHA-256 digests. When the database cannot be reached the instance keeps enforcing its current
+ * leases and retries the sync. At most {@code authsome.rate-limit.cluster.max-keys} keys are counted per window;
+ * beyond that requests are only held to the instance's own limits.
+ */
+@Service
+@ConditionalOnProperty(name = "authsome.rate-limit.cluster.enabled", havingValue = "true")
+@Slf4j
+public class PostgresClusterRateLimiter implements ClusterRateLimiter {
+    // Rows are only ever written by the instance named in them, and by one thread there, so update-then-insert cannot
+    // race and no upsert syntax is needed
+    private static final String HEARTBEAT_SQL = "UPDATE rate_limit_nodes SET seen_at = ? WHERE node_id = ?";
+    private static final String INSERT_NODE_SQL = "INSERT INTO rate_limit_nodes (node_id, seen_at) VALUES (?, ?)";
+    private static final String ADD_TAKEN_SQL = """
+            UPDATE rate_limit_counters SET taken = taken + ? WHERE limit_key = ? AND window_start = ? AND node_id = ?
+            """;
+    private static final String INSERT_COUNTER_SQL = """
+            INSERT INTO rate_limit_counters (limit_key, window_start, node_id, taken, leased, lease_expires_at, expires_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+    private static final String LEASE_SQL = """
+            UPDATE rate_limit_counters SET leased = ?, lease_expires_at = ? WHERE limit_key = ? AND window_start = ? AND node_id = ?
+            """;
+    private static final String ACTIVE_NODES_SQL = "SELECT count(*) FROM rate_limit_nodes WHERE seen_at > ?";
+    private static final String OTHERS_SQL = """
+            SELECT limit_key, window_start, sum(CASE WHEN lease_expires_at > ? THEN GREATEST(taken, leased) ELSE taken END)
+            FROM rate_limit_counters
+            WHERE limit_key = ANY (?) AND window_start >= ? AND node_id <> ? GROUP BY limit_key, window_start
+            """;
+    private static final String CLEANUP_COUNTERS_SQL = "DELETE FROM rate_limit_counters WHERE expires_at < ?";
+    private static final String CLEANUP_NODES_SQL = "DELETE FROM rate_limit_nodes WHERE seen_at < ?";
+    private static final int READ_CHUNK = 1000;
+
+    /**
+     * Permits taken by this instance from one key's budget in one window.
+     */
+    private static final class WindowCounter {
+        final String dbKey;
+        final long windowStart;
+        final long windowEnd;
+        final int permits;
+        final AtomicInteger taken = new AtomicInteger();
+        final AtomicBoolean dirty = new AtomicBoolean();
+        /**
+         * How far {@link #taken} may go until the next sync; only written by the sync thread.
+         */
+        volatile int limit;
+        /**
+         * When the others stop counting the unused part of {@link #limit}; after creation only used by the sync thread.
+         */
+        long leaseExpiresAt;
+        /**
+         * Part of {@link #taken} already written; only used by the sync thread.
+         */
+        int flushed;
+
+        WindowCounter(String dbKey, long windowStart, long windowEnd, int permits, int limit, long leaseExpiresAt) {
+            this.dbKey = dbKey;
+            this.windowStart = windowStart;
+            this.windowEnd = windowEnd;
+            this.permits = permits;
+            this.limit = limit;
+            this.leaseExpiresAt = leaseExpiresAt;
+        }
+    }
+
+    /**
+     * A counter picked up by a sync together with the permits it will write.
+     */
+    private record Flush(WindowCounter counter, int taken) {
+    }
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final long nodeTimeoutMillis;
+    private final long cleanupIntervalMillis;
+    private final int maxKeys;
+    private final Map<String, Map<String, WindowCounter>> countersByLimit = new ConcurrentHashMap<>();
+    private final AtomicInteger counterCount = new AtomicInteger();
+    private final ConcurrentLinkedQueue<WindowCounter> dirty = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService syncExecutor;
+    private volatile int activeNodes = 1;
+    private long lastCleanup;
+    private final Timer syncTimer;
+    private final DistributionSummary syncBatch;
+    private final Counter syncFailures;
+    private final Counter untracked;
+
+    public PostgresClusterRateLimiter(EntityManager entityManager,
+                                      TransactionTemplate transactionTemplate,
+                                      @Value("${authsome.rate-limit.cluster.sync-interval:PT0.25S}") Duration syncInterval,
+                                      @Value("${authsome.rate-limit.cluster.node-timeout:PT5S}") Duration nodeTimeout,
+                                      @Value("${authsome.rate-limit.cluster.cleanup-interval:PT1M}") Duration cleanupInterval,
+                                      @Value("${authsome.rate-limit.cluster.max-keys:200000}") int maxKeys,
+                                      MeterRegistry meterRegistry) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.nodeTimeoutMillis = nodeTimeout.toMillis();
+        this.cleanupIntervalMillis = cleanupInterval.toMillis();
+        this.maxKeys = maxKeys;
+        this.syncTimer = Timer.builder("authsome.rate-limit.cluster.sync").register(meterRegistry);
+        this.syncBatch = DistributionSummary.builder("authsome.rate-limit.cluster.sync-batch").register(meterRegistry);
+        this.syncFailures = Counter.builder("authsome.rate-limit.cluster.sync-failures").register(meterRegistry);
+        this.untracked = Counter.builder("authsome.rate-limit.cluster.untracked").register(meterRegistry);
+        this.syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncExecutor.scheduleWithFixedDelay(this::sync, syncInterval.toMillis(), syncInterval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("PostgresClusterRateLimiter initialized, node: {}, syncInterval: {}, nodeTimeout: {}, maxKeys: {}", nodeId, syncInterval, nodeTimeout, maxKeys);
+    }
+
+    @Override
+    public long tryAcquire(String limit, String key, int permits, Duration period) {
+        long now = NowUTCMilli();
+        long periodMillis = period.toMillis();
+        long windowStart = Math.floorDiv(now, periodMillis) * periodMillis;
+        WindowCounter counter = counter(limit, key, permits, windowStart, periodMillis, now);
+        if (counter == null) {
+            untracked.increment();
+            return 0;
+        }
+        // Queued whether or not a permit is left: a used up lease is renewed too, from what the others left over
+        if (!counter.dirty.get() && counter.dirty.compareAndSet(false, true)) {
+            dirty.add(counter);
+        }
+        while (true) {
+            int taken = counter.taken.get();
+            if (taken >= counter.limit) {
+                return TimeUnit.MILLISECONDS.toNanos(Math.max(1, counter.windowEnd - now));
+            }
+            if (counter.taken.compareAndSet(taken, taken + 1)) {
+                return 0;
+            }
+        }
+    }
+
+    private WindowCounter counter(String limit, String key, int permits, long windowStart, long periodMillis, long now) {
+        Map<String, WindowCounter> counters = countersByLimit.computeIfAbsent(limit, l -> new ConcurrentHashMap<>());
+        WindowCounter counter = counters.get(key);
+        if (counter != null && counter.windowStart == windowStart) {
+            return counter;
+        }
+        if (counter == null && counterCount.get() >= maxKeys) {
+            return null;
+        }
+        // A counter of an earlier window stays queued until its last permits are written
+        return counters.compute(key, (k, current) -> {
+            if (current != null && current.windowStart == windowStart) {
+                return current;
+            }
+            if (current == null) {
+                counterCount.incrementAndGet();
+            }
+            return new WindowCounter(limit + ":" + Sha256Base64(k), windowStart, windowStart + periodMillis, permits,
+                    lease(permits, 0), now + nodeTimeoutMillis);
+        });
+    }
+
+    private int lease(int permits, long takenElsewhere) {
+        long remaining = Math.max(0, permits - takenElsewhere);
+        return (int) ((remaining + activeNodes - 1) / activeNodes);
+    }
+
+    /**
+     * Writes the permits taken since the last sync and renews the leases of the counters they were taken from.
+     */
+    void sync() {
+        long start = System.nanoTime();
+        long now = NowUTCMilli();
+        List<Flush> flushes = new ArrayList<>();
+        WindowCounter counter;
+        while ((counter = dirty.poll()) != null) {
+            // Cleared before reading, so a permit taken from here on queues the counter again
+            counter.dirty.set(false);
+            flushes.add(new Flush(counter, counter.taken.get()));
+        }
+        try {
+            int[] limits = transactionTemplate.execute(status ->
+                    entityManager.unwrap(Session.class).doReturningWork(connection -> write(connection, flushes, now)));
+            for (int i = 0; i < flushes.size(); i++) {
+                WindowCounter flushed = flushes.get(i).counter();
+                flushed.flushed = flushes.get(i).taken();
+                if (flushed.windowEnd > now) {
+                    flushed.limit = limits[i];
+                    flushed.leaseExpiresAt = now + nodeTimeoutMillis;
+                }
+            }
+            syncBatch.record(flushes.size());
+        } catch (RuntimeException e) {
+            syncFailures.increment();
+            log.warn("Rate limit sync of {} counters failed, retrying: {}", flushes.size(), e.getMessage());
+            for (Flush flush : flushes) {
+                if (flush.counter().dirty.compareAndSet(false, true)) {
+                    dirty.add(flush.counter());
+                }
+            }
+        }
+        evictEnded(now);
+        syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the renewed limit of each flushed counter, by position
+     */
+    private int[] write(Connection connection, List<Flush> flushes, long now) throws SQLException {
+        try (PreparedStatement heartbeat = connection.prepareStatement(HEARTBEAT_SQL)) {
+            heartbeat.setLong(1, now);
+            heartbeat.setString(2, nodeId);
+            if (heartbeat.executeUpdate() == 0) {
+                try (PreparedStatement insert = connection.prepareStatement(INSERT_NODE_SQL)) {
+                    insert.setString(1, nodeId);
+                    insert.setLong(2, now);
+                    insert.executeUpdate();
+                }
+            }
+        }
+        if (!flushes.isEmpty()) {
+            int[] updated;
+            try (PreparedStatement addTaken = connection.prepareStatement(ADD_TAKEN_SQL)) {
+                for (Flush flush : flushes) {
+                    WindowCounter counter = flush.counter();
+                    addTaken.setLong(1, flush.taken() - counter.flushed);
+                    addTaken.setString(2, counter.dbKey);
+                    addTaken.setLong(3, counter.windowStart);
+                    addTaken.setString(4, nodeId);
+                    addTaken.addBatch();
+                }
+                updated = addTaken.executeBatch();
+            }
+            boolean inserting = false;
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_COUNTER_SQL)) {
+                for (int i = 0; i < updated.length; i++) {
+                    if (updated[i] != 0) {
+                        continue;
+                    }
+                    WindowCounter counter = flushes.get(i).counter();
+                    insert.setString(1, counter.dbKey);
+                    insert.setLong(2, counter.windowStart);
+                    insert.setString(3, nodeId);
+                    insert.setLong(4, flushes.get(i).taken() - counter.flushed);
+                    insert.setLong(5, counter.limit);
+                    insert.setLong(6, counter.leaseExpiresAt);
+                    insert.setLong(7, counter.windowEnd);
+                    insert.addBatch();
+                    inserting = true;
+                }
+                if (inserting) {
+                    insert.executeBatch();
+                }
+            }
+        }
+        try (PreparedStatement nodes = connection.prepareStatement(ACTIVE_NODES_SQL)) {
+            nodes.setLong(1, now - nodeTimeoutMillis);
+            try (ResultSet resultSet = nodes.executeQuery()) {
+                resultSet.next();
+                activeNodes = Math.max(1, resultSet.getInt(1));
+            }
+        }
+        Map<String, Long> others = new HashMap<>();
+        List<WindowCounter> current = new ArrayList<>();
+        long oldestWindow = Long.MAX_VALUE;
+        for (Flush flush : flushes) {
+            if (flush.counter().windowEnd > now) {
+                current.add(flush.counter());
+                oldestWindow = Math.min(oldestWindow, flush.counter().windowStart);
+            }
+        }
+        for (int from = 0; from < current.size(); from += READ_CHUNK) {
+            List<WindowCounter> chunk = current.subList(from, Math.min(current.size(), from + READ_CHUNK));
+            String[] keys = new String[chunk.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = chunk.get(i).dbKey;
+            }
+            Array keyArray = connection.createArrayOf("varchar", keys);
+            try (PreparedStatement othersQuery = connection.prepareStatement(OTHERS_SQL)) {
+                othersQuery.setLong(1, now);
+                othersQuery.setArray(2, keyArray);
+                othersQuery.setLong(3, oldestWindow);
+                othersQuery.setString(4, nodeId);
+                try (ResultSet resultSet = othersQuery.executeQuery()) {
+                    while (resultSet.next()) {
+                        others.put(resultSet.getString(1) + "@" + resultSet.getLong(2), resultSet.getLong(3));
+                    }
+                }
+            } finally {
+                keyArray.free();
+            }
+        }
+        int[] limits = new int[flushes.size()];
+        try (PreparedStatement lease = connection.prepareStatement(LEASE_SQL)) {
+            for (int i = 0; i < limits.length; i++) {
+                WindowCounter counter = flushes.get(i).counter();
+                if (counter.windowEnd <= now) {
+                    continue;
+                }
+                long taken = flushes.get(i).taken();
+                long elsewhere = others.getOrDefault(counter.dbKey + "@" + counter.windowStart, 0L);
+                limits[i] = (int) (taken + lease(counter.permits, elsewhere + taken));
+                lease.setLong(1, limits[i]);
+                lease.setLong(2, now + nodeTimeoutMillis);
+                lease.setString(3, counter.dbKey);
+                lease.setLong(4, counter.windowStart);
+                lease.setString(5, nodeId);
+                lease.addBatch();
+            }
+            lease.executeBatch();
+        }
+        if (now - lastCleanup >= cleanupIntervalMillis) {
+            cleanup(connection, now);
+            lastCleanup = now;
+        }
+        return limits;
+    }
+
+    /**
+     * Deletes the rows of ended windows and of instances that have been gone for a while.
+     */
+    private void cleanup(Connection connection, long now) throws SQLException {
+        try (PreparedStatement counters = connection.prepareStatement(CLEANUP_COUNTERS_SQL);
+             PreparedStatement nodes = connection.prepareStatement(CLEANUP_NODES_SQL)) {
+            counters.setLong(1, now);
+            int deleted = counters.executeUpdate();
+            nodes.setLong(1, now - Math.max(cleanupIntervalMillis, nodeTimeoutMillis));
+            nodes.executeUpdate();
+            log.debug("Deleted {} ended rate limit counters", deleted);
+        }
+    }
+
+    /**
+     * Forgets counters of ended windows; ones that still have permits to write are kept until the next sync.
+     */
+    private void evictEnded(long now) {
+        for (Map<String, WindowCounter> counters : countersByLimit.values()) {
+            for (Map.Entry<String, WindowCounter> entry : counters.entrySet()) {
+                WindowCounter counter = entry.getValue();
+                if (counter.windowEnd <= now && !counter.dirty.get() && counters.remove(entry.getKey(), counter)) {
+                    counterCount.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        syncExecutor.shutdown();
+        syncExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        // Hand the permits taken since the last sync to the rest of the cluster
+        sync();
+    }
+}
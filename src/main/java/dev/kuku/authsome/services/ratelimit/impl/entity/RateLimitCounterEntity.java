@@ -0,0 +1,57 @@
+package dev.kuku.authsome.services.ratelimit.impl.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+
+/**
+ * Permits one instance took from one key's budget in one window; the cluster-wide count is the sum over instances.
+ * One row per instance means instances never update the same row.
+ */
+@Entity(name = "rate_limit_counters")
+@Table(indexes = {@Index(columnList = "expires_at", name = "idx_rate_limit_counters_expires_at")})
+@IdClass(RateLimitCounterEntity.Key.class)
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+@Getter
+@Setter
+public class RateLimitCounterEntity {
+    /**
+     * Name of the limit and SHA-256 of the limited key, so client addresses and identities are not stored.
+     */
+    @Id
+    @Column(name = "limit_key")
+    private String limitKey;
+    @Id
+    @Column(name = "window_start")
+    private Long windowStart;
+    @Id
+    @Column(name = "node_id")
+    private String nodeId;
+    @Column(nullable = false, name = "taken")
+    private Long taken;
+    /**
+     * How far the instance may count {@link #taken} up to before its next sync; other instances leave this much out
+     * of what they lease themselves.
+     */
+    @Column(nullable = false, name = "leased")
+    private Long leased;
+    /**
+     * When the unused part of {@link #leased} stops counting for the other instances, unless renewed before.
+     */
+    @Column(name = "lease_expires_at")
+    private Long leaseExpiresAt;
+    @Column(nullable = false, name = "expires_at")
+    private Long expiresAt;
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private String limitKey;
+        private Long windowStart;
+        private String nodeId;
+    }
+}
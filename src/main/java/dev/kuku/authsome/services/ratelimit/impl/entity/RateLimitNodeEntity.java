@@ -0,0 +1,21 @@
+package dev.kuku.authsome.services.ratelimit.impl.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Heartbeat of an instance taking part in cluster rate limiting; instances seen recently share the budgets.
+ */
+@Entity(name = "rate_limit_nodes")
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+@Getter
+@Setter
+public class RateLimitNodeEntity {
+    @Id
+    @Column(name = "node_id")
+    private String nodeId;
+    @Column(nullable = false, name = "seen_at")
+    private Long seenAt;
+}
@@ -32,12 +32,35 @@ public interface TenantService {
      */
     FetchedTenant getTenantByUsername(String username);
 
+    /**
+     * Checks whether an identity is already registered to a tenant, for availability checks before signup.
+     * <p>
+     * May answer from an in-memory filter: a true answer is always confirmed against storage, while a false answer
+     * can miss identities registered by another instance very recently. Uniqueness is still enforced when the
+     * identity is added.
+     *
+     * @param identityType the type of identity
+     * @param identity     the identity value
+     * @return true if the identity is in use
+     */
+    boolean isIdentityTaken(IdentityType identityType, String identity);
+
+    /**
+     * Checks whether a username is already in use, for availability checks before signup. Same consistency as
+     * {@link #isIdentityTaken}.
+     *
+     * @param username the username
+     * @return true if the username is in use
+     */
+    boolean isUsernameTaken(String username);
+
     /**
      * Creates a new tenant with the specified username and password.
      *
      * @param username    the username for the new tenant
      * @param rawPassword the raw password for the new tenant
      * @return the created tenant
+     * @throws java.util.concurrent.RejectedExecutionException if password hashing is saturated
      */
     FetchedTenant createTenant(String username, String rawPassword);
 
@@ -51,21 +74,30 @@ public interface TenantService {
      */
     FetchedTenantIdentity addIdentityForTenant(String tenantId, IdentityType identityType, String identity);
 
+    /**
+     * Checks a tenant's password.
+     *
+     * @param tenantId    id of the tenant
+     * @param rawPassword the password to check
+     * @return true if the tenant exists and the password matches
+     * @throws java.util.concurrent.RejectedExecutionException if password hashing is saturated
+     */
     boolean validateTenantCredentials(String tenantId, String rawPassword);
 
     /**
      * Create and persist a new session for the specified tenant. Should keep track of session expiration internally.
      *
      * @param tenantId id of the tenant
-     * @return id of the created session
+     * @return refresh token of the created session
      */
     String createTenantRefreshToken(String tenantId, Map<String, Object> metadata);
 
     /**
-     * Get tenant and refresh token info by refresh token. Rotate token if required.
+     * Get tenant and refresh token info by refresh token, rotating the token. A token can be rotated once; presenting
+     * the token the current one replaced is treated as reuse and revokes its session.
      *
      * @param refreshToken current refresh token
-     * @return tenant and refresh token info
+     * @return tenant and the new refresh token, or null if the token is invalid, expired, revoked or reused
      */
     TenantAndRefreshToken refreshToken(String refreshToken);
 
@@ -84,6 +116,22 @@ public interface TenantService {
      */
     String generateAPIKeyForTenant(String tenantId);
 
+    /**
+     * Revoke an API key of the specified tenant, making it invalid for future use.
+     *
+     * @param tenantId id of the tenant owning the key
+     * @param apiKey   api key string to invalidate
+     */
+    void revokeAPIKeyForTenant(String tenantId, String apiKey);
+
+    /**
+     * Check the format and checksum of an API key without any I/O.
+     *
+     * @param apiKey api key string
+     * @return false if the key cannot possibly belong to any tenant
+     */
+    boolean isWellFormedApiKey(String apiKey);
+
     /**
      * Get tenant by API key.
      *
@@ -0,0 +1,175 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.zip.CRC32;
+
+/**
+ * Generates, parses and hashes tenant API keys.
+ * <p>
+ * A key looks like {@code ask_<prefix>_<secret><checksum>}: an 8 character lookup prefix, a 32 character secret and
+ * a 6 character CRC32 checksum over prefix and secret, all base62. Only the prefix and a keyed HMAC-SHA256 of the
+ * secret are stored, so the key itself cannot be recovered from the database. Malformed keys and keys with a wrong
+ * checksum are rejected by {@link #parse} without any I/O.
+ */
+@Component
+@Slf4j
+public class ApiKeyCodec {
+    static final String KEY_PREFIX = "ask_";
+    static final int PREFIX_LENGTH = 8;
+    static final int SECRET_LENGTH = 32;
+    static final int CHECKSUM_LENGTH = 6;
+    static final int KEY_LENGTH = KEY_PREFIX.length() + PREFIX_LENGTH + 1 + SECRET_LENGTH + CHECKSUM_LENGTH;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char[] ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    /**
+     * A freshly generated key together with the values to store for it.
+     *
+     * @param apiKey  the full key, handed to the tenant once and never stored
+     * @param prefix  the lookup prefix
+     * @param keyHash the keyed hash of the secret
+     */
+    public record GeneratedApiKey(String apiKey, String prefix, String keyHash) {
+    }
+
+    /**
+     * A well-formed key split into its parts.
+     *
+     * @param prefix the lookup prefix
+     * @param secret the secret part
+     */
+    public record ParsedApiKey(String prefix, String secret) {
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final Mac prototype;
+
+    /**
+     * @param hashKey key for the HMAC over API key secrets. Changing it invalidates all issued keys
+     */
+    public ApiKeyCodec(@Value("${authsome.api-key.hash-key:AuthsomeApiKeyHashKeyChangeMe}") String hashKey) {
+        try {
+            prototype = Mac.getInstance(ALGORITHM);
+            prototype.init(new SecretKeySpec(hashKey.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+        log.info("ApiKeyCodec initialized");
+    }
+
+    /**
+     * Generates a new random key.
+     *
+     * @return the key and the values to persist for it
+     */
+    public GeneratedApiKey generate() {
+        char[] key = new char[KEY_LENGTH];
+        KEY_PREFIX.getChars(0, KEY_PREFIX.length(), key, 0);
+        int offset = KEY_PREFIX.length();
+        for (int i = 0; i < PREFIX_LENGTH; i++) {
+            key[offset++] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        key[offset++] = '_';
+        for (int i = 0; i < SECRET_LENGTH; i++) {
+            key[offset++] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        long checksum = checksum(CharBuffer.wrap(key), KEY_PREFIX.length(), offset);
+        for (int i = KEY_LENGTH - 1; i >= offset; i--) {
+            key[i] = ALPHABET[(int) (checksum % ALPHABET.length)];
+            checksum /= ALPHABET.length;
+        }
+        String apiKey = new String(key);
+        ParsedApiKey parsed = split(apiKey);
+        return new GeneratedApiKey(apiKey, parsed.prefix(), hash(parsed.secret()));
+    }
+
+    /**
+     * Validates the format and checksum of a key.
+     *
+     * @param apiKey the key as presented by a client
+     * @return the parts of the key, or null if the key is malformed or its checksum does not match
+     */
+    public ParsedApiKey parse(String apiKey) {
+        if (apiKey == null || apiKey.length() != KEY_LENGTH || !apiKey.startsWith(KEY_PREFIX)) {
+            return null;
+        }
+        int separator = KEY_PREFIX.length() + PREFIX_LENGTH;
+        if (apiKey.charAt(separator) != '_') {
+            return null;
+        }
+        long checksum = 0;
+        for (int i = KEY_LENGTH - CHECKSUM_LENGTH; i < KEY_LENGTH; i++) {
+            int digit = digit(apiKey.charAt(i));
+            if (digit < 0) {
+                return null;
+            }
+            checksum = checksum * ALPHABET.length + digit;
+        }
+        for (int i = KEY_PREFIX.length(); i < KEY_LENGTH - CHECKSUM_LENGTH; i++) {
+            if (i != separator && digit(apiKey.charAt(i)) < 0) {
+                return null;
+            }
+        }
+        if (checksum != checksum(apiKey, KEY_PREFIX.length(), KEY_LENGTH - CHECKSUM_LENGTH)) {
+            return null;
+        }
+        return split(apiKey);
+    }
+
+    /**
+     * Checks the secret of a parsed key against a stored hash in constant time.
+     *
+     * @param apiKey  the parsed key
+     * @param keyHash the stored hash
+     * @return true if the secret matches the hash
+     */
+    public boolean matches(ParsedApiKey apiKey, String keyHash) {
+        return keyHash != null && MessageDigest.isEqual(
+                hash(apiKey.secret()).getBytes(StandardCharsets.US_ASCII),
+                keyHash.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String hash(String secret) {
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("HmacSHA256 implementation cannot be cloned", e);
+        }
+        return Base64.getEncoder().encodeToString(mac.doFinal(secret.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static ParsedApiKey split(String apiKey) {
+        int separator = KEY_PREFIX.length() + PREFIX_LENGTH;
+        return new ParsedApiKey(
+                apiKey.substring(KEY_PREFIX.length(), separator),
+                apiKey.substring(separator + 1, KEY_LENGTH - CHECKSUM_LENGTH));
+    }
+
+    private static long checksum(CharSequence key, int from, int to) {
+        CRC32 crc = new CRC32();
+        for (int i = from; i < to; i++) {
+            crc.update(key.charAt(i));
+        }
+        return crc.getValue();
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'Z') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'z') return c - 'a' + 36;
+        return -1;
+    }
+}
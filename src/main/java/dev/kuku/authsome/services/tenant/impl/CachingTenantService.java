@@ -0,0 +1,222 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.kuku.authsome.services.tenant.api.TenantService;
+import dev.kuku.authsome.services.tenant.api.dto.FetchedTenant;
+import dev.kuku.authsome.services.tenant.api.dto.FetchedTenantIdentity;
+import dev.kuku.authsome.services.tenant.api.dto.IdentityType;
+import dev.kuku.authsome.services.tenant.api.dto.TenantAndRefreshToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Caching decorator around {@link TenantServiceImpl}, injected wherever a {@link TenantService} is needed.
+ * <p>
+ * Tenants are cached by id. Usernames and identities are cached as a mapping to the tenant id, so a tenant is held
+ * only once however it is looked up. Write paths go through this class and update or evict the affected entries;
+ * any new method that changes a tenant, its username or its identities must do the same. Only found tenants are
+ * cached, and entries expire after {@code authsome.tenant-cache.ttl-seconds} so changes made by other instances are
+ * picked up. Hit and miss counts are published under the {@code authsome.tenant-cache.*} cache names.
+ * <p>
+ * Availability checks consult the {@link TenantExistenceFilter} first and only go to the cache or database when the
+ * name might exist. New usernames and identities are added to the filter after they are committed.
+ */
+@Service
+@Primary
+@Slf4j
+public class CachingTenantService implements TenantService {
+
+    private final TenantServiceImpl delegate;
+    private final TenantExistenceFilter existenceFilter;
+    private final boolean enabled;
+    private final Cache<String, FetchedTenant> tenantsById;
+    private final Cache<String, String> tenantIdsByUsername;
+    private final Cache<String, String> tenantIdsByIdentity;
+
+    public CachingTenantService(TenantServiceImpl delegate,
+                                TenantExistenceFilter existenceFilter,
+                                @Value("${authsome.tenant-cache.enabled:true}") boolean enabled,
+                                @Value("${authsome.tenant-cache.max-size:100000}") long maxSize,
+                                @Value("${authsome.tenant-cache.ttl-seconds:300}") long ttlSeconds,
+                                MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.existenceFilter = existenceFilter;
+        this.enabled = enabled;
+        this.tenantsById = newCache(maxSize, ttlSeconds);
+        this.tenantIdsByUsername = newCache(maxSize, ttlSeconds);
+        this.tenantIdsByIdentity = newCache(maxSize, ttlSeconds);
+        CaffeineCacheMetrics.monitor(meterRegistry, tenantsById, "authsome.tenant-cache.by-id");
+        CaffeineCacheMetrics.monitor(meterRegistry, tenantIdsByUsername, "authsome.tenant-cache.by-username");
+        CaffeineCacheMetrics.monitor(meterRegistry, tenantIdsByIdentity, "authsome.tenant-cache.by-identity");
+        log.info("CachingTenantService initialized, enabled: {}, maxSize: {}, ttlSeconds: {}", enabled, maxSize, ttlSeconds);
+    }
+
+    private static <V> Cache<String, V> newCache(long maxSize, long ttlSeconds) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+    }
+
+    // ===========================================================
+    // Cached reads
+    // ===========================================================
+    @Override
+    public FetchedTenant getTenantByIdentity(IdentityType identityType, String identity) {
+        if (!enabled) {
+            return delegate.getTenantByIdentity(identityType, identity);
+        }
+        String key = identityKey(identityType, identity);
+        String tenantId = tenantIdsByIdentity.getIfPresent(key);
+        if (tenantId != null) {
+            return getTenantById(tenantId);
+        }
+        FetchedTenant tenant = delegate.getTenantByIdentity(identityType, identity);
+        if (tenant != null) {
+            tenantIdsByIdentity.put(key, tenant.id());
+            tenantsById.put(tenant.id(), tenant);
+        }
+        return tenant;
+    }
+
+    @Override
+    public FetchedTenant getTenantByUsername(String username) {
+        if (!enabled) {
+            return delegate.getTenantByUsername(username);
+        }
+        String tenantId = tenantIdsByUsername.getIfPresent(username);
+        if (tenantId != null) {
+            return getTenantById(tenantId);
+        }
+        FetchedTenant tenant = delegate.getTenantByUsername(username);
+        if (tenant != null) {
+            cache(tenant);
+        }
+        return tenant;
+    }
+
+    @Override
+    public FetchedTenant getTenantById(String tenantId) {
+        if (!enabled) {
+            return delegate.getTenantById(tenantId);
+        }
+        return tenantsById.get(tenantId, delegate::getTenantById);
+    }
+
+    // ===========================================================
+    // Availability checks, filtered
+    // ===========================================================
+    @Override
+    public boolean isIdentityTaken(IdentityType identityType, String identity) {
+        if (!existenceFilter.isReady()) {
+            existenceFilter.recordIdentityLookup(TenantExistenceFilter.Outcome.BYPASSED);
+            return getTenantByIdentity(identityType, identity) != null;
+        }
+        if (!existenceFilter.mightContainIdentity(identityType, identity)) {
+            existenceFilter.recordIdentityLookup(TenantExistenceFilter.Outcome.ABSENT);
+            return false;
+        }
+        boolean taken = getTenantByIdentity(identityType, identity) != null;
+        existenceFilter.recordIdentityLookup(taken ? TenantExistenceFilter.Outcome.PRESENT : TenantExistenceFilter.Outcome.FALSE_POSITIVE);
+        return taken;
+    }
+
+    @Override
+    public boolean isUsernameTaken(String username) {
+        if (!existenceFilter.isReady()) {
+            existenceFilter.recordUsernameLookup(TenantExistenceFilter.Outcome.BYPASSED);
+            return getTenantByUsername(username) != null;
+        }
+        if (!existenceFilter.mightContainUsername(username)) {
+            existenceFilter.recordUsernameLookup(TenantExistenceFilter.Outcome.ABSENT);
+            return false;
+        }
+        boolean taken = getTenantByUsername(username) != null;
+        existenceFilter.recordUsernameLookup(taken ? TenantExistenceFilter.Outcome.PRESENT : TenantExistenceFilter.Outcome.FALSE_POSITIVE);
+        return taken;
+    }
+
+    // ===========================================================
+    // Writes, keeping the cache and filter in step
+    // ===========================================================
+    @Override
+    public FetchedTenant createTenant(String username, String rawPassword) {
+        FetchedTenant tenant = delegate.createTenant(username, rawPassword);
+        existenceFilter.addUsername(tenant.username());
+        if (enabled) {
+            cache(tenant);
+        }
+        return tenant;
+    }
+
+    @Override
+    public FetchedTenantIdentity addIdentityForTenant(String tenantId, IdentityType identityType, String identity) {
+        FetchedTenantIdentity tenantIdentity = delegate.addIdentityForTenant(tenantId, identityType, identity);
+        existenceFilter.addIdentity(identityType, identity);
+        if (enabled) {
+            tenantIdsByIdentity.put(identityKey(identityType, identity), tenantId);
+        }
+        return tenantIdentity;
+    }
+
+    private void cache(FetchedTenant tenant) {
+        tenantsById.put(tenant.id(), tenant);
+        tenantIdsByUsername.put(tenant.username(), tenant.id());
+    }
+
+    private static String identityKey(IdentityType identityType, String identity) {
+        return identityType.name() + ':' + identity;
+    }
+
+    // ===========================================================
+    // Not cached
+    // ===========================================================
+    @Override
+    public boolean validateTenantCredentials(String tenantId, String rawPassword) {
+        return delegate.validateTenantCredentials(tenantId, rawPassword);
+    }
+
+    @Override
+    public String createTenantRefreshToken(String tenantId, Map<String, Object> metadata) {
+        return delegate.createTenantRefreshToken(tenantId, metadata);
+    }
+
+    @Override
+    public TenantAndRefreshToken refreshToken(String refreshToken) {
+        return delegate.refreshToken(refreshToken);
+    }
+
+    @Override
+    public void revokeTenantRefreshToken(String refreshToken) {
+        delegate.revokeTenantRefreshToken(refreshToken);
+    }
+
+    @Override
+    public String generateAPIKeyForTenant(String tenantId) {
+        return delegate.generateAPIKeyForTenant(tenantId);
+    }
+
+    @Override
+    public void revokeAPIKeyForTenant(String tenantId, String apiKey) {
+        delegate.revokeAPIKeyForTenant(tenantId, apiKey);
+    }
+
+    @Override
+    public boolean isWellFormedApiKey(String apiKey) {
+        return delegate.isWellFormedApiKey(apiKey);
+    }
+
+    @Override
+    public FetchedTenant getTenantByApiKey(String apiKey) {
+        return delegate.getTenantByApiKey(apiKey);
+    }
+}
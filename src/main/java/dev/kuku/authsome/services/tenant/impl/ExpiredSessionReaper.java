@@ -0,0 +1,167 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import com.blazebit.persistence.CriteriaBuilderFactory;
+import dev.kuku.authsome.services.tenant.impl.entity.TenantEntity;
+import dev.kuku.authsome.services.tenant.impl.entity.TenantSessionEntity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.query.NativeQuery;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+
+/**
+ * Deletes expired rows from {@code tenant_sessions} in the background, so that neither logins nor refreshes pay for
+ * cleanup and sessions of tenants that never return do not pile up.
+ * <p>
+ * Every {@code authsome.tenant.session-reaper.interval} it takes expired sessions in {@code expires_at} order along
+ * {@code idx_tenant_sessions_expires}, {@code authsome.tenant.session-reaper.batch-size} rows at a time, each batch in
+ * its own short transaction that also gives the sessions' slots back to {@code tenants.active_sessions}. Rows are
+ * locked with {@code SKIP LOCKED}, so reapers on several instances split the work instead of queueing. The tenant rows
+ * of a batch are then locked in id order, so two reapers whose batches share tenants cannot deadlock. A run stops
+ * after {@code authsome.tenant.session-reaper.max-batches} batches and is throttled to
+ * {@code authsome.tenant.session-reaper.max-rows-per-second}, so a large backlog is worked off gradually instead of
+ * competing with logins for the database.
+ * <p>
+ * Not used with {@code authsome.tenant.session-storage=partitioned}, where {@link SessionPartitionManager} drops
+ * expired sessions a partition at a time.
+ */
+@Component
+@ConditionalOnProperty(name = "authsome.tenant.session-reaper.enabled", havingValue = "true", matchIfMissing = true)
+@ConditionalOnProperty(name = "authsome.tenant.session-storage", havingValue = "table", matchIfMissing = true)
+@Slf4j
+public class ExpiredSessionReaper {
+    private static final String SELECT_EXPIRED_SQL = """
+            SELECT id, fk_tenant_id FROM tenant_sessions WHERE expires_at < :now
+            ORDER BY expires_at LIMIT :limit FOR UPDATE SKIP LOCKED
+            """;
+
+    private final EntityManager entityManager;
+    private final CriteriaBuilderFactory cbf;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxBatches;
+    private final int maxRowsPerSecond;
+    private final Counter reaped;
+    private final Timer batchTimer;
+    private final Timer runTimer;
+
+    public ExpiredSessionReaper(EntityManager entityManager,
+                                CriteriaBuilderFactory cbf,
+                                TransactionTemplate transactionTemplate,
+                                @Value("${authsome.tenant.session-reaper.batch-size:500}") int batchSize,
+                                @Value("${authsome.tenant.session-reaper.max-batches:100}") int maxBatches,
+                                @Value("${authsome.tenant.session-reaper.max-rows-per-second:5000}") int maxRowsPerSecond,
+                                MeterRegistry meterRegistry) {
+        this.entityManager = entityManager;
+        this.cbf = cbf;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+        this.maxRowsPerSecond = maxRowsPerSecond;
+        this.reaped = Counter.builder("authsome.tenant.session-reaper.reaped").register(meterRegistry);
+        this.batchTimer = Timer.builder("authsome.tenant.session-reaper.batch").register(meterRegistry);
+        this.runTimer = Timer.builder("authsome.tenant.session-reaper.run").register(meterRegistry);
+        log.info("ExpiredSessionReaper initialized, batchSize: {}, maxBatches: {}, maxRowsPerSecond: {}", batchSize, maxBatches, maxRowsPerSecond);
+    }
+
+    /**
+     * Reaps sessions that expired before the start of the run.
+     *
+     * @return number of sessions deleted
+     */
+    @Scheduled(fixedDelayString = "${authsome.tenant.session-reaper.interval:PT1M}")
+    public int reapExpired() {
+        long start = System.nanoTime();
+        long now = NowUTCMilli();
+        int total = 0;
+        try {
+            for (int batch = 0; batch < maxBatches; batch++) {
+                long batchStart = System.nanoTime();
+                Integer deleted = transactionTemplate.execute(status -> reapBatch(now));
+                int count = deleted == null ? 0 : deleted;
+                batchTimer.record(System.nanoTime() - batchStart, TimeUnit.NANOSECONDS);
+                reaped.increment(count);
+                total += count;
+                if (count < batchSize) {
+                    break;
+                }
+                throttle(start, total);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        runTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (total > 0) {
+            log.debug("Reaped {} expired sessions", total);
+        }
+        return total;
+    }
+
+    private int reapBatch(long now) {
+        // Typed scalars, as the JDBC type of a UUID column differs between databases
+        @SuppressWarnings("unchecked")
+        List<Object[]> expired = entityManager.createNativeQuery(SELECT_EXPIRED_SQL)
+                .unwrap(NativeQuery.class)
+                .addScalar("id", UUID.class)
+                .addScalar("fk_tenant_id", UUID.class)
+                .setParameter("now", now)
+                .setParameter("limit", batchSize)
+                .getResultList();
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        List<UUID> sessionIds = new ArrayList<>(expired.size());
+        Map<UUID, Integer> perTenant = new HashMap<>();
+        for (Object[] row : expired) {
+            sessionIds.add((UUID) row[0]);
+            perTenant.merge((UUID) row[1], 1, Integer::sum);
+        }
+        int deleted = cbf.delete(entityManager, TenantSessionEntity.class)
+                .where("id").in(sessionIds)
+                .executeUpdate();
+        // Lock the tenants in one ordered statement; the updates below touch them in no particular order
+        entityManager.createQuery("select t.id from tenants t where t.id in :ids order by t.id", UUID.class)
+                .setParameter("ids", perTenant.keySet())
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+        // One counter update per distinct number of released slots; usually every tenant in a batch lost one session
+        Map<Integer, List<UUID>> tenantsByCount = new HashMap<>();
+        perTenant.forEach((tenantId, count) -> tenantsByCount.computeIfAbsent(count, c -> new ArrayList<>()).add(tenantId));
+        tenantsByCount.forEach((count, tenantIds) -> cbf.update(entityManager, TenantEntity.class)
+                .setExpression("activeSessions", "CASE WHEN activeSessions > :released THEN activeSessions - :released ELSE 0 END")
+                .setParameter("released", count)
+                .where("id").in(tenantIds)
+                .executeUpdate());
+        return deleted;
+    }
+
+    /**
+     * Sleeps long enough to keep the run at or below the configured rate.
+     */
+    private void throttle(long startNanos, int reapedSoFar) throws InterruptedException {
+        if (maxRowsPerSecond <= 0) {
+            return;
+        }
+        long earliestNanos = TimeUnit.SECONDS.toNanos(reapedSoFar) / maxRowsPerSecond;
+        long aheadNanos = earliestNanos - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+import java.util.function.IntFunction;
+
+/**
+ * Builds the password encoder for each supported algorithm, optionally raising its work factor to fill a per-hash
+ * latency budget on the current hardware.
+ * <p>
+ * Work factors never drop below the Spring Security defaults, so a slow machine or a tiny budget keeps the default
+ * strength rather than weakening it. Calibration hashes a fixed password a few times per candidate factor and takes
+ * the fastest run, which keeps it to about a second at startup.
+ */
+@Slf4j
+final class PasswordEncoderCalibrator {
+    static final String BCRYPT = "bcrypt";
+    static final String PBKDF2 = "pbkdf2";
+    static final String ARGON2 = "argon2";
+
+    private static final String SAMPLE_PASSWORD = "calibration-Pa55word";
+    private static final int MIN_BCRYPT_STRENGTH = 10;
+    private static final int MAX_BCRYPT_STRENGTH = 16;
+    private static final int MIN_PBKDF2_ITERATIONS = 310_000;
+    private static final int PBKDF2_PROBE_ITERATIONS = 50_000;
+    private static final int ARGON2_MEMORY_KIB = 19_456;
+    private static final int MIN_ARGON2_ITERATIONS = 2;
+    private static final int MAX_ARGON2_ITERATIONS = 10;
+
+    private PasswordEncoderCalibrator() {
+    }
+
+    /**
+     * @param algorithm    one of {@link #BCRYPT}, {@link #PBKDF2} or {@link #ARGON2}
+     * @param budgetMillis latency budget for one hash, 0 or less to use the default work factor
+     * @return the encoder for the algorithm
+     */
+    static PasswordEncoder create(String algorithm, long budgetMillis) {
+        return switch (algorithm) {
+            case BCRYPT -> bcrypt(budgetMillis);
+            case PBKDF2 -> pbkdf2(budgetMillis);
+            case ARGON2 -> argon2(budgetMillis);
+            default -> throw new IllegalArgumentException("Unsupported password hashing algorithm: " + algorithm);
+        };
+    }
+
+    private static PasswordEncoder bcrypt(long budgetMillis) {
+        int strength = highestWithinBudget(MIN_BCRYPT_STRENGTH, MAX_BCRYPT_STRENGTH, budgetMillis, BCryptPasswordEncoder::new);
+        log.info("bcrypt strength: {}", strength);
+        return new BCryptPasswordEncoder(strength);
+    }
+
+    private static PasswordEncoder argon2(long budgetMillis) {
+        int iterations = highestWithinBudget(MIN_ARGON2_ITERATIONS, MAX_ARGON2_ITERATIONS, budgetMillis, PasswordEncoderCalibrator::argon2Encoder);
+        log.info("argon2id memory: {} KiB, iterations: {}", ARGON2_MEMORY_KIB, iterations);
+        return argon2Encoder(iterations);
+    }
+
+    private static PasswordEncoder pbkdf2(long budgetMillis) {
+        int iterations = MIN_PBKDF2_ITERATIONS;
+        if (budgetMillis > 0) {
+            // Cost is linear in the iteration count, so one probe is enough to extrapolate
+            long probeMillis = Math.max(1, fastestMillis(pbkdf2Encoder(PBKDF2_PROBE_ITERATIONS)));
+            long fitting = PBKDF2_PROBE_ITERATIONS * budgetMillis / probeMillis;
+            iterations = (int) Math.max(MIN_PBKDF2_ITERATIONS, Math.min(Integer.MAX_VALUE, fitting / 10_000 * 10_000));
+        }
+        log.info("PBKDF2-HMAC-SHA256 iterations: {}", iterations);
+        return pbkdf2Encoder(iterations);
+    }
+
+    private static Argon2PasswordEncoder argon2Encoder(int iterations) {
+        return new Argon2PasswordEncoder(16, 32, 1, ARGON2_MEMORY_KIB, iterations);
+    }
+
+    private static Pbkdf2PasswordEncoder pbkdf2Encoder(int iterations) {
+        return new Pbkdf2PasswordEncoder("", 16, iterations, Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA256);
+    }
+
+    /**
+     * Walks the work factor up from {@code min} while a hash still fits the budget.
+     */
+    private static int highestWithinBudget(int min, int max, long budgetMillis, IntFunction<PasswordEncoder> encoder) {
+        if (budgetMillis <= 0) {
+            return min;
+        }
+        int chosen = min;
+        for (int factor = min; factor <= max; factor++) {
+            if (fastestMillis(encoder.apply(factor)) > budgetMillis) {
+                break;
+            }
+            chosen = factor;
+        }
+        return chosen;
+    }
+
+    private static long fastestMillis(PasswordEncoder encoder) {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            encoder.encode(SAMPLE_PASSWORD);
+            fastest = Math.min(fastest, (System.nanoTime() - start) / 1_000_000);
+        }
+        return fastest;
+    }
+}
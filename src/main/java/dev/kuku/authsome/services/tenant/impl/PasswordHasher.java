@@ -0,0 +1,145 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs password hashing on a dedicated, bounded thread pool so that a burst of sign-ins cannot take every core away
+ * from the rest of the API.
+ * <p>
+ * New hashes are written with {@code authsome.password-hashing.algorithm} ({@code bcrypt}, {@code pbkdf2} or
+ * {@code argon2}) and prefixed with its id, e.g. {@code {argon2}$argon2id$...}. Hashes of any supported algorithm
+ * can be verified; unprefixed hashes are treated as bcrypt, the format written before ids were introduced. At
+ * startup the work factor of the selected algorithm is raised to fit {@code authsome.password-hashing.budget-ms} per
+ * hash on this machine. {@link #needsRehash} tells whether a stored hash uses another algorithm or a lower work
+ * factor, so it can be upgraded once the password is known.
+ * <p>
+ * The pool has {@code authsome.password-hashing.threads} threads (half the cores by default) and a queue of
+ * {@code authsome.password-hashing.queue-capacity}. When the queue is full the call fails immediately with a
+ * {@link RejectedExecutionException} instead of waiting; callers map it to 503. Queue depth and pool usage are
+ * published as {@code executor.*} meters named {@code authsome.password-hashing}; rejections, time spent queued and
+ * time spent hashing under {@code authsome.password-hashing.*}.
+ */
+@Component
+@Slf4j
+public class PasswordHasher {
+
+    private final DelegatingPasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final Counter rejected;
+    private final Timer queueWait;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+
+    public PasswordHasher(@Value("${authsome.password-hashing.algorithm:bcrypt}") String algorithm,
+                          @Value("${authsome.password-hashing.budget-ms:100}") long budgetMillis,
+                          @Value("${authsome.password-hashing.threads:0}") int threads,
+                          @Value("${authsome.password-hashing.queue-capacity:64}") int queueCapacity,
+                          MeterRegistry meterRegistry) {
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        for (String id : List.of(PasswordEncoderCalibrator.BCRYPT, PasswordEncoderCalibrator.PBKDF2, PasswordEncoderCalibrator.ARGON2)) {
+            encoders.put(id, PasswordEncoderCalibrator.create(id, id.equals(algorithm) ? budgetMillis : 0));
+        }
+        if (!encoders.containsKey(algorithm)) {
+            throw new IllegalArgumentException("Unsupported password hashing algorithm: " + algorithm);
+        }
+        this.passwordEncoder = new DelegatingPasswordEncoder(algorithm, encoders);
+        this.passwordEncoder.setDefaultPasswordEncoderForMatches(encoders.get(PasswordEncoderCalibrator.BCRYPT));
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        ExecutorServiceMetrics.monitor(meterRegistry, executor, "authsome.password-hashing", List.of());
+        this.rejected = Counter.builder("authsome.password-hashing.rejected").register(meterRegistry);
+        this.queueWait = Timer.builder("authsome.password-hashing.queue-wait").register(meterRegistry);
+        this.encodeTimer = Timer.builder("authsome.password-hashing.duration").tag("operation", "encode").register(meterRegistry);
+        this.matchesTimer = Timer.builder("authsome.password-hashing.duration").tag("operation", "matches").register(meterRegistry);
+        log.info("PasswordHasher initialized, algorithm: {}, budgetMillis: {}, threads: {}, queueCapacity: {}", algorithm, budgetMillis, poolSize, queueCapacity);
+    }
+
+    /**
+     * Hashes a password.
+     *
+     * @param rawPassword the password
+     * @return the encoded hash
+     * @throws RejectedExecutionException if the hashing queue is full
+     */
+    public String encode(String rawPassword) {
+        return run(encodeTimer, () -> passwordEncoder.encode(rawPassword));
+    }
+
+    /**
+     * Checks a password against a stored hash.
+     *
+     * @param rawPassword  the password
+     * @param passwordHash the stored hash
+     * @return true if the password matches
+     * @throws RejectedExecutionException if the hashing queue is full
+     */
+    public boolean matches(String rawPassword, String passwordHash) {
+        return run(matchesTimer, () -> passwordEncoder.matches(rawPassword, passwordHash));
+    }
+
+    /**
+     * Checks whether a stored hash should be replaced, because it uses another algorithm or a lower work factor than
+     * new hashes. Does not hash, so it runs on the calling thread.
+     *
+     * @param passwordHash the stored hash
+     * @return true if the hash should be re-encoded
+     */
+    public boolean needsRehash(String passwordHash) {
+        return passwordEncoder.upgradeEncoding(passwordHash);
+    }
+
+    private <T> T run(Timer timer, Supplier<T> hashing) {
+        long submittedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                queueWait.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                return timer.record(hashing);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+}
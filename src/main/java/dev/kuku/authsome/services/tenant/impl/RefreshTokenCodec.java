@@ -0,0 +1,95 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Generates, formats and parses refresh tokens.
+ * <p>
+ * A token looks like {@code <session id>.<rotation>.<secret>}: the id of its {@code tenant_sessions} row, the number
+ * of times the session has been rotated, and 32 random bytes in unpadded base64url. Only a SHA-256 of the secret is
+ * stored; the secret has full entropy, so a plain hash is enough to keep tokens unrecoverable from the database.
+ */
+@Component
+public class RefreshTokenCodec {
+    static final int SECRET_BYTES = 32;
+    private static final int SECRET_LENGTH = 43;
+
+    /**
+     * A new secret and the hash to store for it.
+     */
+    public record GeneratedSecret(String secret, String secretHash) {
+    }
+
+    /**
+     * A well-formed token split into its parts.
+     *
+     * @param sessionId  id of the session
+     * @param rotation   rotation the token was issued for
+     * @param secretHash hash of the token's secret, to compare with the stored one
+     */
+    public record ParsedRefreshToken(UUID sessionId, long rotation, String secretHash) {
+    }
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @return a new random secret
+     */
+    public GeneratedSecret newSecret() {
+        byte[] bytes = new byte[SECRET_BYTES];
+        random.nextBytes(bytes);
+        String secret = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        return new GeneratedSecret(secret, hash(secret));
+    }
+
+    /**
+     * @return the token handed to the client for a session at the given rotation
+     */
+    public String format(UUID sessionId, long rotation, String secret) {
+        return sessionId + "." + rotation + "." + secret;
+    }
+
+    /**
+     * Splits a token without any I/O.
+     *
+     * @param refreshToken the token as presented by a client
+     * @return the parts of the token, or null if it is malformed
+     */
+    public ParsedRefreshToken parse(String refreshToken) {
+        if (refreshToken == null) {
+            return null;
+        }
+        int first = refreshToken.indexOf('.');
+        int second = refreshToken.indexOf('.', first + 1);
+        if (first < 0 || second < 0 || refreshToken.length() - second - 1 != SECRET_LENGTH) {
+            return null;
+        }
+        try {
+            UUID sessionId = UUID.fromString(refreshToken.substring(0, first));
+            long rotation = Long.parseLong(refreshToken, first + 1, second, 10);
+            String secret = refreshToken.substring(second + 1);
+            if (rotation < 0 || Base64.getUrlDecoder().decode(secret).length != SECRET_BYTES) {
+                return null;
+            }
+            return new ParsedRefreshToken(sessionId, rotation, hash(secret));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String hash(String secret) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(secret.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
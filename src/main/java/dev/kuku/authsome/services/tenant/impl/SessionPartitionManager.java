@@ -0,0 +1,311 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+
+/**
+ * Keeps {@code tenant_sessions} range-partitioned on {@code expires_at} (PostgreSQL only), so that expired sessions
+ * are removed by dropping whole partitions instead of deleting rows; this is the storage used when
+ * {@code authsome.tenant.session-storage=partitioned}, and replaces {@link ExpiredSessionReaper}.
+ * <p>
+ * At startup a plain {@code tenant_sessions}, e.g. as created by Hibernate, is turned into a partitioned table of the
+ * same columns; its rows are kept as one partition covering everything up to its latest expiry. Partitions span
+ * {@code authsome.tenant.session-partitions.interval} of expiry times each and are created
+ * {@code authsome.tenant.session-partitions.create-ahead} in advance, which has to exceed the session lifetime, as
+ * every new or rotated session expires that far in the future. Once all of a partition's sessions have expired it is
+ * detached, the sessions it held are given back to {@code tenants.active_sessions}, and it is dropped.
+ * <p>
+ * Entities and queries see {@code tenant_sessions} as before: the primary key becomes {@code (id, expires_at)}, as
+ * PostgreSQL requires for partitioned tables, and updating {@code expires_at} on rotation moves the row to its new
+ * partition. Expired sessions that still sit in a live partition are ignored by the {@code expires_at} checks as they
+ * always were.
+ * <p>
+ * This has a cost on every lookup by session id: the refresh token does not carry the expiry, so refreshing, revoking
+ * and loading a session cannot be pruned to one partition, and {@code expires_at > now} rules out none of the partitions
+ * ahead. Each such statement probes the primary key index of every partition, about 38 with the defaults
+ * ({@code create-ahead} divided by {@code interval}, plus the current one). The probes are cheap, as each index is
+ * small, but their number grows with {@code create-ahead / interval}; a longer interval trades fewer probes for
+ * coarser, later drops.
+ */
+@Component
+@ConditionalOnProperty(name = "authsome.tenant.session-storage", havingValue = "partitioned")
+@Slf4j
+public class SessionPartitionManager {
+    static final String TABLE = "tenant_sessions";
+    private static final String PARTITION_PREFIX = TABLE + "_p";
+    private static final String LEGACY_PARTITION = TABLE + "_legacy";
+    private static final String DETACHED_PREFIX = TABLE + "_detached_";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd'_'HHmm").withZone(ZoneOffset.UTC);
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('?(-?\\d+)'?\\)");
+
+    private static final String SELECT_PARTITIONED_SQL = """
+            SELECT c.relkind = 'p' FROM pg_class c WHERE c.oid = to_regclass('tenant_sessions')
+            """;
+    private static final String SELECT_PARTITIONS_SQL = """
+            SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass('tenant_sessions')
+            """;
+    private static final String SELECT_PRIMARY_KEY_SQL = """
+            SELECT conname FROM pg_constraint WHERE conrelid = to_regclass('tenant_sessions_legacy') AND contype = 'p'
+            """;
+    private static final String SELECT_DETACHED_SQL = """
+            SELECT tablename FROM pg_tables WHERE schemaname = current_schema() AND tablename LIKE 'tenant\\_sessions\\_detached\\_%'
+            """;
+    private static final String RELEASE_SLOTS_SQL = """
+            UPDATE tenants t SET active_sessions = CASE WHEN t.active_sessions > c.n THEN t.active_sessions - c.n ELSE 0 END
+            FROM (SELECT fk_tenant_id, count(*) AS n FROM %s GROUP BY fk_tenant_id) c WHERE t.id = c.fk_tenant_id
+            """;
+
+    record Partition(String name, long upperBound) {
+    }
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final long intervalMillis;
+    private final long createAheadMillis;
+    private final long lockTimeoutMillis;
+    private final AtomicInteger partitionCount = new AtomicInteger();
+    private final Counter droppedPartitions;
+    private final Counter droppedSessions;
+
+    public SessionPartitionManager(EntityManager entityManager,
+                                   TransactionTemplate transactionTemplate,
+                                   @Value("${authsome.tenant.session-partitions.interval:P1D}") Duration interval,
+                                   @Value("${authsome.tenant.session-partitions.create-ahead:P37D}") Duration createAhead,
+                                   @Value("${authsome.tenant.session-partitions.lock-timeout:PT2S}") Duration lockTimeout,
+                                   MeterRegistry meterRegistry) {
+        if (interval.toMinutes() < 1) {
+            throw new IllegalArgumentException("authsome.tenant.session-partitions.interval must be at least one minute");
+        }
+        if (createAhead.toMillis() <= TenantServiceImpl.SESSION_TTL_MILLIS) {
+            throw new IllegalArgumentException("authsome.tenant.session-partitions.create-ahead must exceed the session lifetime of "
+                    + Duration.ofMillis(TenantServiceImpl.SESSION_TTL_MILLIS));
+        }
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.intervalMillis = interval.toMillis();
+        this.createAheadMillis = createAhead.toMillis();
+        this.lockTimeoutMillis = lockTimeout.toMillis();
+        Gauge.builder("authsome.tenant.session-partitions.partitions", partitionCount, AtomicInteger::get).register(meterRegistry);
+        this.droppedPartitions = Counter.builder("authsome.tenant.session-partitions.dropped").register(meterRegistry);
+        this.droppedSessions = Counter.builder("authsome.tenant.session-partitions.dropped-sessions").register(meterRegistry);
+        log.info("SessionPartitionManager initialized, interval: {}, createAhead: {}, lockTimeout: {}", interval, createAhead, lockTimeout);
+    }
+
+    /**
+     * Makes sure {@code tenant_sessions} is partitioned and has partitions ahead before the first session is written.
+     */
+    @PostConstruct
+    void init() {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!(entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                    .getJdbcServices().getDialect() instanceof PostgreSQLDialect)) {
+                throw new IllegalStateException("authsome.tenant.session-storage=partitioned requires PostgreSQL");
+            }
+            List<?> rows = entityManager.createNativeQuery(SELECT_PARTITIONED_SQL).getResultList();
+            Object partitioned = rows.isEmpty() ? null : rows.get(0);
+            if (partitioned == null) {
+                throw new IllegalStateException(TABLE + " does not exist");
+            }
+            if (!Boolean.TRUE.equals(partitioned)) {
+                convertToPartitioned();
+            }
+        });
+        maintain();
+    }
+
+    /**
+     * Creates the partitions that are due and drops the ones whose sessions have all expired.
+     */
+    @Scheduled(fixedDelayString = "${authsome.tenant.session-partitions.check-interval:PT1H}",
+            initialDelayString = "${authsome.tenant.session-partitions.check-interval:PT1H}")
+    public void maintain() {
+        long now = NowUTCMilli();
+        dropDetached();
+        createAhead(now);
+        detachExpired(now);
+        dropDetached();
+        partitionCount.set(partitions().size());
+    }
+
+    /**
+     * Replaces the plain table by a partitioned one with the same columns and attaches the old table as its first
+     * partition, so no session is lost or copied.
+     */
+    private void convertToPartitioned() {
+        execute("LOCK TABLE " + TABLE + " IN ACCESS EXCLUSIVE MODE");
+        Number latestExpiry = (Number) entityManager.createNativeQuery("SELECT max(expires_at) FROM " + TABLE).getSingleResult();
+        execute("ALTER TABLE " + TABLE + " RENAME TO " + LEGACY_PARTITION);
+        execute("ALTER INDEX IF EXISTS idx_tenant_sessions_expires RENAME TO idx_tenant_sessions_legacy_expires");
+        execute("ALTER INDEX IF EXISTS idx_tenant_sessions_fk_tenant_id RENAME TO idx_tenant_sessions_legacy_fk_tenant_id");
+        execute("CREATE TABLE " + TABLE + " (LIKE " + LEGACY_PARTITION + " INCLUDING DEFAULTS) PARTITION BY RANGE (expires_at)");
+        execute("ALTER TABLE " + TABLE + " ADD CONSTRAINT pk_tenant_sessions PRIMARY KEY (id, expires_at)");
+        execute("ALTER TABLE " + TABLE + " ADD CONSTRAINT fk_tenant_sessions_tenant FOREIGN KEY (fk_tenant_id) REFERENCES tenants (id)");
+        execute("CREATE INDEX idx_tenant_sessions_expires ON " + TABLE + " (expires_at)");
+        execute("CREATE INDEX idx_tenant_sessions_fk_tenant_id ON " + TABLE + " (fk_tenant_id)");
+        if (latestExpiry == null) {
+            execute("DROP TABLE " + LEGACY_PARTITION);
+        } else {
+            // The partition gets the primary key of the partitioned table instead of its own one on id alone
+            String primaryKey = (String) entityManager.createNativeQuery(SELECT_PRIMARY_KEY_SQL).getSingleResult();
+            execute("ALTER TABLE " + LEGACY_PARTITION + " DROP CONSTRAINT " + primaryKey);
+            long upperBound = alignDown(latestExpiry.longValue()) + intervalMillis;
+            execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + LEGACY_PARTITION + " FOR VALUES FROM (MINVALUE) TO (" + upperBound + ")");
+        }
+        log.info("Converted {} to a partitioned table, existing sessions kept in {}", TABLE,
+                latestExpiry == null ? "no partition" : LEGACY_PARTITION);
+    }
+
+    private void createAhead(long now) {
+        for (long lowerBound : dueLowerBounds(partitions(), now)) {
+            String name = PARTITION_PREFIX + PARTITION_SUFFIX.format(Instant.ofEpochMilli(lowerBound));
+            try {
+                // Creating a partition locks the whole table; give up rather than queue logins behind the lock
+                transactionTemplate.executeWithoutResult(status -> {
+                    setLockTimeout();
+                    execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + TABLE
+                            + " FOR VALUES FROM (" + lowerBound + ") TO (" + (lowerBound + intervalMillis) + ")");
+                });
+                log.debug("Created session partition {}", name);
+            } catch (RuntimeException e) {
+                log.warn("Could not create session partition {}, retrying on the next check: {}", name, e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Detaches partitions whose sessions have all expired. Detaching is kept apart from the slow part, counting and
+     * dropping, so the table is locked only for a moment and the counters are never updated while it is locked.
+     */
+    private void detachExpired(long now) {
+        for (Partition partition : expired(partitions(), now)) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    setLockTimeout();
+                    execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + partition.name());
+                    execute("ALTER TABLE " + partition.name() + " RENAME TO " + DETACHED_PREFIX + partition.name().substring(TABLE.length() + 1));
+                });
+            } catch (RuntimeException e) {
+                log.warn("Could not detach session partition {}, retrying on the next check: {}", partition.name(), e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives the sessions of detached partitions back to their tenants and drops the partitions, including ones left
+     * behind by an instance that stopped between detaching and dropping.
+     */
+    private void dropDetached() {
+        @SuppressWarnings("unchecked")
+        List<String> detached = entityManager.createNativeQuery(SELECT_DETACHED_SQL).getResultList();
+        for (String name : detached) {
+            try {
+                Integer released = transactionTemplate.execute(status -> {
+                    execute("LOCK TABLE " + name + " IN ACCESS EXCLUSIVE MODE");
+                    int sessions = ((Number) entityManager.createNativeQuery("SELECT count(*) FROM " + name).getSingleResult()).intValue();
+                    execute(RELEASE_SLOTS_SQL.formatted(name));
+                    execute("DROP TABLE " + name);
+                    return sessions;
+                });
+                droppedPartitions.increment();
+                droppedSessions.increment(released == null ? 0 : released);
+                log.info("Dropped session partition {} with {} expired sessions", name, released);
+            } catch (RuntimeException e) {
+                log.warn("Could not drop detached session partition {}, retrying on the next check: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the partitions of {@code tenant_sessions}, by upper bound
+     */
+    private List<Partition> partitions() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = entityManager.createNativeQuery(SELECT_PARTITIONS_SQL).getResultList();
+        List<Partition> partitions = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Long upperBound = upperBound((String) row[1]);
+            if (upperBound != null) {
+                partitions.add(new Partition((String) row[0], upperBound));
+            }
+        }
+        partitions.sort(Comparator.comparingLong(Partition::upperBound));
+        return partitions;
+    }
+
+    /**
+     * @param bound partition bound as printed by {@code pg_get_expr}, e.g. {@code FOR VALUES FROM ('0') TO ('86400000')}
+     * @return the exclusive upper bound, null if there is none, as for {@code TO (MAXVALUE)} or a default partition
+     */
+    static Long upperBound(String bound) {
+        Matcher matcher = UPPER_BOUND.matcher(bound);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : null;
+    }
+
+    /**
+     * @param partitions existing partitions, by upper bound
+     * @return lower bounds of the partitions to create, from the end of the existing ones, or the start of the current
+     * interval if they end before it, until {@code create-ahead} past {@code now} is covered
+     */
+    List<Long> dueLowerBounds(List<Partition> partitions, long now) {
+        long from = alignDown(now);
+        if (!partitions.isEmpty()) {
+            from = Math.max(from, partitions.get(partitions.size() - 1).upperBound());
+        }
+        List<Long> due = new ArrayList<>();
+        for (; from < now + createAheadMillis; from += intervalMillis) {
+            due.add(from);
+        }
+        return due;
+    }
+
+    /**
+     * @param partitions existing partitions, by upper bound
+     * @return the leading partitions whose sessions have all expired, up to the first one that may hold a live session
+     */
+    static List<Partition> expired(List<Partition> partitions, long now) {
+        int live = 0;
+        while (live < partitions.size() && partitions.get(live).upperBound() <= now) {
+            live++;
+        }
+        return partitions.subList(0, live);
+    }
+
+    long alignDown(long millis) {
+        return Math.floorDiv(millis, intervalMillis) * intervalMillis;
+    }
+
+    private void setLockTimeout() {
+        execute("SET LOCAL lock_timeout = " + lockTimeoutMillis);
+    }
+
+    private void execute(String sql) {
+        entityManager.createNativeQuery(sql).executeUpdate();
+    }
+}
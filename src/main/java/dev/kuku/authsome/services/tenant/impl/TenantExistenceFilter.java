@@ -0,0 +1,237 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import dev.kuku.authsome.services.tenant.api.dto.IdentityType;
+import dev.kuku.authsome.util.BloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+
+/**
+ * Bloom filters over all usernames and identities, used to answer "is this name free" without a database round trip.
+ * <p>
+ * The filters are built by a streaming scan of {@code tenants} and {@code tenant_identities} shortly after startup
+ * and rebuilt every {@code authsome.tenant-bloom.rebuild-interval}, or sooner once the expected false positive
+ * probability has drifted to twice {@code authsome.tenant-bloom.fpp}. Names created on this instance are added as
+ * soon as they are committed. Until the first build completes every name is reported as possibly present.
+ * <p>
+ * Names created by other instances are only picked up by the next rebuild, so a negative answer may be stale for up
+ * to one rebuild interval. Callers must therefore only use it where the database constraints catch a miss, such as
+ * the availability check at the start of signup. Lookup outcomes are counted under {@code authsome.tenant-bloom.lookups};
+ * the observed false positive rate is {@code false_positive / (false_positive + absent)}.
+ */
+@Component
+@Slf4j
+public class TenantExistenceFilter {
+    private static final int SCAN_FETCH_SIZE = 1000;
+
+    /**
+     * Outcome of a lookup, used to tag the lookup counter.
+     */
+    enum Outcome {
+        /**
+         * The filter ruled the name out, the database was not queried.
+         */
+        ABSENT,
+        /**
+         * The filter and the database agree that the name exists.
+         */
+        PRESENT,
+        /**
+         * The filter reported the name as possibly present but the database did not have it.
+         */
+        FALSE_POSITIVE,
+        /**
+         * The filter was disabled or not built yet.
+         */
+        BYPASSED
+    }
+
+    /**
+     * The usernames and identities filters of one build, swapped as a unit.
+     */
+    private record Filters(BloomFilter usernames, BloomFilter identities) {
+    }
+
+    private final EntityManager entityManager;
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long rebuildIntervalMillis;
+    private final Counter[][] lookups = new Counter[2][Outcome.values().length];
+
+    private volatile Filters current;
+    // Receives inserts while a rebuild is scanning, so names committed during the scan are not lost on swap
+    private volatile Filters building;
+    private volatile long lastBuiltAt;
+
+    public TenantExistenceFilter(EntityManager entityManager,
+                                 @Value("${authsome.tenant-bloom.enabled:true}") boolean enabled,
+                                 @Value("${authsome.tenant-bloom.expected-insertions:1000000}") long expectedInsertions,
+                                 @Value("${authsome.tenant-bloom.fpp:0.01}") double fpp,
+                                 @Value("${authsome.tenant-bloom.rebuild-interval:PT6H}") Duration rebuildInterval,
+                                 MeterRegistry meterRegistry) {
+        this.entityManager = entityManager;
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.rebuildIntervalMillis = rebuildInterval.toMillis();
+        String[] filterNames = {"username", "identity"};
+        for (int f = 0; f < filterNames.length; f++) {
+            for (Outcome outcome : Outcome.values()) {
+                lookups[f][outcome.ordinal()] = Counter.builder("authsome.tenant-bloom.lookups")
+                        .tag("filter", filterNames[f])
+                        .tag("result", outcome.name().toLowerCase())
+                        .register(meterRegistry);
+            }
+        }
+        Gauge.builder("authsome.tenant-bloom.expected-fpp", this, filter -> filter.expectedFpp(true))
+                .tag("filter", "username")
+                .register(meterRegistry);
+        Gauge.builder("authsome.tenant-bloom.expected-fpp", this, filter -> filter.expectedFpp(false))
+                .tag("filter", "identity")
+                .register(meterRegistry);
+        log.info("TenantExistenceFilter initialized, enabled: {}, expectedInsertions: {}, fpp: {}, rebuildInterval: {}", enabled, expectedInsertions, fpp, rebuildInterval);
+    }
+
+    /**
+     * @param username the username to check
+     * @return false if no tenant has the username, true if one might
+     */
+    public boolean mightContainUsername(String username) {
+        Filters filters = current;
+        return filters == null || filters.usernames().mightContain(username);
+    }
+
+    /**
+     * @param identityType type of the identity
+     * @param identity     the identity value
+     * @return false if no tenant has the identity, true if one might
+     */
+    public boolean mightContainIdentity(IdentityType identityType, String identity) {
+        Filters filters = current;
+        return filters == null || filters.identities().mightContain(identityKey(identityType, identity));
+    }
+
+    /**
+     * @return true once the filters have been built and negative answers are meaningful
+     */
+    public boolean isReady() {
+        return current != null;
+    }
+
+    /**
+     * Records a committed username.
+     *
+     * @param username the username of the new tenant
+     */
+    public void addUsername(String username) {
+        // building before current: a rebuild that ends in between has put these filters in current, and one that
+        // starts after the read scans a snapshot that already holds the name
+        Filters filters = building;
+        if (filters != null) filters.usernames().put(username);
+        filters = current;
+        if (filters != null) filters.usernames().put(username);
+    }
+
+    /**
+     * Records a committed identity.
+     *
+     * @param identityType type of the identity
+     * @param identity     the identity value
+     */
+    public void addIdentity(IdentityType identityType, String identity) {
+        String key = identityKey(identityType, identity);
+        // Same order as addUsername
+        Filters filters = building;
+        if (filters != null) filters.identities().put(key);
+        filters = current;
+        if (filters != null) filters.identities().put(key);
+    }
+
+    void recordUsernameLookup(Outcome outcome) {
+        lookups[0][outcome.ordinal()].increment();
+    }
+
+    void recordIdentityLookup(Outcome outcome) {
+        lookups[1][outcome.ordinal()].increment();
+    }
+
+    /**
+     * Builds the filters on the first run and rebuilds them when they are due or saturated. Runs once a minute.
+     */
+    @Scheduled(fixedDelayString = "${authsome.tenant-bloom.check-interval:PT1M}")
+    @Transactional
+    public void rebuildIfDue() {
+        if (!enabled) {
+            return;
+        }
+        Filters filters = current;
+        boolean due = filters == null
+                || NowUTCMilli() - lastBuiltAt >= rebuildIntervalMillis
+                || filters.usernames().expectedFpp() > fpp * 2
+                || filters.identities().expectedFpp() > fpp * 2;
+        if (due) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        long usernameCount = count("select count(t) from tenants t");
+        long identityCount = count("select count(ti) from tenant_identities ti");
+        // Leave room for growth until the next rebuild
+        Filters next = new Filters(
+                BloomFilter.create(Math.max(expectedInsertions, usernameCount * 2), fpp),
+                BloomFilter.create(Math.max(expectedInsertions, identityCount * 2), fpp));
+        building = next;
+        try {
+            try (Stream<String> usernames = entityManager.createQuery("select t.username from tenants t", String.class)
+                    .setHint(HibernateHints.HINT_FETCH_SIZE, SCAN_FETCH_SIZE)
+                    .setHint(HibernateHints.HINT_READ_ONLY, true)
+                    .getResultStream()) {
+                usernames.forEach(next.usernames()::put);
+            }
+            try (Stream<Object[]> identities = entityManager.createQuery("select ti.identityType, ti.identity from tenant_identities ti", Object[].class)
+                    .setHint(HibernateHints.HINT_FETCH_SIZE, SCAN_FETCH_SIZE)
+                    .setHint(HibernateHints.HINT_READ_ONLY, true)
+                    .getResultStream()) {
+                identities.forEach(row -> next.identities().put(identityKey((IdentityType) row[0], (String) row[1])));
+            }
+            current = next;
+            lastBuiltAt = NowUTCMilli();
+        } finally {
+            building = null;
+        }
+        log.info("Tenant existence filters rebuilt, usernames: {}, identities: {}, bits: {}/{}, took {} ms",
+                usernameCount, identityCount, next.usernames().bitSize(), next.identities().bitSize(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    private long count(String query) {
+        return entityManager.createQuery(query, Long.class).getSingleResult();
+    }
+
+    private double expectedFpp(boolean usernames) {
+        Filters filters = current;
+        if (filters == null) {
+            return Double.NaN;
+        }
+        return (usernames ? filters.usernames() : filters.identities()).expectedFpp();
+    }
+
+    private static String identityKey(IdentityType identityType, String identity) {
+        return identityType.name() + ':' + identity;
+    }
+}
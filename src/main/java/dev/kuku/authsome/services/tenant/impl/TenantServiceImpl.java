@@ -16,11 +16,12 @@ import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 import static dev.kuku.authsome.util.Util.NowUTCMilli;
 
@@ -31,7 +32,12 @@ public class TenantServiceImpl implements TenantService {
 
     private final EntityManager entityManager;
     private final CriteriaBuilderFactory cbf;
-    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    private final ApiKeyCodec apiKeyCodec;
+    private final RefreshTokenCodec refreshTokenCodec;
+    private final PasswordHasher passwordHasher;
+    private final TransactionTemplate transactionTemplate;
+
+    static final long SESSION_TTL_MILLIS = 30L * 24 * 60 * 60 * 1000; // 30 days
 
     @Value("${authsome.tenant.max-simultaneous-sessions:5}")
     int maxSimultaneousSessions;
@@ -64,6 +70,16 @@ public class TenantServiceImpl implements TenantService {
         return convert(tenant);
     }
 
+    @Override
+    public boolean isIdentityTaken(IdentityType identityType, String identity) {
+        return getTenantByIdentity(identityType, identity) != null;
+    }
+
+    @Override
+    public boolean isUsernameTaken(String username) {
+        return getTenantByUsername(username) != null;
+    }
+
     // ===========================================================
     // Tenant Creation
     // ===========================================================
@@ -73,14 +89,11 @@ public class TenantServiceImpl implements TenantService {
         log.debug("createTenant({}, ****)", username);
 
         TenantEntity tenant = new TenantEntity();
-        // Ensure an ID is present even when EntityManager is mocked in tests (persist won't generate an id)
-        if (tenant.getId() == null) {
-            tenant.setId(UUID.randomUUID());
-        }
         tenant.setUsername(username);
-        tenant.setPasswordHash(passwordEncoder.encode(rawPassword));
+        tenant.setPasswordHash(passwordHasher.encode(rawPassword));
         tenant.setCreatedAt(NowUTCMilli());
         tenant.setUpdatedAt(NowUTCMilli());
+        tenant.setActiveSessions(0);
 
         entityManager.persist(tenant);
         entityManager.flush();
@@ -107,10 +120,6 @@ public class TenantServiceImpl implements TenantService {
         }
 
         TenantIdentityEntity tenantIdentity = new TenantIdentityEntity();
-        // Ensure an ID so convert(...) won't NPE in tests where persist is a noop
-        if (tenantIdentity.getId() == null) {
-            tenantIdentity.setId(UUID.randomUUID());
-        }
         tenantIdentity.setIdentity(identity);
         tenantIdentity.setIdentityType(identityType);
         tenantIdentity.setTenant(entityManager.getReference(TenantEntity.class, UUID.fromString(tenantId)));
@@ -130,7 +139,35 @@ public class TenantServiceImpl implements TenantService {
     public boolean validateTenantCredentials(String tenantId, String rawPassword) {
         log.debug("validateTenantCredentials({}, ****)", tenantId);
         TenantEntity tenant = entityManager.find(TenantEntity.class, UUID.fromString(tenantId));
-        return tenant != null && passwordEncoder.matches(rawPassword, tenant.getPasswordHash());
+        if (tenant == null || !passwordHasher.matches(rawPassword, tenant.getPasswordHash())) {
+            return false;
+        }
+        if (passwordHasher.needsRehash(tenant.getPasswordHash())) {
+            upgradePasswordHash(tenant, rawPassword);
+        }
+        return true;
+    }
+
+    /**
+     * Re-encodes a password whose stored hash is outdated. Best effort: the sign-in has already succeeded, so a full
+     * hashing queue or a concurrent password change only postpones the upgrade to a later sign-in.
+     */
+    private void upgradePasswordHash(TenantEntity tenant, String rawPassword) {
+        String newHash;
+        try {
+            newHash = passwordHasher.encode(rawPassword);
+        } catch (RejectedExecutionException e) {
+            log.debug("Password hash upgrade for tenant {} postponed, hashing queue full", tenant.getId());
+            return;
+        }
+        // Compare-and-set on the old hash so a password changed in the meantime is not overwritten
+        Integer updated = transactionTemplate.execute(status -> entityManager
+                .createQuery("update tenants t set t.passwordHash = :newHash where t.id = :id and t.passwordHash = :oldHash")
+                .setParameter("newHash", newHash)
+                .setParameter("id", tenant.getId())
+                .setParameter("oldHash", tenant.getPasswordHash())
+                .executeUpdate());
+        log.debug("Password hash upgraded for tenant {}: {}", tenant.getId(), updated != null && updated > 0);
     }
 
     // ===========================================================
@@ -145,123 +182,226 @@ public class TenantServiceImpl implements TenantService {
         UUID tenantUUID = UUID.fromString(tenantId);
         long now = NowUTCMilli();
 
-        // Delete expired sessions for this tenant
-        cbf.delete(entityManager, TenantSessionEntity.class)
-                .where("fk_tenant_id").eq(tenantUUID)
-                .where("expiresAt").lt(now)
-                .executeUpdate();
-
-        // Check active session count using the fluent chain to match test stubs
-        var cb = cbf.create(entityManager, Long.class);
-        Long sessionCount = cb.from(TenantSessionEntity.class, "s")
-                .where("s.fk_tenant_id").eq(tenantUUID)
-                .select("COUNT(s.id)")
-                .getSingleResult();
-        if (sessionCount != null && sessionCount >= maxSimultaneousSessions) {
-            throw new IllegalStateException("Max simultaneous sessions reached");
+        // Take a session slot: the conditional increment locks the tenant row, so concurrent logins are serialized
+        // on it and the limit holds exactly without counting sessions
+        if (!acquireSessionSlot(tenantUUID)) {
+            // Expired sessions keep their slot until ExpiredSessionReaper deletes them; at the limit, free this
+            // tenant's now instead of refusing the login until the next run
+            releaseSessionSlots(tenantUUID, cbf.delete(entityManager, TenantSessionEntity.class)
+                    .where("tenant.id").eq(tenantUUID)
+                    .where("expiresAt").lt(now)
+                    .executeUpdate());
+            if (!acquireSessionSlot(tenantUUID)) {
+                throw new IllegalStateException("Max simultaneous sessions reached");
+            }
         }
 
         // Create new session
+        RefreshTokenCodec.GeneratedSecret secret = refreshTokenCodec.newSecret();
         TenantSessionEntity session = new TenantSessionEntity();
-        // ensure id so tests that don't have a real persistence layer can still get a token
-        if (session.getId() == null) {
-            session.setId(UUID.randomUUID());
-        }
         session.setTenant(entityManager.getReference(TenantEntity.class, tenantUUID));
         session.setCreatedAt(now);
         session.setUpdatedAt(now);
-        session.setExpiresAt(now + 30L * 24 * 60 * 60 * 1000); // 30 days
+        session.setExpiresAt(now + SESSION_TTL_MILLIS);
+        session.setTokenHash(secret.secretHash());
+        session.setRotation(0L);
         session.setMetadata(metadata);
 
         entityManager.persist(session);
         entityManager.flush();
 
-        return session.getId().toString();
+        return refreshTokenCodec.format(session.getId(), 0, secret.secret());
     }
 
+    /**
+     * Rotates the session in place with a single conditional update: it only matches while the session is unexpired
+     * and still at the presented token's rotation and secret, so of two concurrent refreshes with the same token
+     * exactly one succeeds. The replaced token's hash is kept, and presenting that token again means it leaked or was
+     * replayed; the session is then revoked, logging out the legitimate holder as well. A token that matches neither
+     * hash proves nothing and changes nothing, so a forged one cannot revoke someone else's session.
+     */
     @Transactional
     @Override
     public TenantAndRefreshToken refreshToken(String refreshToken) {
-        //TODO might have race condition if multiple refreshes happen simultaneously. Another way is to have refresh token field and update that instead
-        log.debug("refreshToken({})", refreshToken);
-        UUID sessionId = UUID.fromString(refreshToken);
-        long now = NowUTCMilli();
-
-        TenantSessionEntity session = cbf.create(entityManager, TenantSessionEntity.class)
-                .where("id").eq(sessionId)
-                .getSingleResultOrNull();
-
-        if (session == null) {
-            log.error("refreshToken({}) not found", refreshToken);
+        log.debug("refreshToken(****)");
+        RefreshTokenCodec.ParsedRefreshToken parsed = refreshTokenCodec.parse(refreshToken);
+        if (parsed == null) {
+            log.debug("Malformed refresh token");
             return null;
         }
+        long now = NowUTCMilli();
+        long nextRotation = parsed.rotation() + 1;
+        RefreshTokenCodec.GeneratedSecret secret = refreshTokenCodec.newSecret();
+
+        int rotated = cbf.update(entityManager, TenantSessionEntity.class)
+                .set("tokenHash", secret.secretHash())
+                .set("previousTokenHash", parsed.secretHash())
+                .set("rotation", nextRotation)
+                .set("expiresAt", now + SESSION_TTL_MILLIS)
+                .set("updatedAt", now)
+                .where("id").eq(parsed.sessionId())
+                .where("rotation").eq(parsed.rotation())
+                .where("tokenHash").eq(parsed.secretHash())
+                .where("expiresAt").gt(now)
+                .executeUpdate();
 
-        if (session.getExpiresAt() <= now) {
-            log.info("refreshToken({}) expired, cleaning up", refreshToken);
-            cbf.delete(entityManager, TenantSessionEntity.class)
-                    .where("id").eq(sessionId)
-                    .executeUpdate();
+        if (rotated == 0) {
+            // The session id is the plaintext prefix of the token, so it is not logged
+            if (deleteSession(parsed, false) > 0) {
+                log.warn("Refresh token reuse detected, session revoked");
+            } else {
+                log.debug("Refresh token not found or expired");
+            }
             return null;
         }
 
-        // Delete the existing session
-        cbf.delete(entityManager, TenantSessionEntity.class)
-                .where("id").eq(sessionId)
-                .executeUpdate();
-
-        TenantEntity tenant = session.getTenant();
-        String newRt = createTenantRefreshToken(tenant.getId().toString(), session.getMetadata());
+        TenantEntity tenant = cbf.create(entityManager, TenantEntity.class)
+                .from(TenantSessionEntity.class, "s")
+                .select("s.tenant")
+                .where("s.id").eq(parsed.sessionId())
+                .getSingleResult();
 
-        return new TenantAndRefreshToken(convert(tenant), newRt);
+        return new TenantAndRefreshToken(convert(tenant), refreshTokenCodec.format(parsed.sessionId(), nextRotation, secret.secret()));
     }
 
     @Transactional
     @Override
     public void revokeTenantRefreshToken(String refreshToken) {
-        log.debug("revokeTenantRefreshToken({})", refreshToken);
-        int deleted = cbf.delete(entityManager, TenantSessionEntity.class)
-                .where("id").eq(UUID.fromString(refreshToken))
-                .executeUpdate();
+        log.debug("revokeTenantRefreshToken(****)");
+        RefreshTokenCodec.ParsedRefreshToken parsed = refreshTokenCodec.parse(refreshToken);
+        if (parsed == null) {
+            log.warn("Malformed refresh token to revoke");
+            return;
+        }
+        // The current token revokes its session, and so does the one it replaced, as rotation would have
+        int deleted = deleteSession(parsed, true);
 
         if (deleted == 0) {
-            log.warn("No session found to revoke for refreshToken({})", refreshToken);
+            log.warn("No session found to revoke for refresh token");
         }
     }
 
+    /**
+     * Deletes a session if the token is the one its current token replaced or, with {@code allowCurrent}, is its
+     * current token, and releases its slot. Either way the caller has proven it holds a secret issued for the session.
+     *
+     * @return number of sessions deleted, 0 or 1
+     */
+    private int deleteSession(RefreshTokenCodec.ParsedRefreshToken token, boolean allowCurrent) {
+        UUID sessionId = token.sessionId();
+        // The tenant of a session never changes, so reading it before the delete is safe
+        UUID tenantId = cbf.create(entityManager, UUID.class)
+                .from(TenantSessionEntity.class, "s")
+                .select("s.tenant.id")
+                .where("s.id").eq(sessionId)
+                .getSingleResultOrNull();
+        if (tenantId == null) {
+            return 0;
+        }
+        var delete = cbf.delete(entityManager, TenantSessionEntity.class).where("id").eq(sessionId);
+        int deleted = allowCurrent
+                ? delete.whereOr()
+                    .whereAnd()
+                        .where("rotation").eq(token.rotation())
+                        .where("tokenHash").eq(token.secretHash())
+                    .endAnd()
+                    .whereAnd()
+                        .where("rotation").eq(token.rotation() + 1)
+                        .where("previousTokenHash").eq(token.secretHash())
+                    .endAnd()
+                  .endOr()
+                  .executeUpdate()
+                : delete.where("rotation").eq(token.rotation() + 1)
+                    .where("previousTokenHash").eq(token.secretHash())
+                    .executeUpdate();
+        releaseSessionSlots(tenantId, deleted);
+        return deleted;
+    }
+
+    private boolean acquireSessionSlot(UUID tenantId) {
+        return cbf.update(entityManager, TenantEntity.class)
+                .setExpression("activeSessions", "activeSessions + 1")
+                .where("id").eq(tenantId)
+                .where("activeSessions").lt(maxSimultaneousSessions)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Gives back slots of deleted sessions. Must run in the transaction that deleted them, after the delete, so that
+     * locks are always taken session rows first and tenant row second.
+     */
+    private void releaseSessionSlots(UUID tenantId, int count) {
+        if (count <= 0) {
+            return;
+        }
+        // Clamped at zero for sessions that predate the counter
+        cbf.update(entityManager, TenantEntity.class)
+                .setExpression("activeSessions", "CASE WHEN activeSessions > :released THEN activeSessions - :released ELSE 0 END")
+                .setParameter("released", count)
+                .where("id").eq(tenantId)
+                .executeUpdate();
+    }
+
+    @Transactional
     @Override
     public String generateAPIKeyForTenant(String tenantId) {
         log.debug("generateAPIKeyForTenant({})", tenantId);
-        var user = new TenantEntity();
-        user.setId(UUID.fromString(tenantId));
-        var apiKey = new TenantApiEntity(null, user, null, null, null);
+        var user = entityManager.getReference(TenantEntity.class, UUID.fromString(tenantId));
+        long now = NowUTCMilli();
+        ApiKeyCodec.GeneratedApiKey generated = apiKeyCodec.generate();
+        var apiKey = new TenantApiEntity(null, user, generated.prefix(), generated.keyHash(), now, now);
         entityManager.persist(apiKey);
         entityManager.flush();
         log.debug("generated api = {}", apiKey);
-        return apiKey.key;
+        return generated.apiKey();
+    }
+
+    @Transactional
+    @Override
+    public void revokeAPIKeyForTenant(String tenantId, String apiKey) {
+        log.debug("revokeAPIKeyForTenant({})", tenantId);
+        ApiKeyCodec.ParsedApiKey parsed = apiKeyCodec.parse(apiKey);
+        if (parsed == null) {
+            log.warn("Malformed api key to revoke for tenant({})", tenantId);
+            return;
+        }
+        int deleted = cbf.delete(entityManager, TenantApiEntity.class)
+                .where("prefix").eq(parsed.prefix())
+                .where("tenant.id").eq(UUID.fromString(tenantId))
+                .executeUpdate();
+
+        if (deleted == 0) {
+            log.warn("No api key found to revoke for tenant({})", tenantId);
+        }
+    }
+
+    @Override
+    public boolean isWellFormedApiKey(String apiKey) {
+        return apiKeyCodec.parse(apiKey) != null;
     }
 
     @Override
     public FetchedTenant getTenantByApiKey(String apiKey) {
-        log.debug("getTenantByApiKey({})", apiKey);
-        var cb = cbf.create(entityManager, TenantApiEntity.class);
-        cb.where("key").eq(apiKey);
-        TenantApiEntity apiEntity = cb.getSingleResultOrNull();
-        if (apiEntity != null) {
-            return convert(apiEntity.tenant);
+        log.debug("getTenantByApiKey(****)");
+        ApiKeyCodec.ParsedApiKey parsed = apiKeyCodec.parse(apiKey);
+        if (parsed == null) {
+            return null;
         }
-        return null;
+        // Fetch the tenant in the same query instead of loading it lazily afterwards
+        TenantApiEntity apiEntity = cbf.create(entityManager, TenantApiEntity.class, "a")
+                .fetch("a.tenant")
+                .where("a.prefix").eq(parsed.prefix())
+                .getSingleResultOrNull();
+        if (apiEntity == null || !apiKeyCodec.matches(parsed, apiEntity.keyHash)) {
+            return null;
+        }
+        return convert(apiEntity.tenant);
     }
 
     @Override
     public FetchedTenant getTenantById(String tenantId) {
         log.debug("getTenantById({})", tenantId);
-        var cb = cbf.create(entityManager, TenantApiEntity.class);
-        cb.where("fk_tenant_id").eq(tenantId);
-        TenantApiEntity apiEntity = cb.getSingleResultOrNull();
-        if (apiEntity != null) {
-            return convert(apiEntity.tenant);
-        }
-        return null;
+        return convert(entityManager.find(TenantEntity.class, UUID.fromString(tenantId)));
     }
 
     // ===========================================================
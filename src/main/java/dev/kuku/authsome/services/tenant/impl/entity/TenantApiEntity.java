@@ -8,11 +8,11 @@ import lombok.ToString;
 @Entity(name = "tenant_apis")
 @Table(indexes = {
         @Index(columnList = "fk_tenant_id", name = "idx_tenant_api_tenant_id"),
-        @Index(columnList = "key", name = "idx_tenant_api_key")
+        @Index(columnList = "prefix", name = "idx_tenant_api_prefix", unique = true)
 })
 @AllArgsConstructor
 @NoArgsConstructor
-@ToString
+@ToString(exclude = "keyHash")
 public class TenantApiEntity {
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
@@ -20,9 +20,16 @@ public class TenantApiEntity {
     @JoinColumn(name = "fk_tenant_id", referencedColumnName = "id", nullable = false)
     @ManyToOne(fetch = FetchType.LAZY)
     public TenantEntity tenant;
-    @Column(nullable = false, unique = true)
-    @GeneratedValue(strategy = GenerationType.AUTO)
-    public String key;
+    /**
+     * Lookup prefix of the key, see ApiKeyCodec.
+     */
+    @Column(nullable = false, unique = true, length = 8)
+    public String prefix;
+    /**
+     * Keyed hash of the secret part of the key. The key itself is never stored.
+     */
+    @Column(nullable = false, name = "key_hash", length = 44)
+    public String keyHash;
     @Column(nullable = false, name = "created_at")
     public Long createdAt;
     @Column(nullable = false, name = "updated_at")
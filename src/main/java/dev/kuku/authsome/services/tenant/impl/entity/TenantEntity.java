@@ -29,6 +29,13 @@ public class TenantEntity {
     @Column(nullable = false, name = "updated_at")
     private Long updatedAt;
 
+    /**
+     * Number of rows in {@code tenant_sessions} for this tenant, including expired ones not deleted yet. Maintained in
+     * the same transaction as every session insert and delete.
+     */
+    @Column(nullable = false, name = "active_sessions")
+    private Integer activeSessions;
+
     @OneToMany(mappedBy = "tenant", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<TenantIdentityEntity> identities;
 }
\ No newline at end of file
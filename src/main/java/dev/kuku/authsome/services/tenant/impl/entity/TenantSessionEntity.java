@@ -24,6 +24,22 @@ public class TenantSessionEntity {
     private TenantEntity tenant;
     @Column(nullable = false, name = "expires_at")
     private Long expiresAt;
+    /**
+     * SHA-256 of the secret of the current refresh token; replaced on every rotation.
+     */
+    @Column(nullable = false, name = "token_hash")
+    private String tokenHash;
+    /**
+     * SHA-256 of the secret of the token this one replaced, null before the first rotation. Presenting that token again
+     * proves it is being reused rather than guessed.
+     */
+    @Column(name = "previous_token_hash")
+    private String previousTokenHash;
+    /**
+     * Number of times the refresh token has been rotated, checked on rotation so that a token can be used once.
+     */
+    @Column(nullable = false, name = "rotation")
+    private Long rotation;
     @JdbcTypeCode(SqlTypes.JSON)
     @Column(name = "metadata")
     private Map<String, Object> metadata;
@@ -0,0 +1,113 @@
+package dev.kuku.authsome.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over strings.
+ * <p>
+ * Answers "definitely not present" or "possibly present". Insertions and lookups are lock-free and never allocate.
+ * Bit positions come from two 64-bit hashes of the string combined by double hashing.
+ */
+public final class BloomFilter {
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong setBits = new AtomicLong();
+
+    private BloomFilter(long bitCount, int hashCount) {
+        long wordCount = (bitCount + 63) >>> 6;
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bitCount = wordCount << 6;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Creates a filter sized for the expected number of insertions and false positive probability.
+     *
+     * @param expectedInsertions number of values the filter is expected to hold
+     * @param fpp                desired false positive probability once it holds that many values, e.g. 0.01
+     * @return an empty filter
+     */
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions must be positive and fpp between 0 and 1");
+        }
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+        return new BloomFilter(bits, hashes);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value to add
+     */
+    public void put(String value) {
+        long h1 = hash(value, 0L);
+        long h2 = hash(value, 0x9E3779B97F4A7C15L) | 1L;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = words.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(word, current, current | mask));
+            if ((current & mask) == 0) {
+                setBits.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param value the value to look up
+     * @return false if the value was definitely never added, true if it might have been
+     */
+    public boolean mightContain(String value) {
+        long h1 = hash(value, 0L);
+        long h2 = hash(value, 0x9E3779B97F4A7C15L) | 1L;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the probability that {@link #mightContain} returns true for a value that was never added, given the
+     * bits set so far
+     */
+    public double expectedFpp() {
+        return Math.pow((double) setBits.get() / bitCount, hashCount);
+    }
+
+    /**
+     * @return the size of the filter in bits
+     */
+    public long bitSize() {
+        return bitCount;
+    }
+
+    private static long hash(String value, long seed) {
+        long h = 0xCBF29CE484222325L ^ seed;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        // SplitMix64 finaliser, FNV-1a alone distributes short strings poorly over the low bits
+        h ^= h >>> 30;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 27;
+        h *= 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
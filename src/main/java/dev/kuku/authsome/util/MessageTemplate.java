@@ -0,0 +1,115 @@
+package dev.kuku.authsome.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Text template with {@code {{name}}} placeholders, parsed once and then rendered by filling in values.
+ * <p>
+ * Compiling splits the source into literal segments and slot references, so rendering is a sequence of appends into
+ * a builder sized up front. Placeholder names are bound to argument positions at compile time:
+ * <pre>{@code
+ * MessageTemplate greeting = MessageTemplate.compile("Hello {{name}}, your code is {{code}}", "name", "code");
+ * greeting.render("Ann", "1234");
+ * }</pre>
+ * Instances are immutable and thread-safe.
+ */
+public final class MessageTemplate {
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private final String[] literals;
+    private final int[] slots;
+    private final int slotCount;
+    private final int literalLength;
+
+    private MessageTemplate(String[] literals, int[] slots, int slotCount) {
+        this.literals = literals;
+        this.slots = slots;
+        this.slotCount = slotCount;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param source template text
+     * @param names  placeholder names, in the order their values are passed to {@link #render}
+     * @return the compiled template
+     * @throws IllegalArgumentException if a placeholder is unterminated or not among {@code names}
+     */
+    public static MessageTemplate compile(String source, String... names) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int open = source.indexOf(OPEN, position);
+            if (open < 0) {
+                literals.add(source.substring(position));
+                break;
+            }
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("Unterminated placeholder at index " + open);
+            }
+            String name = source.substring(open + OPEN.length(), close).trim();
+            int slot = Arrays.asList(names).indexOf(name);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Unknown placeholder: " + name);
+            }
+            literals.add(source.substring(position, open));
+            slots.add(slot);
+            position = close + CLOSE.length();
+        }
+        return new MessageTemplate(literals.toArray(String[]::new), slots.stream().mapToInt(Integer::intValue).toArray(), names.length);
+    }
+
+    /**
+     * @param values placeholder values, in the order of the names given to {@link #compile}; {@code null} renders as
+     *               an empty string
+     * @return the rendered text
+     */
+    public String render(String... values) {
+        checkArity(values);
+        int length = literalLength;
+        for (int slot : slots) {
+            length += values[slot] == null ? 0 : values[slot].length();
+        }
+        StringBuilder out = new StringBuilder(length);
+        appendTo(out, values);
+        return out.toString();
+    }
+
+    /**
+     * Renders into an existing builder.
+     *
+     * @param out    builder to append to
+     * @param values placeholder values, as for {@link #render}
+     */
+    public void renderTo(StringBuilder out, String... values) {
+        checkArity(values);
+        appendTo(out, values);
+    }
+
+    private void appendTo(StringBuilder out, String[] values) {
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]);
+            String value = values[slots[i]];
+            if (value != null) {
+                out.append(value);
+            }
+        }
+        out.append(literals[slots.length]);
+    }
+
+    private void checkArity(String[] values) {
+        if (values.length != slotCount) {
+            throw new IllegalArgumentException("Expected " + slotCount + " values, got " + values.length);
+        }
+    }
+}
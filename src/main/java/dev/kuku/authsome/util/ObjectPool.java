@@ -0,0 +1,86 @@
+package dev.kuku.authsome.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A small lock-free pool of reusable, non thread-safe helpers such as a {@link java.security.MessageDigest} or a
+ * {@link javax.crypto.Mac}.
+ * <p>
+ * It replaces a {@link ThreadLocal} cache, which only pays off while a few long-lived threads do all the work: with a
+ * virtual thread per request every request would build its helper from scratch. Helpers sit in a fixed array of slots,
+ * a few per CPU; {@link #take()} empties the first occupied slot it finds, starting at one picked by the calling thread,
+ * and {@link #release} puts the helper back into the first free one. When every slot is empty a new helper is created,
+ * and when every slot is full a released helper is dropped, so the pool never blocks and never holds more than its
+ * slots.
+ *
+ * @param <T> type of the pooled helpers
+ */
+public final class ObjectPool<T> {
+    private static final int PROBES = 4;
+
+    private final Supplier<T> factory;
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+
+    /**
+     * @param factory creates a helper when the pool has none left
+     */
+    public ObjectPool(Supplier<T> factory) {
+        this(factory, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    ObjectPool(Supplier<T> factory, int slotCount) {
+        this.factory = factory;
+        this.slots = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1);
+        this.mask = slots.length() - 1;
+    }
+
+    /**
+     * @return a helper only the caller uses until it hands it back with {@link #release}
+     */
+    public T take() {
+        int start = start();
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            T pooled = slots.get(slot);
+            if (pooled != null && slots.compareAndSet(slot, pooled, null)) {
+                return pooled;
+            }
+        }
+        return factory.get();
+    }
+
+    /**
+     * Hands back a helper taken from this pool. The helper must be in a reusable state.
+     *
+     * @param helper the helper
+     */
+    public void release(T helper) {
+        int start = start();
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, helper)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of helpers waiting in the pool
+     */
+    int size() {
+        int size = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private int start() {
+        // Fixed for the life of a thread, so a long-lived thread keeps finding its own helper here
+        return System.identityHashCode(Thread.currentThread()) * 0x9E3779B9 >>> 16;
+    }
+}
@@ -0,0 +1,204 @@
+package dev.kuku.authsome.util;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe token bucket rate limiter with one bucket per key.
+ * <p>
+ * A bucket is a single {@code long}, the time at which it will be full again (the generic cell rate algorithm), so
+ * that taking a token is one compare-and-set and never allocates once the key is known. Keys are spread over
+ * stripes of {@link ConcurrentHashMap}, each holding at most its share of {@code maxKeys}; keys that arrive while
+ * their stripe is full share that stripe's overflow bucket, which keeps memory bounded when keys are chosen by an
+ * attacker. {@link #evictIdle()} removes full buckets, which carry no state that a new bucket would not.
+ */
+public final class RateLimiter {
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    private final int permits;
+    private final Duration period;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxKeysPerStripe;
+    private final Stripe[] stripes;
+
+    private static final class Stripe {
+        final ConcurrentHashMap<String, AtomicLong> buckets;
+        final AtomicLong overflow;
+
+        Stripe(int expectedKeys, long now) {
+            this.buckets = new ConcurrentHashMap<>(expectedKeys);
+            this.overflow = new AtomicLong(now);
+        }
+    }
+
+    private RateLimiter(int permits, Duration period, int maxKeys, int stripeCount) {
+        if (permits <= 0 || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("permits and period must be positive");
+        }
+        if (maxKeys <= 0 || stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("maxKeys must be positive and stripes a power of two");
+        }
+        this.permits = permits;
+        this.period = period;
+        this.intervalNanos = Math.max(1, period.toNanos() / permits);
+        this.burstNanos = intervalNanos * (permits - 1);
+        this.maxKeysPerStripe = Math.max(1, maxKeys / stripeCount);
+        this.stripes = new Stripe[stripeCount];
+        long now = System.nanoTime();
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(Math.min(maxKeysPerStripe, 1024), now);
+        }
+    }
+
+    /**
+     * Creates a limiter that lets through {@code permits} requests per {@code period} and key, all at once when the
+     * key has been idle.
+     *
+     * @param permits     bucket capacity and number of tokens added per period
+     * @param period      time it takes to refill an empty bucket
+     * @param maxKeys     number of keys tracked at most
+     * @param stripeCount number of stripes, a power of two
+     * @return a limiter without any keys
+     */
+    public static RateLimiter create(int permits, Duration period, int maxKeys, int stripeCount) {
+        return new RateLimiter(permits, period, maxKeys, stripeCount);
+    }
+
+    /**
+     * Parses a limit of the form {@code <permits>/<ISO-8601 duration>}, e.g. {@code 20/PT1M}.
+     *
+     * @param limit       the limit, blank for none
+     * @param maxKeys     number of keys tracked at most
+     * @param stripeCount number of stripes, a power of two
+     * @return the limiter, or null if the limit is blank
+     */
+    public static RateLimiter parse(String limit, int maxKeys, int stripeCount) {
+        if (limit == null || limit.isBlank()) {
+            return null;
+        }
+        int slash = limit.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Rate limit must look like <permits>/<duration>: " + limit);
+        }
+        return create(Integer.parseInt(limit.substring(0, slash).trim()), Duration.parse(limit.substring(slash + 1).trim()), maxKeys, stripeCount);
+    }
+
+    /**
+     * Takes a token from the key's bucket.
+     *
+     * @param key the key to limit, e.g. a client address
+     * @return 0 if a token was taken, otherwise the nanoseconds until the next one is available
+     */
+    public long tryAcquire(String key) {
+        return tryAcquire(key, System.nanoTime());
+    }
+
+    long tryAcquire(String key, long now) {
+        Stripe stripe = stripes[spread(key.hashCode()) & (stripes.length - 1)];
+        while (true) {
+            AtomicLong bucket = bucket(stripe, key, now);
+            long full = bucket.get();
+            if (full == EVICTED) {
+                // Lost a race with eviction; the next lookup finds or creates a live bucket
+                stripe.buckets.remove(key, bucket);
+                continue;
+            }
+            long start = full - now > 0 ? full : now;
+            long wait = start - now - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(full, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Puts back a token taken with {@link #tryAcquire}, for a request that was turned away for another reason.
+     *
+     * @param key the key the token was taken for
+     */
+    public void release(String key) {
+        release(key, System.nanoTime());
+    }
+
+    void release(String key, long now) {
+        Stripe stripe = stripes[spread(key.hashCode()) & (stripes.length - 1)];
+        AtomicLong bucket = bucket(stripe, key, now);
+        // A bucket is never fuller than at "now", so going back past it gives no extra burst
+        bucket.getAndUpdate(full -> full == EVICTED ? full : full - intervalNanos);
+    }
+
+    private AtomicLong bucket(Stripe stripe, String key, long now) {
+        AtomicLong bucket = stripe.buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (stripe.buckets.size() >= maxKeysPerStripe) {
+            return stripe.overflow;
+        }
+        return stripe.buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+
+    /**
+     * Removes the buckets of keys that have been idle long enough to be full again.
+     *
+     * @return number of keys removed
+     */
+    public int evictIdle() {
+        return evictIdle(System.nanoTime());
+    }
+
+    int evictIdle(long now) {
+        int evicted = 0;
+        for (Stripe stripe : stripes) {
+            for (Map.Entry<String, AtomicLong> entry : stripe.buckets.entrySet()) {
+                AtomicLong bucket = entry.getValue();
+                long full = bucket.get();
+                if (full - now <= 0 && bucket.compareAndSet(full, EVICTED)) {
+                    stripe.buckets.remove(entry.getKey(), bucket);
+                    evicted++;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @return capacity of a bucket, the number of permits per period
+     */
+    public int permits() {
+        return permits;
+    }
+
+    /**
+     * @return time it takes to refill an empty bucket
+     */
+    public Duration period() {
+        return period;
+    }
+
+    /**
+     * @return number of keys currently tracked
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.buckets.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return permits + "/" + period;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,42 @@
+package dev.kuku.authsome.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of background workers that spend their time blocked on I/O, such as notification delivery and
+ * OTP group commits.
+ * <p>
+ * With {@code spring.threads.virtual.enabled=true} Spring Boot serves requests and runs {@code @Scheduled} jobs on
+ * virtual threads, and these workers follow. Virtual threads need Java 21; on an older JVM the setting is ignored,
+ * by Spring Boot as well as here, and platform daemon threads are used.
+ */
+@Slf4j
+public final class Threads {
+    private Threads() {
+    }
+
+    /**
+     * @param name    prefix of the thread names, followed by a sequence number
+     * @param virtual whether virtual threads were asked for, normally {@code spring.threads.virtual.enabled}
+     * @return a factory of daemon threads
+     */
+    public static ThreadFactory factory(String name, boolean virtual) {
+        if (virtual) {
+            if (JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+                return new VirtualThreadTaskExecutor(name + "-").getVirtualThreadFactory();
+            }
+            log.warn("Virtual threads need Java 21, {} threads run on platform threads", name);
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,9 +1,34 @@
 package dev.kuku.authsome.util;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.Base64;
 
 public class Util {
+    private static final ObjectPool<MessageDigest> SHA_256 = new ObjectPool<>(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
     public static long NowUTCMilli() {
         return Instant.now().toEpochMilli();
     }
+
+    /**
+     * Digests a secret so it can be used as a lookup key without keeping the secret itself around.
+     *
+     * @param value the value to digest
+     * @return base64 of the SHA-256 digest of the UTF-8 bytes of the value
+     */
+    public static String Sha256Base64(String value) {
+        MessageDigest digest = SHA_256.take();
+        byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+        SHA_256.release(digest);
+        return Base64.getEncoder().encodeToString(hash);
+    }
 }
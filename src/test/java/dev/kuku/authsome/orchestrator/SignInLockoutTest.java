@@ -0,0 +1,55 @@
+package dev.kuku.authsome.orchestrator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignInLockoutTest {
+    private static final int WINDOW = 600;
+
+    @Test
+    void locksOutOnceTheSlidingWindowReachesTheLimit() {
+        SignInLockout.Window window = new SignInLockout.Window();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, window.recordFailure(100, WINDOW, 5, 60, 3600));
+        }
+        // Two thirds of the previous window is still covered: 4 * 2 / 3, rounded down, + 3 reaches the limit
+        assertEquals(0, window.recordFailure(900, WINDOW, 5, 60, 3600));
+        assertEquals(0, window.recordFailure(900, WINDOW, 5, 60, 3600));
+        assertEquals(60, window.recordFailure(900, WINDOW, 5, 60, 3600));
+        assertEquals(60, window.lockedFor(900));
+        assertEquals(0, window.lockedFor(960));
+    }
+
+    @Test
+    void lockoutsGrowWithEveryRepeatUpToTheMaximum() {
+        SignInLockout.Window window = new SignInLockout.Window();
+        int now = 0;
+        int[] expected = {60, 120, 240, 300, 300};
+        for (int lockout : expected) {
+            int locked = 0;
+            for (int i = 0; i < 3; i++) {
+                locked = window.recordFailure(now, WINDOW, 3, 60, 300);
+            }
+            assertEquals(lockout, locked);
+            now += locked;
+        }
+    }
+
+    @Test
+    void successClearsTheTenantButNotTheAddress() {
+        SignInLockout lockout = new SignInLockout(true, Duration.ofMinutes(10), 2, 2, Duration.ofMinutes(1),
+                Duration.ofHours(1), 1000, new SimpleMeterRegistry());
+
+        lockout.recordFailure("tenant", "10.0.0.1");
+        lockout.recordSuccess("tenant");
+        lockout.recordFailure("tenant", "10.0.0.1");
+
+        assertEquals(0, lockout.tenantLockedFor("tenant"));
+        assertTrue(lockout.addressLockedFor("10.0.0.1") > 0);
+        assertEquals(0, lockout.addressLockedFor(null));
+    }
+}
@@ -0,0 +1,200 @@
+package dev.kuku.authsome.orchestrator;
+
+import dev.kuku.authsome.services.jwt.impl.JwtServiceImpl;
+import dev.kuku.authsome.services.notifier.api.NotifierService;
+import dev.kuku.authsome.services.otp.api.OtpService;
+import dev.kuku.authsome.services.tenant.api.TenantService;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import dev.kuku.authsome.services.tenant.api.dto.FetchedTenant;
+import dev.kuku.authsome.services.tenant.api.dto.TenantAndRefreshToken;
+import dev.kuku.authsome.util.EncryptionUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class TenantCoordinatorTest {
+    private static final String SECRET = "authsome-test-secret-that-is-at-least-256-bits";
+    private static final FetchedTenant TENANT = new FetchedTenant("tenant-1", "alice", 1000L, 2000L);
+    private static final String API_KEY = "ak_well-formed-api-key";
+
+    private final TenantService tenantService = mock(TenantService.class);
+    private final JwtServiceImpl jwtService = spy(new JwtServiceImpl(SECRET));
+
+    private TenantCoordinator newCoordinator(boolean tokenCache) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new TenantCoordinator(tenantService, mock(OtpService.class), mock(NotifierService.class), jwtService,
+                new EncryptionUtil("MySecretKey123456MySecretKey1234"),
+                new VerifiedTokenCache(tokenCache, 1000, 900, meterRegistry),
+                new ApiKeyCache(true, 1000, 300, 30, meterRegistry),
+                mock(SignInLockout.class));
+    }
+
+    @Test
+    void verifiedTokenIsServedFromCache() {
+        TenantCoordinator coordinator = newCoordinator(true);
+        when(tenantService.getTenantById("tenant-1")).thenReturn(TENANT);
+        String token = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+
+        assertEquals(TENANT, coordinator.getTenantFromAccessToken(token));
+        assertEquals(TENANT, coordinator.getTenantFromAccessToken(token));
+
+        verify(jwtService, times(1)).parseToken(token);
+        verify(tenantService, times(1)).getTenantById("tenant-1");
+    }
+
+    @Test
+    void expiredTokenIsVerifiedAgainAndRejected() throws InterruptedException {
+        TenantCoordinator coordinator = newCoordinator(true);
+        when(tenantService.getTenantById("tenant-1")).thenReturn(TENANT);
+        String token = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", 1500, TimeUnit.MILLISECONDS);
+        assertEquals(TENANT, coordinator.getTenantFromAccessToken(token));
+
+        // The entry lives only as long as the token, which has a whole second resolution
+        Thread.sleep(1600);
+        ResponseStatusException expired = assertThrows(ResponseStatusException.class, () -> coordinator.getTenantFromAccessToken(token));
+
+        assertEquals(HttpStatus.UNAUTHORIZED, expired.getStatusCode());
+        verify(jwtService, times(2)).parseToken(token);
+    }
+
+    @Test
+    void unknownTenantIsNotCached() {
+        TenantCoordinator coordinator = newCoordinator(true);
+        String token = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+
+        assertNull(coordinator.getTenantFromAccessToken(token));
+        when(tenantService.getTenantById("tenant-1")).thenReturn(TENANT);
+        assertEquals(TENANT, coordinator.getTenantFromAccessToken(token));
+
+        verify(tenantService, times(2)).getTenantById("tenant-1");
+    }
+
+    @Test
+    void disabledTokenCacheVerifiesEveryTime() {
+        TenantCoordinator coordinator = newCoordinator(false);
+        when(tenantService.getTenantById("tenant-1")).thenReturn(TENANT);
+        String token = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+
+        coordinator.getTenantFromAccessToken(token);
+        coordinator.getTenantFromAccessToken(token);
+
+        verify(jwtService, times(2)).parseToken(token);
+        verify(tenantService, times(2)).getTenantById("tenant-1");
+    }
+
+    @Test
+    void statelessTokensCarryTheTenant() {
+        TenantCoordinator coordinator = newCoordinator(true);
+        coordinator.statelessAccessTokens = true;
+        when(tenantService.refreshToken("refresh-token-1")).thenReturn(new TenantAndRefreshToken(TENANT, "refresh-token-2"));
+
+        String accessToken = coordinator.refreshTenantToken("refresh-token-1").accessToken();
+        ParsedToken parsed = jwtService.parseToken(accessToken);
+
+        assertEquals("tenant-1", parsed.subject());
+        assertEquals(Map.of(TenantCoordinator.CLAIM_USERNAME, "alice",
+                TenantCoordinator.CLAIM_CREATED_AT, "1000",
+                TenantCoordinator.CLAIM_UPDATED_AT, "2000"), parsed.claims());
+    }
+
+    @Test
+    void statelessTokenIsAuthenticatedWithoutLookup() {
+        TenantCoordinator coordinator = newCoordinator(false);
+        coordinator.statelessAccessTokens = true;
+        String token = jwtService.generateToken("tenant-1", Map.of(
+                TenantCoordinator.CLAIM_USERNAME, "alice",
+                TenantCoordinator.CLAIM_CREATED_AT, "1000",
+                TenantCoordinator.CLAIM_UPDATED_AT, "2000"), "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+
+        assertEquals(TENANT, coordinator.getTenantFromAccessToken(token));
+
+        verifyNoInteractions(tenantService);
+    }
+
+    @Test
+    void statelessModeLooksUpTenantsOfOlderTokens() {
+        TenantCoordinator coordinator = newCoordinator(false);
+        coordinator.statelessAccessTokens = true;
+        when(tenantService.getTenantById("tenant-1")).thenReturn(TENANT);
+        String token = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+
+        assertEquals(TENANT, coordinator.getTenantFromAccessToken(token));
+
+        verify(tenantService).getTenantById("tenant-1");
+    }
+
+    @Test
+    void apiKeyIsResolvedOnce() {
+        TenantCoordinator coordinator = newCoordinator(true);
+        when(tenantService.isWellFormedApiKey(API_KEY)).thenReturn(true);
+        when(tenantService.getTenantByApiKey(API_KEY)).thenReturn(TENANT);
+
+        assertEquals(TENANT, coordinator.getTenantFromApi(API_KEY));
+        assertEquals(TENANT, coordinator.getTenantFromApi(API_KEY));
+
+        verify(tenantService, times(1)).getTenantByApiKey(API_KEY);
+    }
+
+    @Test
+    void generatingAKeyDropsItsCachedMiss() {
+        TenantCoordinator coordinator = newCoordinator(true);
+        when(tenantService.isWellFormedApiKey(API_KEY)).thenReturn(true);
+        assertNull(coordinator.getTenantFromApi(API_KEY));
+        assertNull(coordinator.getTenantFromApi(API_KEY));
+        verify(tenantService, times(1)).getTenantByApiKey(API_KEY);
+
+        when(tenantService.generateAPIKeyForTenant("tenant-1")).thenReturn(API_KEY);
+        when(tenantService.getTenantByApiKey(API_KEY)).thenReturn(TENANT);
+        coordinator.generateAPIKeyForTenant("tenant-1");
+
+        assertEquals(TENANT, coordinator.getTenantFromApi(API_KEY));
+    }
+
+    @Test
+    void revokingAKeyDropsItsCachedTenant() {
+        TenantCoordinator coordinator = newCoordinator(true);
+        when(tenantService.isWellFormedApiKey(API_KEY)).thenReturn(true);
+        when(tenantService.getTenantByApiKey(API_KEY)).thenReturn(TENANT);
+        assertEquals(TENANT, coordinator.getTenantFromApi(API_KEY));
+
+        when(tenantService.getTenantByApiKey(API_KEY)).thenReturn(null);
+        coordinator.revokeAPIKeyForTenant("tenant-1", API_KEY);
+
+        assertNull(coordinator.getTenantFromApi(API_KEY));
+        verify(tenantService, times(2)).getTenantByApiKey(API_KEY);
+    }
+
+    @Test
+    void malformedApiKeyIsNotLookedUp() {
+        TenantCoordinator coordinator = newCoordinator(true);
+
+        assertNull(coordinator.getTenantFromApi("garbage"));
+
+        verify(tenantService, never()).getTenantByApiKey(any());
+    }
+
+    @Test
+    void expiredApiKeyEntryIsLoadedAgain() {
+        ApiKeyCache cache = new ApiKeyCache(true, 1000, 0, 0, new SimpleMeterRegistry());
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(API_KEY, key -> {
+            loads.incrementAndGet();
+            return TENANT;
+        });
+        cache.get(API_KEY, key -> {
+            loads.incrementAndGet();
+            return TENANT;
+        });
+
+        assertEquals(2, loads.get());
+    }
+}
@@ -0,0 +1,132 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import dev.kuku.authsome.services.jwt.api.dto.TokenIntrospection;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtServiceImplTest {
+    private static final String SECRET = "authsome-test-secret-that-is-at-least-256-bits";
+    private static final SecretKey KEY = Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8));
+
+    private final JwtServiceImpl jwtService = new JwtServiceImpl(SECRET);
+
+    @Test
+    void parsesGeneratedToken() {
+        String token = jwtService.generateToken("tenant-1", Map.of("role", "admin", "note", "a \"quoted\" value"), "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+
+        ParsedToken parsed = jwtService.parseToken(token);
+
+        assertEquals("tenant-1", parsed.subject());
+        assertEquals("AUTHSOME_TENANT", parsed.issuer());
+        assertFalse(parsed.expired());
+        assertEquals(Map.of("role", "admin", "note", "a \"quoted\" value"), parsed.claims());
+    }
+
+    @Test
+    void reportsExpiredToken() {
+        String token = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", -1, TimeUnit.MINUTES);
+
+        assertTrue(jwtService.parseToken(token).expired());
+    }
+
+    @Test
+    void rejectsTamperedToken() {
+        String token = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+        String forged = jwtService.generateToken("tenant-2", null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+        String tampered = forged.substring(0, forged.lastIndexOf('.')) + token.substring(token.lastIndexOf('.'));
+
+        assertThrows(IllegalArgumentException.class, () -> jwtService.parseToken(tampered));
+        assertThrows(IllegalArgumentException.class, () -> jwtService.parseToken("not-a-token"));
+    }
+
+    @Test
+    void rejectsUnsignedToken() {
+        String token = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+        String header = java.util.Base64.getUrlEncoder().withoutPadding().encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.US_ASCII));
+        String unsigned = header + token.substring(token.indexOf('.'), token.lastIndexOf('.') + 1);
+
+        assertThrows(IllegalArgumentException.class, () -> jwtService.parseToken(unsigned));
+    }
+
+    @Test
+    void interoperatesWithJjwt() {
+        String ours = jwtService.generateToken("tenant-1", Map.of("role", "admin"), "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+        Claims claims = Jwts.parser().verifyWith(KEY).build().parseSignedClaims(ours).getPayload();
+        assertEquals("tenant-1", claims.getSubject());
+        assertEquals("admin", claims.get("role"));
+
+        String theirs = Jwts.builder()
+                .subject("tenant-2")
+                .issuer("AUTHSOME_TENANT")
+                .issuedAt(new Date())
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(KEY)
+                .compact();
+        ParsedToken parsed = jwtService.parseToken(theirs);
+        assertEquals("tenant-2", parsed.subject());
+        assertFalse(parsed.expired());
+    }
+
+    @Test
+    void acceptsHs384AndHs512TokensOfLongSecrets() {
+        String longSecret = "authsome-test-secret-that-is-long-enough-for-jjwt-to-pick-hs512!!";
+        SecretKey longKey = Keys.hmacShaKeyFor(longSecret.getBytes(StandardCharsets.UTF_8));
+        JwtServiceImpl longSecretService = new JwtServiceImpl(longSecret);
+        // What the previous signer issued for this secret
+        String hs512 = Jwts.builder().subject("tenant-1").issuer("AUTHSOME_TENANT")
+                .expiration(new Date(System.currentTimeMillis() + 60_000)).signWith(longKey).compact();
+        String hs384 = Jwts.builder().subject("tenant-2").issuer("AUTHSOME_TENANT")
+                .expiration(new Date(System.currentTimeMillis() + 60_000)).signWith(longKey, Jwts.SIG.HS384).compact();
+
+        assertEquals("tenant-1", longSecretService.parseToken(hs512).subject());
+        assertEquals("tenant-2", longSecretService.parseToken(hs384).subject());
+        assertThrows(IllegalArgumentException.class, () -> jwtService.parseToken(hs512), "the secret is too short for HS512");
+    }
+
+    @Test
+    void introspectsBatchInOrder() {
+        String valid = jwtService.generateToken("tenant-1", null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES);
+        String expired = jwtService.generateToken("tenant-2", null, "AUTHSOME_TENANT", -1, TimeUnit.MINUTES);
+
+        List<TokenIntrospection> results = jwtService.introspectTokens(Arrays.asList(valid, "not-a-token", expired, valid, null));
+
+        assertEquals(5, results.size());
+        assertEquals("tenant-1", results.get(0).subject());
+        assertTrue(results.get(0).valid());
+        assertTrue(results.get(0).expiresAt() > System.currentTimeMillis());
+        assertEquals(TokenIntrospection.INVALID, results.get(1));
+        assertEquals("tenant-2", results.get(2).subject());
+        assertFalse(results.get(2).valid());
+        assertSame(results.get(0), results.get(3), "a repeated token is verified once");
+        assertEquals(TokenIntrospection.INVALID, results.get(4));
+    }
+
+    @Test
+    void introspectsLargeBatchInParallel() {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < JwtServiceImpl.PARALLEL_INTROSPECTION_THRESHOLD * 4; i++) {
+            tokens.add(jwtService.generateToken("tenant-" + i, null, "AUTHSOME_TENANT", 5, TimeUnit.MINUTES));
+        }
+
+        List<TokenIntrospection> results = jwtService.introspectTokens(tokens);
+
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals("tenant-" + i, results.get(i).subject());
+            assertTrue(results.get(i).valid());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kuku.authsome.services.jwt.api.dto.JsonWebKey;
+import dev.kuku.authsome.services.jwt.api.dto.ParsedToken;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Jwks;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyRingJwtEngineTest {
+    private static final long PUBLISH_DELAY = TimeUnit.MINUTES.toMillis(11);
+    private static final String SECRET = "authsome-test-secret-that-is-at-least-256-bits";
+
+    @Test
+    void signsWithKidAndVerifies() throws Exception {
+        for (JwsAlgorithm algorithm : JwsAlgorithm.values()) {
+            long now = System.currentTimeMillis();
+            SigningKeyRing ring = ring(algorithm, key("k1", algorithm, now - PUBLISH_DELAY));
+            KeyRingJwtEngine engine = new KeyRingJwtEngine(ring, null, () -> {
+            });
+
+            String token = engine.sign("tenant-1", "AUTHSOME_TENANT", now, now + 60_000, Map.of("role", "admin"));
+            ParsedToken parsed = engine.verify(token, now);
+
+            assertEquals("tenant-1", parsed.subject(), algorithm.name());
+            assertEquals(Map.of("role", "admin"), parsed.claims());
+            assertFalse(parsed.expired());
+            String tampered = token.substring(0, token.lastIndexOf('.') - 2) + "AA" + token.substring(token.lastIndexOf('.'));
+            assertThrows(IllegalArgumentException.class, () -> engine.verify(tampered, now), algorithm.name());
+        }
+    }
+
+    @Test
+    void publishedKeysVerifyWithJjwt() throws Exception {
+        ObjectMapper json = new ObjectMapper();
+        for (JwsAlgorithm algorithm : JwsAlgorithm.values()) {
+            long now = System.currentTimeMillis();
+            SigningKeyRing ring = ring(algorithm, key("k1", algorithm, now - PUBLISH_DELAY));
+            KeyRingJwtEngine engine = new KeyRingJwtEngine(ring, null, () -> {
+            });
+            String token = engine.sign("tenant-1", "AUTHSOME_TENANT", now, now + 60_000, null);
+
+            JsonWebKey jwk = engine.publicKeys().get(0);
+            PublicKey publicKey = (PublicKey) Jwks.parser().build().parse(json.writeValueAsString(jwk)).toKey();
+            Jws<Claims> verified = Jwts.parser().verifyWith(publicKey).build().parseSignedClaims(token);
+
+            assertEquals("k1", verified.getHeader().getKeyId(), algorithm.name());
+            assertEquals(algorithm.name(), verified.getHeader().getAlgorithm());
+            assertEquals("tenant-1", verified.getPayload().getSubject());
+        }
+    }
+
+    @Test
+    void signsWithNewKeyOnlyOncePublished() throws Exception {
+        long now = System.currentTimeMillis();
+        SigningKey old = key("old", JwsAlgorithm.EdDSA, now - TimeUnit.DAYS.toMillis(7));
+        SigningKey fresh = key("new", JwsAlgorithm.EdDSA, now);
+        SigningKeyRing ring = ring(JwsAlgorithm.EdDSA, old, fresh);
+        KeyRingJwtEngine engine = new KeyRingJwtEngine(ring, null, () -> {
+        });
+
+        assertSame(old, ring.signingKey(now));
+        assertEquals(2, engine.publicKeys().size(), "the new key is published before it signs");
+        String signedByOld = engine.sign("tenant-1", null, now, now + 60_000, null);
+
+        long later = now + PUBLISH_DELAY;
+        assertSame(fresh, ring.signingKey(later));
+        assertEquals("tenant-1", engine.verify(signedByOld, later).subject(), "tokens of the previous key stay valid");
+    }
+
+    @Test
+    void reloadsKeysForUnknownKid() throws Exception {
+        long now = System.currentTimeMillis();
+        SigningKey other = key("elsewhere", JwsAlgorithm.ES256, now - PUBLISH_DELAY);
+        String token = new KeyRingJwtEngine(ring(JwsAlgorithm.ES256, other), null, () -> {
+        }).sign("tenant-1", null, now, now + 60_000, null);
+
+        SigningKeyRing ring = ring(JwsAlgorithm.ES256, key("mine", JwsAlgorithm.ES256, now - PUBLISH_DELAY));
+        AtomicInteger reloads = new AtomicInteger();
+        KeyRingJwtEngine engine = new KeyRingJwtEngine(ring, null, reloads::incrementAndGet);
+        assertThrows(IllegalArgumentException.class, () -> engine.verify(token, now));
+        assertEquals(1, reloads.get());
+
+        KeyRingJwtEngine reloading = new KeyRingJwtEngine(ring, null, () -> ring.update(List.of(ring.keys().get(0), other)));
+        assertEquals("tenant-1", reloading.verify(token, now).subject());
+    }
+
+    @Test
+    void acceptsLegacyHs256TokensOnlyWithSecret() throws Exception {
+        long now = System.currentTimeMillis();
+        Hs256JwtEngine legacy = new Hs256JwtEngine(SECRET.getBytes(StandardCharsets.UTF_8));
+        String token = legacy.sign("tenant-1", null, now, now + 60_000, null);
+        SigningKeyRing ring = ring(JwsAlgorithm.EdDSA, key("k1", JwsAlgorithm.EdDSA, now - PUBLISH_DELAY));
+
+        assertEquals("tenant-1", new KeyRingJwtEngine(ring, legacy, () -> {
+        }).verify(token, now).subject());
+        assertThrows(IllegalArgumentException.class, () -> new KeyRingJwtEngine(ring, null, () -> {
+        }).verify(token, now));
+    }
+
+    private static SigningKeyRing ring(JwsAlgorithm algorithm, SigningKey... keys) {
+        SigningKeyRing ring = new SigningKeyRing(algorithm, PUBLISH_DELAY);
+        ring.update(List.of(keys));
+        return ring;
+    }
+
+    private static SigningKey key(String kid, JwsAlgorithm algorithm, long createdAt) throws Exception {
+        KeyPair keyPair = algorithm.generateKeyPair();
+        return new SigningKey(kid, algorithm, createdAt, keyPair.getPrivate(), keyPair.getPublic());
+    }
+}
@@ -0,0 +1,120 @@
+package dev.kuku.authsome.services.jwt.impl;
+
+import dev.kuku.authsome.services.jwt.impl.entity.JwtSigningKeyEntity;
+import dev.kuku.authsome.util.EncryptionUtil;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs several instances against the in-memory H2 database of the test configuration. Time is passed in by hand.
+ */
+@SpringBootTest
+class SigningKeyRotatorTest {
+    private static final Duration ROTATION = Duration.ofHours(1);
+    private static final Duration RETENTION = Duration.ofMinutes(10);
+    private static final Duration REFRESH = Duration.ofMinutes(1);
+    private static final Duration JWKS_MAX_AGE = Duration.ofMinutes(1);
+    private static final long PUBLISH_DELAY = JWKS_MAX_AGE.plus(REFRESH).toMillis();
+
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private EncryptionUtil encryptionUtil;
+
+    @BeforeEach
+    void clearTable() {
+        transactionTemplate.executeWithoutResult(status ->
+                entityManager.createNativeQuery("DELETE FROM jwt_signing_keys").executeUpdate());
+    }
+
+    private SigningKeyRotator newInstance() {
+        return new SigningKeyRotator(entityManager, transactionTemplate, encryptionUtil, "EdDSA",
+                ROTATION, RETENTION, REFRESH, JWKS_MAX_AGE);
+    }
+
+    private List<String> storedKids() {
+        return entityManager.createQuery("SELECT k.kid FROM jwt_signing_keys k ORDER BY k.createdAt", String.class)
+                .getResultList();
+    }
+
+    private static long nextPeriod() {
+        return (NowUTCMilli() / ROTATION.toMillis() + 1) * ROTATION.toMillis();
+    }
+
+    private static String kid(long now) {
+        return "eddsa-" + now / ROTATION.toMillis();
+    }
+
+    @Test
+    void createsOneKeyPerPeriod() {
+        SigningKeyRotator first = newInstance();
+        SigningKeyRotator second = newInstance();
+        assertEquals(List.of(kid(NowUTCMilli())), storedKids(), "the second instance loads the key of the first");
+        assertEquals(1, second.ring().keys().size());
+
+        long next = nextPeriod();
+        first.refresh(next - 1);
+        second.refresh(next - 1);
+        assertEquals(1, storedKids().size());
+
+        first.refresh(next);
+        first.refresh(next + REFRESH.toMillis());
+        second.refresh(next + REFRESH.toMillis());
+        assertEquals(List.of(kid(NowUTCMilli()), kid(next)), storedKids());
+        assertNotNull(second.ring().find(kid(next)));
+    }
+
+    @Test
+    void losingInstancePicksUpTheWinningKey() {
+        SigningKeyRotator winner = newInstance();
+        SigningKeyRotator loser = newInstance();
+        long next = nextPeriod();
+
+        // Neither has seen the key of the next period, so both generate one; the second insert hits the primary key
+        winner.rotateIfDue(next);
+        loser.rotateIfDue(next);
+
+        assertEquals(2, storedKids().size());
+        JwtSigningKeyEntity stored = entityManager.find(JwtSigningKeyEntity.class, kid(next));
+        SigningKey won = winner.ring().find(kid(next));
+        SigningKey picked = loser.ring().find(kid(next));
+        assertNotNull(picked);
+        assertEquals(won.jwk, picked.jwk, "the loser uses the public key the winner stored");
+        assertEquals(stored.getCreatedAt(), picked.createdAt);
+        assertSame(picked, loser.ring().signingKey(next + PUBLISH_DELAY));
+    }
+
+    @Test
+    void deletesRetiredKeysOnlyAfterPublishDelayAndRetention() {
+        SigningKeyRotator rotator = newInstance();
+        SigningKeyRotator other = newInstance();
+        String previous = kid(NowUTCMilli());
+        long next = nextPeriod();
+        rotator.refresh(next);
+
+        // The new key signs from next + PUBLISH_DELAY; the previous one stays until its tokens have expired
+        rotator.refresh(next + PUBLISH_DELAY);
+        rotator.refresh(next + PUBLISH_DELAY + RETENTION.toMillis() - 1);
+        assertEquals(List.of(previous, kid(next)), storedKids());
+        assertNotNull(rotator.ring().find(previous));
+
+        rotator.refresh(next + PUBLISH_DELAY + RETENTION.toMillis());
+        assertEquals(List.of(kid(next)), storedKids());
+        assertNull(rotator.ring().find(previous));
+
+        other.refresh(next + PUBLISH_DELAY + RETENTION.toMillis() + REFRESH.toMillis());
+        assertEquals(List.of(kid(next)), other.ring().keys().stream().map(key -> key.kid).toList());
+    }
+}
@@ -0,0 +1,144 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process SMTP server for tests. Accepts every message except those to recipients starting with {@code reject}
+ * (refused for good) or {@code busy} (refused for now), answers commands strictly in order (so pipelined commands simply queue up in the socket) and records what it
+ * received.
+ */
+final class FakeSmtpServer implements AutoCloseable {
+
+    record Received(String sender, String recipient, String data, int connection) {
+    }
+
+    private final ServerSocket serverSocket;
+    private final boolean pipelining;
+    private final List<Received> received = new CopyOnWriteArrayList<>();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    FakeSmtpServer(boolean pipelining) throws IOException {
+        this.pipelining = pipelining;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "fake-smtp-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    List<Received> received() {
+        return received;
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    /**
+     * Drops every open connection without a reply, like a server timing out idle clients.
+     */
+    void dropConnections() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                int id = connections.incrementAndGet();
+                Thread handler = new Thread(() -> handle(socket, id), "fake-smtp-" + id);
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket, int connection) {
+        try (socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            reply(out, "220 fake ESMTP");
+            String sender = null;
+            String recipient = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.toUpperCase();
+                if (command.startsWith("EHLO")) {
+                    reply(out, pipelining ? "250-fake\r\n250-8BITMIME\r\n250 PIPELINING" : "250-fake\r\n250 8BITMIME");
+                } else if (command.startsWith("MAIL FROM:")) {
+                    sender = address(line);
+                    reply(out, "250 OK");
+                } else if (command.startsWith("RCPT TO:")) {
+                    String candidate = address(line);
+                    if (candidate.startsWith("reject")) {
+                        reply(out, "550 No such user");
+                    } else if (candidate.startsWith("busy")) {
+                        reply(out, "450 Mailbox busy");
+                    } else {
+                        recipient = candidate;
+                        reply(out, "250 OK");
+                    }
+                } else if (command.equals("DATA")) {
+                    if (recipient == null) {
+                        reply(out, "554 No valid recipients");
+                        continue;
+                    }
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    StringBuilder data = new StringBuilder();
+                    while (!(line = in.readLine()).equals(".")) {
+                        data.append(line.startsWith(".") ? line.substring(1) : line).append('\n');
+                    }
+                    received.add(new Received(sender, recipient, data.toString(), connection));
+                    sender = null;
+                    recipient = null;
+                    reply(out, "250 Queued");
+                } else if (command.equals("RSET")) {
+                    sender = null;
+                    recipient = null;
+                    reply(out, "250 OK");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    reply(out, "502 Command not implemented");
+                }
+            }
+        } catch (IOException ignored) {
+            // Client went away
+        }
+    }
+
+    private static String address(String line) {
+        return line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+    }
+
+    private static void reply(OutputStream out, String reply) throws IOException {
+        out.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropConnections();
+    }
+}
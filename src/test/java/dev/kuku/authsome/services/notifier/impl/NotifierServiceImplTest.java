@@ -0,0 +1,180 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import dev.kuku.authsome.services.notifier.api.model.IdentityType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotifierServiceImplTest {
+
+    @Test
+    void deliversQueuedNotificationsInBatches() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingChannel channel = new RecordingChannel(0, release);
+        NotifierServiceImpl notifier = newNotifier(channel, new NotificationDeadLetterStore(10, new SimpleMeterRegistry()), 100, 5);
+
+        for (int i = 0; i < 10; i++) {
+            notifier.sendNotification(IdentityType.EMAIL, "user" + i + "@example.com", "subject", "body");
+        }
+        release.countDown();
+
+        channel.awaitDelivered(10);
+        assertTrue(channel.batchSizes.stream().anyMatch(size -> size > 1), "queued notifications share a batch");
+        notifier.shutdown();
+    }
+
+    @Test
+    void retriesFailedDeliveriesThenDeadLetters() throws Exception {
+        NotificationDeadLetterStore deadLetters = new NotificationDeadLetterStore(10, new SimpleMeterRegistry());
+        RecordingChannel flaky = new RecordingChannel(2, null);
+        NotifierServiceImpl notifier = newNotifier(flaky, deadLetters, 100, 3);
+
+        notifier.sendNotification(IdentityType.EMAIL, "user@example.com", "subject", "body");
+        flaky.awaitDelivered(1);
+        assertEquals(3, flaky.attempts.get());
+        assertEquals(0, deadLetters.size());
+        notifier.shutdown();
+
+        RecordingChannel broken = new RecordingChannel(Integer.MAX_VALUE, null);
+        notifier = newNotifier(broken, deadLetters, 100, 3);
+        notifier.sendNotification(IdentityType.EMAIL, "user@example.com", "subject", "body");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (deadLetters.size() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, deadLetters.size());
+        assertEquals(3, deadLetters.list().get(0).notification().attempt());
+        assertEquals(3, broken.attempts.get());
+        notifier.shutdown();
+    }
+
+    @Test
+    void deadLettersPermanentFailuresWithoutRetrying() throws Exception {
+        NotificationDeadLetterStore deadLetters = new NotificationDeadLetterStore(10, new SimpleMeterRegistry());
+        AtomicInteger attempts = new AtomicInteger();
+        NotificationChannel refusing = new NotificationChannel() {
+            @Override
+            public IdentityType identityType() {
+                return IdentityType.EMAIL;
+            }
+
+            @Override
+            public List<DeliveryFailure> deliver(List<Notification> batch) {
+                attempts.incrementAndGet();
+                return batch.stream().map(notification -> DeliveryFailure.permanent(notification, "550 No such user")).toList();
+            }
+        };
+        NotifierServiceImpl notifier = newNotifier(refusing, deadLetters, 100, 5);
+
+        notifier.sendNotification(IdentityType.EMAIL, "nobody@example.com", "subject", "body");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (deadLetters.size() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        notifier.shutdown();
+
+        assertEquals(1, deadLetters.size());
+        assertEquals("550 No such user", deadLetters.list().get(0).reason());
+        assertEquals(1, deadLetters.list().get(0).notification().attempt());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void deadLettersPendingRetriesOnShutdown() throws Exception {
+        NotificationDeadLetterStore deadLetters = new NotificationDeadLetterStore(10, new SimpleMeterRegistry());
+        RecordingChannel broken = new RecordingChannel(Integer.MAX_VALUE, null);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        NotifierServiceImpl notifier = new NotifierServiceImpl(List.of(broken), deadLetters, 1, 100, 50, 5,
+                Duration.ofMinutes(10), Duration.ofMinutes(10), false, meterRegistry);
+
+        notifier.sendNotification(IdentityType.EMAIL, "user@example.com", "subject", "body");
+        Counter retried = meterRegistry.get("authsome.notifier.retried").counter();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (retried.count() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, retried.count());
+        assertEquals(0, deadLetters.size());
+
+        notifier.shutdown();
+        assertEquals(1, deadLetters.size());
+        NotificationDeadLetterStore.DeadLetter deadLetter = deadLetters.list().get(0);
+        assertEquals(1, deadLetter.notification().attempt());
+        assertTrue(deadLetter.reason().startsWith("shut down before retry"), deadLetter.reason());
+        assertEquals(1, broken.attempts.get());
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingChannel blocked = new RecordingChannel(0, release);
+        NotifierServiceImpl notifier = newNotifier(blocked, new NotificationDeadLetterStore(10, new SimpleMeterRegistry()), 2, 1);
+
+        assertThrows(RejectedExecutionException.class, () -> {
+            for (int i = 0; i < 10; i++) {
+                notifier.sendNotification(IdentityType.EMAIL, "user@example.com", "subject", "body");
+            }
+        });
+        release.countDown();
+        notifier.shutdown();
+    }
+
+    private static NotifierServiceImpl newNotifier(NotificationChannel channel, NotificationDeadLetterStore deadLetters,
+                                                   int queueCapacity, int maxAttempts) {
+        return new NotifierServiceImpl(List.of(channel), deadLetters, 1, queueCapacity, 50, maxAttempts,
+                Duration.ofMillis(10), Duration.ofMillis(50), false, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Fails the first {@code failures} attempts, optionally blocks until released, and records what it delivered.
+     */
+    private static final class RecordingChannel implements NotificationChannel {
+        private final int failures;
+        private final CountDownLatch release;
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final List<Notification> delivered = new CopyOnWriteArrayList<>();
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        RecordingChannel(int failures, CountDownLatch release) {
+            this.failures = failures;
+            this.release = release;
+        }
+
+        @Override
+        public IdentityType identityType() {
+            return IdentityType.EMAIL;
+        }
+
+        @Override
+        public List<DeliveryFailure> deliver(List<Notification> batch) throws Exception {
+            if (release != null) {
+                release.await();
+            }
+            if (attempts.getAndIncrement() < failures) {
+                throw new IllegalStateException("channel down");
+            }
+            batchSizes.add(batch.size());
+            delivered.addAll(new ArrayList<>(batch));
+            return List.of();
+        }
+
+        void awaitDelivered(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (delivered.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, delivered.size());
+        }
+    }
+}
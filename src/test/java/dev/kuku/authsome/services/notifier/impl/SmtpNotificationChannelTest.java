@@ -0,0 +1,117 @@
+package dev.kuku.authsome.services.notifier.impl;
+
+import dev.kuku.authsome.services.notifier.api.model.IdentityType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmtpNotificationChannelTest {
+
+    @Test
+    void pipelinesBatchesOverOnePooledConnection() throws Exception {
+        try (FakeSmtpServer server = new FakeSmtpServer(true)) {
+            SmtpNotificationChannel channel = newChannel(server);
+
+            assertEquals(List.of(), channel.deliver(notifications("user", 20)));
+            assertEquals(List.of(), channel.deliver(notifications("other", 5)));
+
+            assertEquals(25, server.received().size());
+            assertEquals(1, server.connections());
+            FakeSmtpServer.Received first = server.received().get(0);
+            assertEquals("no-reply@authsome.test", first.sender());
+            assertEquals("user0@example.com", first.recipient());
+            assertTrue(first.data().contains("Subject: Your code\n"));
+            assertTrue(first.data().contains("\n\nYour OTP is: 0\n"));
+            channel.shutdown();
+        }
+    }
+
+    @Test
+    void reportsRejectedRecipientsAndKeepsSendingTheRest() throws Exception {
+        for (boolean pipelining : new boolean[]{true, false}) {
+            try (FakeSmtpServer server = new FakeSmtpServer(pipelining)) {
+                SmtpNotificationChannel channel = newChannel(server);
+                List<Notification> batch = new ArrayList<>(notifications("user", 2));
+                Notification rejected = notification("reject@example.com", "Code", "1");
+                Notification busy = notification("busy@example.com", "Code", "2");
+                Notification invalid = notification("not an address", "Code", "3");
+                batch.add(1, rejected);
+                batch.add(2, busy);
+                batch.add(invalid);
+
+                List<DeliveryFailure> failed = channel.deliver(batch);
+
+                String message = "pipelining " + pipelining;
+                assertEquals(List.of(invalid, rejected, busy), failed.stream().map(DeliveryFailure::notification).toList(), message);
+                assertEquals(List.of(true, true, false), failed.stream().map(DeliveryFailure::permanent).toList(),
+                        "an invalid address and a 5xx refusal are final, a 4xx one is not; " + message);
+                assertTrue(failed.get(1).reason().contains("550 No such user"), failed.get(1).reason());
+                assertEquals(List.of("user0@example.com", "user1@example.com"),
+                        server.received().stream().map(FakeSmtpServer.Received::recipient).toList());
+                channel.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void reconnectsWhenServerDroppedIdleConnection() throws Exception {
+        try (FakeSmtpServer server = new FakeSmtpServer(true)) {
+            SmtpNotificationChannel channel = newChannel(server);
+            channel.deliver(notifications("user", 1));
+
+            server.dropConnections();
+
+            assertEquals(List.of(), channel.deliver(notifications("user", 3)));
+            assertEquals(4, server.received().size());
+            assertEquals(2, server.connections());
+            channel.shutdown();
+        }
+    }
+
+    @Test
+    void encodesNonAsciiAndDotStuffsBodies() throws Exception {
+        try (FakeSmtpServer server = new FakeSmtpServer(true)) {
+            SmtpNotificationChannel channel = newChannel(server);
+
+            channel.deliver(List.of(
+                    notification("a@example.com", "Plain", "line one\n.leading dot\nend"),
+                    notification("b@example.com", "Grüße\r\nBcc: x@example.com", "Grüße")));
+
+            String plain = server.received().get(0).data();
+            assertTrue(plain.contains("Content-Transfer-Encoding: 7bit"));
+            assertTrue(plain.endsWith("line one\n.leading dot\nend\n"));
+            String encoded = server.received().get(1).data();
+            assertFalse(encoded.contains("\nBcc:"));
+            assertTrue(encoded.contains("Subject: =?UTF-8?B?"));
+            assertTrue(encoded.contains("Content-Transfer-Encoding: base64"));
+            String body = encoded.substring(encoded.indexOf("\n\n") + 2).trim();
+            assertEquals("Grüße", new String(Base64.getMimeDecoder().decode(body), StandardCharsets.UTF_8));
+            channel.shutdown();
+        }
+    }
+
+    private static SmtpNotificationChannel newChannel(FakeSmtpServer server) {
+        return new SmtpNotificationChannel("localhost", server.port(), "none", "", "", "no-reply@authsome.test",
+                "localhost", 2, 1000, Duration.ofMinutes(1), Duration.ofSeconds(2), Duration.ofSeconds(2),
+                new SimpleMeterRegistry());
+    }
+
+    private static List<Notification> notifications(String prefix, int count) {
+        List<Notification> notifications = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            notifications.add(notification(prefix + i + "@example.com", "Your code", "Your OTP is: " + i));
+        }
+        return notifications;
+    }
+
+    private static Notification notification(String identity, String subject, String content) {
+        return new Notification(IdentityType.EMAIL, identity, subject, content, System.nanoTime(), 0);
+    }
+}
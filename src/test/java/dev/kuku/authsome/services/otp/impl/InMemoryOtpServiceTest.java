@@ -0,0 +1,64 @@
+package dev.kuku.authsome.services.otp.impl;
+
+import dev.kuku.authsome.services.otp.api.model.FetchedOtp;
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryOtpServiceTest {
+    private final InMemoryOtpService otpService = new InMemoryOtpService(4, 1_000_000, 1000, new SimpleMeterRegistry());
+
+    @Test
+    void storesAndReturnsOtp() {
+        FetchedOtp generated = otpService.generateAndSaveOtp(OtpType.NUMERIC, 6, -1, -1, -1, -1, 300,
+                "AUTHSOME_TENANT_SIGNUP", Map.of("username", "alice"));
+
+        FetchedOtp fetched = otpService.getOtpById(generated.id);
+
+        assertNotNull(fetched);
+        assertTrue(generated.code.matches("[0-9]{6}"));
+        assertEquals(generated.code, fetched.code);
+        assertEquals("AUTHSOME_TENANT_SIGNUP", fetched.context);
+        assertEquals(generated.expiresAt, fetched.expiresAt);
+        assertEquals(Map.of("username", "alice"), fetched.metadata);
+        assertNull(otpService.getOtpById("not-an-id"));
+        assertNull(otpService.getOtpById("550e8400-e29b-41d4-a716-446655440000"));
+    }
+
+    @Test
+    void expiresEachOtpAtItsOwnTick() {
+        List<FetchedOtp> generated = new ArrayList<>();
+        for (int seconds : new int[]{1, 5, 70, 5000, 300_000}) {
+            for (int i = 0; i < 100; i++) {
+                generated.add(otpService.generateAndSaveOtp(OtpType.ALPHANUMERIC, 8, 2, 2, -1, -1, seconds, "TEST", null));
+            }
+        }
+        long now = NowUTCMilli();
+
+        assertEquals(0, otpService.expire(now));
+        assertEquals(100, otpService.expire(now + 2_000));
+        assertEquals(100, otpService.expire(now + 6_000));
+        assertEquals(0, otpService.expire(now + 69_000));
+        assertEquals(100, otpService.expire(now + 71_000));
+        assertEquals(100, otpService.expire(now + 5_001_000));
+        assertEquals(100, otpService.size());
+        assertEquals(100, otpService.expire(now + 300_001_000));
+        assertEquals(0, otpService.size());
+        for (FetchedOtp otp : generated) {
+            assertNull(otpService.getOtpById(otp.id));
+        }
+    }
+
+    @Test
+    void rejectsUnsatisfiableCodeBounds() {
+        assertThrows(IllegalArgumentException.class, () ->
+                otpService.generateAndSaveOtp(OtpType.ALPHANUMERIC, 4, 3, 3, -1, -1, 60, "TEST", null));
+    }
+}
@@ -0,0 +1,54 @@
+package dev.kuku.authsome.services.otp.impl;
+
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtpCodeGeneratorTest {
+
+    @Test
+    void generatesCodesOfTheRequestedType() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(OtpCodeGenerator.generate(OtpType.NUMERIC, 6, -1, -1, -1, -1).matches("[0-9]{6}"));
+            assertTrue(OtpCodeGenerator.generate(OtpType.ALPHABETIC, 6, -1, -1, -1, -1).matches("[A-Z]{6}"));
+            assertTrue(OtpCodeGenerator.generate(OtpType.ALPHANUMERIC, 6, -1, -1, -1, -1).matches("[0-9A-Z]{6}"));
+        }
+    }
+
+    @Test
+    void honoursDigitAndLetterBounds() {
+        int[] digitCounts = new int[9];
+        for (int i = 0; i < 20_000; i++) {
+            String code = OtpCodeGenerator.generate(OtpType.ALPHANUMERIC, 8, 2, 3, 4, -1);
+            int digits = (int) code.chars().filter(Character::isDigit).count();
+            assertTrue(digits >= 2 && digits <= 4, code);
+            digitCounts[digits]++;
+        }
+        // Uniform over valid codes: k digits occur in proportion to C(8,k) 10^k 26^(8-k)
+        double w2 = 28 * Math.pow(10, 2) * Math.pow(26, 6);
+        double w3 = 56 * Math.pow(10, 3) * Math.pow(26, 5);
+        double w4 = 70 * Math.pow(10, 4) * Math.pow(26, 4);
+        assertEquals(w2 / (w2 + w3 + w4), digitCounts[2] / 20_000.0, 0.02);
+        assertEquals(w4 / (w2 + w3 + w4), digitCounts[4] / 20_000.0, 0.02);
+    }
+
+    @Test
+    void spreadsDigitsOverAllPositions() {
+        int[] digitsAtPosition = new int[4];
+        for (int i = 0; i < 20_000; i++) {
+            String code = OtpCodeGenerator.generate(OtpType.ALPHANUMERIC, 4, 1, 3, 1, 3);
+            digitsAtPosition[code.indexOf(code.chars().filter(Character::isDigit).findFirst().orElseThrow())]++;
+        }
+        for (int count : digitsAtPosition) {
+            assertEquals(5_000, count, 500);
+        }
+    }
+
+    @Test
+    void rejectsUnsatisfiableBounds() {
+        assertThrows(IllegalArgumentException.class, () -> OtpCodeGenerator.generate(OtpType.ALPHANUMERIC, 4, 3, 3, -1, -1));
+        assertThrows(IllegalArgumentException.class, () -> OtpCodeGenerator.generate(OtpType.ALPHANUMERIC, 4, -1, -1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> OtpCodeGenerator.generate(OtpType.NUMERIC, 0, -1, -1, -1, -1));
+    }
+}
@@ -0,0 +1,118 @@
+package dev.kuku.authsome.services.otp.impl;
+
+import dev.kuku.authsome.services.otp.api.model.FetchedOtp;
+import dev.kuku.authsome.services.otp.api.model.OtpType;
+import dev.kuku.authsome.services.otp.impl.entity.OtpEntity;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PostgresOtpServiceTest {
+    private final EntityManager entityManager = mock(EntityManager.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private PostgresOtpService otpService;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        callers.shutdownNow();
+        if (otpService != null) {
+            otpService.shutdown();
+        }
+    }
+
+    private PostgresOtpService newService(int writers) {
+        when(entityManager.unwrap(Session.class)).thenReturn(mock(Session.class));
+        otpService = new PostgresOtpService(entityManager, new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                writers, 100, 1000, 1000, 100, false, meterRegistry);
+        return otpService;
+    }
+
+    private FetchedOtp generate() {
+        return otpService.generateAndSaveOtp(OtpType.NUMERIC, 6, -1, -1, -1, -1, 300, "TEST", null);
+    }
+
+    @Test
+    void groupsQueuedInsertsIntoOneBatch() throws Exception {
+        CountDownLatch firstInsertStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstInsert = new CountDownLatch(1);
+        AtomicInteger persisted = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (persisted.getAndIncrement() == 0) {
+                firstInsertStarted.countDown();
+                releaseFirstInsert.await();
+            }
+            return null;
+        }).when(entityManager).persist(any(OtpEntity.class));
+        newService(1);
+
+        Future<FetchedOtp> first = callers.submit(this::generate);
+        assertTrue(firstInsertStarted.await(5, TimeUnit.SECONDS));
+        List<Future<FetchedOtp>> queued = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            queued.add(callers.submit(this::generate));
+        }
+        // The only writer is busy, so the five rows pile up in the queue until it comes back for them.
+        Thread.sleep(200);
+        assertFalse(first.isDone());
+        releaseFirstInsert.countDown();
+
+        assertNotNull(first.get(5, TimeUnit.SECONDS));
+        for (Future<FetchedOtp> otp : queued) {
+            assertNotNull(otp.get(5, TimeUnit.SECONDS));
+        }
+        DistributionSummary batches = meterRegistry.get("authsome.otp.postgres.insert-batch-size").summary();
+        assertEquals(2, batches.count());
+        assertEquals(5, batches.max());
+        assertEquals(6, persisted.get());
+    }
+
+    @Test
+    void propagatesAnInsertFailureToTheCaller() {
+        doThrow(new IllegalStateException("constraint violated")).when(entityManager).persist(any(OtpEntity.class));
+        newService(1);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, this::generate);
+        assertEquals("constraint violated", e.getMessage());
+    }
+
+    @Test
+    void failsWaitingCallersWhenAWriterDiesOfAnError() throws Exception {
+        AtomicInteger persisted = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (persisted.getAndIncrement() == 0) {
+                throw new AssertionError("writer killed");
+            }
+            return null;
+        }).when(entityManager).persist(any(OtpEntity.class));
+        newService(1);
+
+        IllegalStateException e = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(IllegalStateException.class, this::generate));
+        assertEquals("OTP writer stopped", e.getMessage());
+
+        // With no writer left, later callers insert their own row instead of queueing for nobody.
+        FetchedOtp otp = assertTimeoutPreemptively(Duration.ofSeconds(5), this::generate);
+        assertNotNull(otp);
+        assertEquals(2, persisted.get());
+    }
+}
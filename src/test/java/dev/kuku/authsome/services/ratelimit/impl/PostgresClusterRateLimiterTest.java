@@ -0,0 +1,152 @@
+package dev.kuku.authsome.services.ratelimit.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs several instances against the in-memory H2 database of the test configuration. Syncs are triggered by hand.
+ */
+@SpringBootTest
+class PostgresClusterRateLimiterTest {
+    private static final Duration NODE_TIMEOUT = Duration.ofSeconds(1);
+    private static final Duration DAY = Duration.ofDays(1);
+
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final List<PostgresClusterRateLimiter> nodes = new ArrayList<>();
+
+    @BeforeEach
+    void clearTables() {
+        transactionTemplate.executeWithoutResult(status -> {
+            entityManager.createNativeQuery("DELETE FROM rate_limit_counters").executeUpdate();
+            entityManager.createNativeQuery("DELETE FROM rate_limit_nodes").executeUpdate();
+        });
+    }
+
+    @AfterEach
+    void stopNodes() throws InterruptedException {
+        for (PostgresClusterRateLimiter node : nodes) {
+            node.shutdown();
+        }
+    }
+
+    private PostgresClusterRateLimiter newNode() {
+        PostgresClusterRateLimiter node = new PostgresClusterRateLimiter(entityManager, transactionTemplate,
+                Duration.ofHours(1), NODE_TIMEOUT, Duration.ofHours(1), 1000, new SimpleMeterRegistry());
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Lets every node see every other one as active.
+     */
+    private void syncAll() {
+        nodes.forEach(PostgresClusterRateLimiter::sync);
+        nodes.forEach(PostgresClusterRateLimiter::sync);
+    }
+
+    private static int takeAll(PostgresClusterRateLimiter node, int permits, Duration period) {
+        int taken = 0;
+        while (node.tryAcquire("test", "10.0.0.1", permits, period) == 0) {
+            taken++;
+        }
+        return taken;
+    }
+
+    @Test
+    void splitsTheBudgetAmongActiveNodes() {
+        PostgresClusterRateLimiter first = newNode();
+        PostgresClusterRateLimiter second = newNode();
+        syncAll();
+        assertEquals(0, first.tryAcquire("test", "10.0.0.1", 10, DAY));
+        assertEquals(0, second.tryAcquire("test", "10.0.0.1", 10, DAY));
+        syncAll();
+
+        // Both have drawn on the key, so each renewal only hands out what the other has not taken or leased
+        int taken = 2;
+        for (int round = 0; round < 10; round++) {
+            int byFirst = takeAll(first, 10, DAY);
+            int bySecond = takeAll(second, 10, DAY);
+            assertTrue(byFirst <= 5 && bySecond <= 5, "no node gets more than its share of what is left");
+            taken += byFirst + bySecond;
+            syncAll();
+        }
+        assertEquals(10, taken);
+    }
+
+    @Test
+    void exhaustedNodeTakesOverSharesLeftUnused() throws InterruptedException {
+        PostgresClusterRateLimiter busy = newNode();
+        PostgresClusterRateLimiter idle = newNode();
+        syncAll();
+        assertEquals(0, idle.tryAcquire("test", "10.0.0.1", 10, DAY));
+        idle.sync();
+
+        assertEquals(5, takeAll(busy, 10, DAY));
+        busy.sync();
+        // The idle node still holds its lease, 1 of 5 used
+        assertEquals(0, takeAll(busy, 10, DAY));
+
+        Thread.sleep(NODE_TIMEOUT.toMillis() + 200);
+        idle.sync();
+        busy.sync();
+        // The lease lapsed, so only the permit actually taken counts; what is left is split between both nodes
+        assertEquals(2, takeAll(busy, 10, DAY));
+        busy.sync();
+        assertEquals(1, takeAll(busy, 10, DAY));
+    }
+
+    @Test
+    void releasesTheLeasesOfNodesThatStopped() throws InterruptedException {
+        PostgresClusterRateLimiter survivor = newNode();
+        PostgresClusterRateLimiter departed = newNode();
+        syncAll();
+        assertEquals(0, departed.tryAcquire("test", "10.0.0.1", 10, DAY));
+        departed.sync();
+        assertEquals(5, takeAll(survivor, 10, DAY));
+
+        Thread.sleep(NODE_TIMEOUT.toMillis() + 200);
+        survivor.sync();
+        survivor.sync();
+
+        assertEquals(4, takeAll(survivor, 10, DAY));
+        survivor.sync();
+        assertEquals(0, takeAll(survivor, 10, DAY));
+    }
+
+    @Test
+    void startsAFreshBudgetEachWindow() throws InterruptedException {
+        PostgresClusterRateLimiter node = newNode();
+        Duration second = Duration.ofSeconds(1);
+        node.sync();
+        // Start right after a window begins, so the whole budget is taken within one window
+        Thread.sleep(1000 - System.currentTimeMillis() % 1000 + 20);
+
+        assertEquals(3, takeAll(node, 3, second));
+        long waitNanos = node.tryAcquire("test", "10.0.0.1", 3, second);
+        assertTrue(waitNanos > 0 && waitNanos <= second.toNanos(), "rejected until the window ends");
+        node.sync();
+
+        Thread.sleep(Duration.ofNanos(waitNanos).toMillis() + 20);
+        assertEquals(3, takeAll(node, 3, second));
+        node.sync();
+        Integer windows = transactionTemplate.execute(status -> ((Number) entityManager
+                .createNativeQuery("SELECT count(*) FROM rate_limit_counters").getSingleResult()).intValue());
+        assertEquals(2, windows);
+    }
+}
@@ -0,0 +1,43 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiKeyCodecTest {
+    private final ApiKeyCodec codec = new ApiKeyCodec("test-hash-key");
+
+    @Test
+    void parsesGeneratedKey() {
+        ApiKeyCodec.GeneratedApiKey generated = codec.generate();
+
+        ApiKeyCodec.ParsedApiKey parsed = codec.parse(generated.apiKey());
+
+        assertNotNull(parsed);
+        assertTrue(generated.apiKey().startsWith("ask_" + generated.prefix() + "_"));
+        assertEquals(generated.prefix(), parsed.prefix());
+        assertTrue(codec.matches(parsed, generated.keyHash()));
+        assertFalse(generated.keyHash().contains(parsed.secret()));
+    }
+
+    @Test
+    void rejectsKeyWithWrongChecksum() {
+        String key = codec.generate().apiKey();
+        char last = key.charAt(key.length() - 1);
+        String corrupted = key.substring(0, key.length() - 1) + (last == 'a' ? 'b' : 'a');
+
+        assertNull(codec.parse(corrupted));
+        assertNull(codec.parse("ask_" + "x".repeat(key.length() - 4)));
+        assertNull(codec.parse("550e8400-e29b-41d4-a716-446655440000"));
+        assertNull(codec.parse(null));
+    }
+
+    @Test
+    void doesNotMatchHashOfAnotherKey() {
+        ApiKeyCodec.GeneratedApiKey first = codec.generate();
+        ApiKeyCodec.GeneratedApiKey second = codec.generate();
+
+        assertFalse(codec.matches(codec.parse(first.apiKey()), second.keyHash()));
+        assertFalse(new ApiKeyCodec("another-hash-key").matches(codec.parse(first.apiKey()), first.keyHash()));
+    }
+}
@@ -0,0 +1,93 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import dev.kuku.authsome.services.tenant.api.dto.FetchedTenant;
+import dev.kuku.authsome.services.tenant.api.dto.IdentityType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CachingTenantServiceTest {
+    private static final FetchedTenant TENANT = new FetchedTenant("tenant-1", "alice", 1000L, 2000L);
+
+    private final TenantServiceImpl delegate = mock(TenantServiceImpl.class);
+    private final TenantExistenceFilter existenceFilter = mock(TenantExistenceFilter.class);
+
+    private CachingTenantService newService(long ttlSeconds) {
+        return new CachingTenantService(delegate, existenceFilter, true, 1000, ttlSeconds, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void cachedTenantSkipsTheDelegate() {
+        CachingTenantService service = newService(300);
+        when(delegate.getTenantByUsername("alice")).thenReturn(TENANT);
+
+        assertEquals(TENANT, service.getTenantByUsername("alice"));
+        assertEquals(TENANT, service.getTenantByUsername("alice"));
+        assertEquals(TENANT, service.getTenantById("tenant-1"));
+
+        verify(delegate, times(1)).getTenantByUsername("alice");
+        verify(delegate, never()).getTenantById(any());
+    }
+
+    @Test
+    void missesAreNotCached() {
+        CachingTenantService service = newService(300);
+
+        assertNull(service.getTenantByUsername("alice"));
+        when(delegate.getTenantByUsername("alice")).thenReturn(TENANT);
+
+        assertEquals(TENANT, service.getTenantByUsername("alice"));
+        verify(delegate, times(2)).getTenantByUsername("alice");
+    }
+
+    @Test
+    void expiredEntriesAreLoadedAgain() {
+        CachingTenantService service = newService(0);
+        when(delegate.getTenantById("tenant-1")).thenReturn(TENANT);
+
+        service.getTenantById("tenant-1");
+        service.getTenantById("tenant-1");
+
+        verify(delegate, times(2)).getTenantById("tenant-1");
+    }
+
+    @Test
+    void createdTenantIsCachedAndFiltered() {
+        CachingTenantService service = newService(300);
+        when(delegate.createTenant("alice", "password")).thenReturn(TENANT);
+
+        service.createTenant("alice", "password");
+
+        assertEquals(TENANT, service.getTenantByUsername("alice"));
+        assertEquals(TENANT, service.getTenantById("tenant-1"));
+        verify(delegate, never()).getTenantByUsername(any());
+        verify(delegate, never()).getTenantById(any());
+        verify(existenceFilter).addUsername("alice");
+    }
+
+    @Test
+    void addedIdentityReplacesAMiss() {
+        CachingTenantService service = newService(300);
+        when(delegate.getTenantById("tenant-1")).thenReturn(TENANT);
+        assertNull(service.getTenantByIdentity(IdentityType.EMAIL, "alice@example.com"));
+
+        service.addIdentityForTenant("tenant-1", IdentityType.EMAIL, "alice@example.com");
+
+        assertEquals(TENANT, service.getTenantByIdentity(IdentityType.EMAIL, "alice@example.com"));
+        verify(delegate, times(1)).getTenantByIdentity(IdentityType.EMAIL, "alice@example.com");
+        verify(existenceFilter).addIdentity(IdentityType.EMAIL, "alice@example.com");
+    }
+
+    @Test
+    void disabledCacheAlwaysDelegates() {
+        CachingTenantService service = new CachingTenantService(delegate, existenceFilter, false, 1000, 300, new SimpleMeterRegistry());
+        when(delegate.getTenantById("tenant-1")).thenReturn(TENANT);
+
+        service.getTenantById("tenant-1");
+        service.getTenantById("tenant-1");
+
+        verify(delegate, times(2)).getTenantById("tenant-1");
+    }
+}
@@ -0,0 +1,94 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import com.blazebit.persistence.CriteriaBuilderFactory;
+import dev.kuku.authsome.services.tenant.impl.entity.TenantEntity;
+import dev.kuku.authsome.services.tenant.impl.entity.TenantSessionEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against the in-memory H2 database of the test configuration.
+ */
+@SpringBootTest
+class ExpiredSessionReaperTest {
+    @Autowired
+    private TenantServiceImpl tenantService;
+    @Autowired
+    private RefreshTokenCodec refreshTokenCodec;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private CriteriaBuilderFactory cbf;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void deletesExpiredSessionsInBatchesAndReleasesTheirSlots() {
+        String first = newTenant();
+        String second = newTenant();
+        List<String> expired = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            expired.add(tenantService.createTenantRefreshToken(first, Map.of()));
+        }
+        String live = tenantService.createTenantRefreshToken(first, Map.of());
+        expired.add(tenantService.createTenantRefreshToken(second, Map.of()));
+        expired.forEach(this::expire);
+
+        // Two rows per batch, so the tenants' slots are given back across several transactions
+        ExpiredSessionReaper reaper = new ExpiredSessionReaper(entityManager, cbf, transactionTemplate, 2, 100, 0,
+                new SimpleMeterRegistry());
+        assertTrue(reaper.reapExpired() >= expired.size());
+
+        for (String token : expired) {
+            assertNull(entityManager.find(TenantSessionEntity.class, refreshTokenCodec.parse(token).sessionId()));
+        }
+        assertEquals(1, activeSessions(first));
+        assertEquals(0, activeSessions(second));
+        assertNotNull(tenantService.refreshToken(live));
+        assertEquals(0, reaper.reapExpired());
+    }
+
+    @Test
+    void stopsAfterMaxBatches() {
+        // Sessions other tests left expired would count against the limit
+        new ExpiredSessionReaper(entityManager, cbf, transactionTemplate, 1000, 100, 0, new SimpleMeterRegistry()).reapExpired();
+        String tenant = newTenant();
+        for (int i = 0; i < 3; i++) {
+            expire(tenantService.createTenantRefreshToken(tenant, Map.of()));
+        }
+
+        ExpiredSessionReaper reaper = new ExpiredSessionReaper(entityManager, cbf, transactionTemplate, 1, 2, 0,
+                new SimpleMeterRegistry());
+        assertEquals(2, reaper.reapExpired());
+        assertEquals(1, activeSessions(tenant));
+        assertEquals(1, reaper.reapExpired());
+        assertEquals(0, activeSessions(tenant));
+    }
+
+    private String newTenant() {
+        return tenantService.createTenant("tenant-" + UUID.randomUUID(), "password").id();
+    }
+
+    private int activeSessions(String tenantId) {
+        return entityManager.find(TenantEntity.class, UUID.fromString(tenantId)).getActiveSessions();
+    }
+
+    private void expire(String refreshToken) {
+        UUID sessionId = refreshTokenCodec.parse(refreshToken).sessionId();
+        transactionTemplate.executeWithoutResult(status -> entityManager
+                .find(TenantSessionEntity.class, sessionId)
+                .setExpiresAt(NowUTCMilli() - 1));
+    }
+}
@@ -0,0 +1,74 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHasherTest {
+
+    @Test
+    void encodesAndMatches() {
+        PasswordHasher hasher = new PasswordHasher("bcrypt", 0, 1, 4, new SimpleMeterRegistry());
+
+        String hash = hasher.encode("secret");
+
+        assertTrue(hasher.matches("secret", hash));
+        assertFalse(hasher.matches("other", hash));
+    }
+
+    @Test
+    void verifiesLegacyAndOtherAlgorithmHashesAndFlagsThemForRehash() {
+        PasswordHasher hasher = new PasswordHasher("argon2", 0, 1, 4, new SimpleMeterRegistry());
+        String legacyBcrypt = new BCryptPasswordEncoder().encode("secret");
+        String pbkdf2 = new PasswordHasher("pbkdf2", 0, 1, 4, new SimpleMeterRegistry()).encode("secret");
+
+        String current = hasher.encode("secret");
+
+        assertTrue(current.startsWith("{argon2}"));
+        assertFalse(hasher.needsRehash(current));
+        assertTrue(hasher.matches("secret", legacyBcrypt));
+        assertTrue(hasher.needsRehash(legacyBcrypt));
+        assertTrue(hasher.matches("secret", pbkdf2));
+        assertTrue(hasher.needsRehash(pbkdf2));
+    }
+
+    @Test
+    void flagsLowerBcryptStrengthForRehash() {
+        PasswordHasher hasher = new PasswordHasher("bcrypt", 0, 1, 4, new SimpleMeterRegistry());
+
+        assertTrue(hasher.needsRehash("{bcrypt}" + new BCryptPasswordEncoder(4).encode("secret")));
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PasswordHasher hasher = new PasswordHasher("bcrypt", 0, 1, 1, meterRegistry);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(callers.submit(() -> hasher.encode("secret")));
+            }
+            int rejected = 0;
+            for (Future<String> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    assertInstanceOf(RejectedExecutionException.class, e.getCause());
+                    rejected++;
+                }
+            }
+
+            assertTrue(rejected > 0);
+            assertEquals(rejected, meterRegistry.get("authsome.password-hashing.rejected").counter().count());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RefreshTokenCodecTest {
+    private final RefreshTokenCodec codec = new RefreshTokenCodec();
+
+    @Test
+    void parsesFormattedToken() {
+        UUID sessionId = UUID.randomUUID();
+        RefreshTokenCodec.GeneratedSecret secret = codec.newSecret();
+
+        RefreshTokenCodec.ParsedRefreshToken parsed = codec.parse(codec.format(sessionId, 7, secret.secret()));
+
+        assertNotNull(parsed);
+        assertEquals(sessionId, parsed.sessionId());
+        assertEquals(7, parsed.rotation());
+        assertEquals(secret.secretHash(), parsed.secretHash());
+        assertNotEquals(secret.secret(), secret.secretHash());
+        assertNotEquals(secret.secretHash(), codec.newSecret().secretHash());
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        String secret = codec.newSecret().secret();
+        UUID sessionId = UUID.randomUUID();
+
+        assertNull(codec.parse(null));
+        assertNull(codec.parse(sessionId.toString()));
+        assertNull(codec.parse(sessionId + ".1"));
+        assertNull(codec.parse(sessionId + ".-1." + secret));
+        assertNull(codec.parse(sessionId + ".x." + secret));
+        assertNull(codec.parse("not-a-uuid.1." + secret));
+        assertNull(codec.parse(sessionId + ".1." + secret.substring(1)));
+        assertNull(codec.parse(sessionId + ".1." + "*".repeat(secret.length())));
+    }
+}
@@ -0,0 +1,82 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import dev.kuku.authsome.services.tenant.impl.SessionPartitionManager.Partition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Covers the bound parsing and window arithmetic; the DDL itself needs PostgreSQL and is not run here.
+ */
+class SessionPartitionManagerTest {
+    private static final long DAY = Duration.ofDays(1).toMillis();
+
+    private final SessionPartitionManager manager = new SessionPartitionManager(null, null, Duration.ofDays(1),
+            Duration.ofDays(37), Duration.ofSeconds(2), new SimpleMeterRegistry());
+
+    @Test
+    void parsesUpperBoundsAsPrintedByPostgres() {
+        assertEquals(1767312000000L, SessionPartitionManager.upperBound("FOR VALUES FROM ('1767225600000') TO ('1767312000000')"));
+        assertEquals(1767312000000L, SessionPartitionManager.upperBound("FOR VALUES FROM (1767225600000) TO (1767312000000)"));
+        assertEquals(86400000L, SessionPartitionManager.upperBound("FOR VALUES FROM (MINVALUE) TO ('86400000')"));
+        assertEquals(-86400000L, SessionPartitionManager.upperBound("FOR VALUES FROM (MINVALUE) TO ('-86400000')"));
+        assertNull(SessionPartitionManager.upperBound("FOR VALUES FROM ('0') TO (MAXVALUE)"));
+        assertNull(SessionPartitionManager.upperBound("DEFAULT"));
+    }
+
+    @Test
+    void alignsToTheStartOfTheInterval() {
+        assertEquals(10 * DAY, manager.alignDown(10 * DAY));
+        assertEquals(10 * DAY, manager.alignDown(11 * DAY - 1));
+        assertEquals(-DAY, manager.alignDown(-1));
+    }
+
+    @Test
+    void createsPartitionsFromTheCurrentIntervalUntilCreateAheadIsCovered() {
+        long now = 100 * DAY + 5;
+
+        List<Long> due = manager.dueLowerBounds(List.of(), now);
+
+        assertEquals(100 * DAY, due.get(0));
+        assertEquals(137 * DAY, due.get(due.size() - 1), "the last one covers now + create-ahead");
+        assertEquals(38, due.size());
+        for (int i = 1; i < due.size(); i++) {
+            assertEquals(DAY, due.get(i) - due.get(i - 1));
+        }
+    }
+
+    @Test
+    void continuesAfterExistingPartitionsAndSkipsGapsInThePast() {
+        long now = 100 * DAY + 5;
+
+        List<Long> afterExisting = manager.dueLowerBounds(List.of(
+                new Partition("tenant_sessions_legacy", 90 * DAY), new Partition("b", 135 * DAY)), now);
+        assertEquals(List.of(135 * DAY, 136 * DAY, 137 * DAY), afterExisting);
+
+        // A legacy partition ending long ago leaves no partitions to create for the past
+        List<Long> afterLegacy = manager.dueLowerBounds(List.of(new Partition("tenant_sessions_legacy", 50 * DAY)), now);
+        assertEquals(100 * DAY, afterLegacy.get(0));
+
+        assertEquals(List.of(), manager.dueLowerBounds(List.of(new Partition("c", 138 * DAY)), now));
+        assertEquals(List.of(), manager.dueLowerBounds(List.of(new Partition("c", 137 * DAY + 6)), now));
+    }
+
+    @Test
+    void detachesOnlyPartitionsBeforeTheFirstLiveOne() {
+        Partition first = new Partition("a", 10 * DAY);
+        Partition second = new Partition("b", 11 * DAY);
+        Partition live = new Partition("c", 12 * DAY);
+        Partition ahead = new Partition("d", 13 * DAY);
+        List<Partition> partitions = List.of(first, second, live, ahead);
+
+        assertEquals(List.of(), SessionPartitionManager.expired(partitions, 10 * DAY - 1));
+        assertEquals(List.of(first), SessionPartitionManager.expired(partitions, 10 * DAY), "the upper bound is exclusive");
+        assertEquals(List.of(first, second), SessionPartitionManager.expired(partitions, 12 * DAY - 1));
+        assertEquals(partitions, SessionPartitionManager.expired(partitions, 13 * DAY));
+        assertEquals(List.of(), SessionPartitionManager.expired(List.of(), 13 * DAY));
+    }
+}
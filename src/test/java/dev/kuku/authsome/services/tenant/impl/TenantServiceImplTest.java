@@ -0,0 +1,143 @@
+package dev.kuku.authsome.services.tenant.impl;
+
+import dev.kuku.authsome.services.tenant.api.dto.TenantAndRefreshToken;
+import dev.kuku.authsome.services.tenant.impl.entity.TenantEntity;
+import dev.kuku.authsome.services.tenant.impl.entity.TenantSessionEntity;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static dev.kuku.authsome.util.Util.NowUTCMilli;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against the in-memory H2 database of the test configuration.
+ */
+@SpringBootTest(properties = "authsome.tenant.max-simultaneous-sessions=" + TenantServiceImplTest.MAX_SESSIONS)
+class TenantServiceImplTest {
+    static final int MAX_SESSIONS = 3;
+
+    @Autowired
+    private TenantServiceImpl tenantService;
+    @Autowired
+    private RefreshTokenCodec refreshTokenCodec;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private String tenantId;
+
+    @BeforeEach
+    void createTenant() {
+        tenantId = tenantService.createTenant("tenant-" + UUID.randomUUID(), "password").id();
+    }
+
+    @Test
+    void rotatesTokenAndRevokesSessionOnReuse() {
+        String first = tenantService.createTenantRefreshToken(tenantId, Map.of());
+        TenantAndRefreshToken second = tenantService.refreshToken(first);
+        assertNotNull(second);
+        assertEquals(tenantId, second.tenant.id());
+        TenantAndRefreshToken third = tenantService.refreshToken(second.refreshToken);
+        assertNotNull(third);
+        assertNotEquals(second.refreshToken, third.refreshToken);
+
+        // The second token was already rotated; presenting it again revokes the session
+        assertNull(tenantService.refreshToken(second.refreshToken));
+        assertNull(tenantService.refreshToken(third.refreshToken));
+    }
+
+    @Test
+    void forgedTokenNeitherRotatesNorRevokes() {
+        String first = tenantService.createTenantRefreshToken(tenantId, Map.of());
+        String current = tenantService.refreshToken(first).refreshToken;
+        current = tenantService.refreshToken(current).refreshToken;
+        UUID sessionId = refreshTokenCodec.parse(current).sessionId();
+
+        for (long rotation = 0; rotation <= 3; rotation++) {
+            String forged = refreshTokenCodec.format(sessionId, rotation, refreshTokenCodec.newSecret().secret());
+            assertNull(tenantService.refreshToken(forged));
+            tenantService.revokeTenantRefreshToken(forged);
+        }
+
+        assertNotNull(tenantService.refreshToken(current));
+    }
+
+    @Test
+    void revokesWithCurrentOrReplacedTokenOnly() {
+        String first = tenantService.createTenantRefreshToken(tenantId, Map.of());
+        String current = tenantService.refreshToken(first).refreshToken;
+        tenantService.revokeTenantRefreshToken(current);
+        assertNull(tenantService.refreshToken(current));
+
+        String other = tenantService.createTenantRefreshToken(tenantId, Map.of());
+        String otherCurrent = tenantService.refreshToken(other).refreshToken;
+        tenantService.revokeTenantRefreshToken(other);
+        assertNull(tenantService.refreshToken(otherCurrent));
+    }
+
+    @Test
+    void countsSessionsAndRejectsBeyondTheLimit() {
+        String first = tenantService.createTenantRefreshToken(tenantId, Map.of());
+        tenantService.createTenantRefreshToken(tenantId, Map.of());
+        tenantService.createTenantRefreshToken(tenantId, Map.of());
+        assertEquals(MAX_SESSIONS, activeSessions());
+
+        assertThrows(IllegalStateException.class, () -> tenantService.createTenantRefreshToken(tenantId, Map.of()));
+        assertEquals(MAX_SESSIONS, activeSessions());
+
+        // Rotation keeps the slot
+        tenantService.refreshToken(first);
+        assertEquals(MAX_SESSIONS, activeSessions());
+    }
+
+    @Test
+    void releasesSlotOnRevokeAndReuseButNotOnForgery() {
+        String first = tenantService.createTenantRefreshToken(tenantId, Map.of());
+        String second = tenantService.createTenantRefreshToken(tenantId, Map.of());
+        assertEquals(2, activeSessions());
+
+        String forged = refreshTokenCodec.format(refreshTokenCodec.parse(first).sessionId(), 0, refreshTokenCodec.newSecret().secret());
+        tenantService.revokeTenantRefreshToken(forged);
+        assertEquals(2, activeSessions());
+
+        tenantService.revokeTenantRefreshToken(first);
+        assertEquals(1, activeSessions());
+        tenantService.revokeTenantRefreshToken(first);
+        assertEquals(1, activeSessions());
+
+        tenantService.refreshToken(second);
+        assertNull(tenantService.refreshToken(second));
+        assertEquals(0, activeSessions());
+    }
+
+    @Test
+    void freesExpiredSessionsAtTheLimit() {
+        String expired = tenantService.createTenantRefreshToken(tenantId, Map.of());
+        tenantService.createTenantRefreshToken(tenantId, Map.of());
+        tenantService.createTenantRefreshToken(tenantId, Map.of());
+        expire(expired);
+
+        assertNotNull(tenantService.createTenantRefreshToken(tenantId, Map.of()));
+        assertEquals(MAX_SESSIONS, activeSessions());
+        assertNull(tenantService.refreshToken(expired));
+    }
+
+    private int activeSessions() {
+        return entityManager.find(TenantEntity.class, UUID.fromString(tenantId)).getActiveSessions();
+    }
+
+    private void expire(String refreshToken) {
+        UUID sessionId = refreshTokenCodec.parse(refreshToken).sessionId();
+        transactionTemplate.executeWithoutResult(status -> entityManager
+                .find(TenantSessionEntity.class, sessionId)
+                .setExpiresAt(NowUTCMilli() - 1));
+    }
+}
@@ -0,0 +1,29 @@
+package dev.kuku.authsome.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageTemplateTest {
+
+    @Test
+    void rendersPlaceholdersInAnyOrderAndRepeated() {
+        MessageTemplate template = MessageTemplate.compile("{{b}} and {{ a }}, again {{b}}!", "a", "b");
+
+        assertEquals("2 and 1, again 2!", template.render("1", "2"));
+        assertEquals(" and x, again !", template.render("x", null));
+    }
+
+    @Test
+    void rendersLiteralOnlyTemplates() {
+        assertEquals("no placeholders", MessageTemplate.compile("no placeholders").render());
+    }
+
+    @Test
+    void rejectsBadTemplatesAndArity() {
+        assertThrows(IllegalArgumentException.class, () -> MessageTemplate.compile("Hi {{name", "name"));
+        assertThrows(IllegalArgumentException.class, () -> MessageTemplate.compile("Hi {{other}}", "name"));
+        MessageTemplate template = MessageTemplate.compile("Hi {{name}}", "name");
+        assertThrows(IllegalArgumentException.class, () -> template.render("a", "b"));
+    }
+}
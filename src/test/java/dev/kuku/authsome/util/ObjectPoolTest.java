@@ -0,0 +1,62 @@
+package dev.kuku.authsome.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectPoolTest {
+
+    @Test
+    void reusesReleasedHelpers() {
+        AtomicInteger created = new AtomicInteger();
+        ObjectPool<Object> pool = new ObjectPool<>(() -> {
+            created.incrementAndGet();
+            return new Object();
+        }, 4);
+
+        Object first = pool.take();
+        pool.release(first);
+
+        assertSame(first, pool.take());
+        assertEquals(1, created.get());
+        assertNotSame(first, pool.take(), "an empty pool creates a new helper");
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    void dropsHelpersOnceEverySlotIsTaken() {
+        ObjectPool<Object> pool = new ObjectPool<>(Object::new, 4);
+        for (int i = 0; i < 10; i++) {
+            pool.release(new Object());
+        }
+
+        assertEquals(4, pool.size());
+    }
+
+    @Test
+    void handsEveryHelperToOneThreadAtATime() throws InterruptedException {
+        ObjectPool<AtomicInteger> pool = new ObjectPool<>(AtomicInteger::new, 4);
+        AtomicInteger overlaps = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    AtomicInteger helper = pool.take();
+                    if (helper.getAndIncrement() != 0) {
+                        overlaps.incrementAndGet();
+                    }
+                    helper.decrementAndGet();
+                    pool.release(helper);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, overlaps.get());
+    }
+}
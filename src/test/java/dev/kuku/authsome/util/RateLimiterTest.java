@@ -0,0 +1,90 @@
+package dev.kuku.authsome.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void allowsBurstThenRefillsAtTheConfiguredRate() {
+        RateLimiter limiter = RateLimiter.create(5, Duration.ofSeconds(5), 1000, 4);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("10.0.0.1", now));
+        }
+        assertEquals(SECOND, limiter.tryAcquire("10.0.0.1", now));
+        assertEquals(0, limiter.tryAcquire("10.0.0.2", now), "keys have their own buckets");
+
+        assertEquals(0, limiter.tryAcquire("10.0.0.1", now + SECOND));
+        assertTrue(limiter.tryAcquire("10.0.0.1", now + SECOND) > 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("10.0.0.1", now + 10 * SECOND), "bucket never holds more than its capacity");
+        }
+        assertTrue(limiter.tryAcquire("10.0.0.1", now + 10 * SECOND) > 0);
+    }
+
+    @Test
+    void releasedTokensCanBeTakenAgainButNeverExceedCapacity() {
+        RateLimiter limiter = RateLimiter.create(2, Duration.ofSeconds(2), 1000, 4);
+        long now = System.nanoTime();
+        assertEquals(0, limiter.tryAcquire("10.0.0.1", now));
+        assertEquals(0, limiter.tryAcquire("10.0.0.1", now));
+        assertTrue(limiter.tryAcquire("10.0.0.1", now) > 0);
+
+        limiter.release("10.0.0.1", now);
+        assertEquals(0, limiter.tryAcquire("10.0.0.1", now));
+        assertTrue(limiter.tryAcquire("10.0.0.1", now) > 0);
+
+        limiter.release("10.0.0.2", now);
+        limiter.release("10.0.0.2", now);
+        assertEquals(0, limiter.tryAcquire("10.0.0.2", now));
+        assertEquals(0, limiter.tryAcquire("10.0.0.2", now));
+        assertTrue(limiter.tryAcquire("10.0.0.2", now) > 0, "releasing into a full bucket adds nothing");
+    }
+
+    @Test
+    void evictsOnlyBucketsThatAreFullAgain() {
+        RateLimiter limiter = RateLimiter.create(2, Duration.ofSeconds(2), 1000, 4);
+        long now = System.nanoTime();
+        limiter.tryAcquire("idle", now);
+        limiter.tryAcquire("busy", now + SECOND);
+        limiter.tryAcquire("busy", now + SECOND);
+
+        assertEquals(1, limiter.evictIdle(now + 2 * SECOND));
+        assertEquals(1, limiter.size());
+        assertEquals(0, limiter.tryAcquire("busy", now + 2 * SECOND));
+        assertTrue(limiter.tryAcquire("busy", now + 2 * SECOND) > 0, "state of a busy key survives eviction");
+        assertEquals(0, limiter.tryAcquire("idle", now + 2 * SECOND));
+    }
+
+    @Test
+    void keysBeyondCapacityShareAnOverflowBucket() {
+        RateLimiter limiter = RateLimiter.create(3, Duration.ofMinutes(1), 1, 1);
+        long now = System.nanoTime();
+        assertEquals(0, limiter.tryAcquire("first", now));
+
+        int allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryAcquire("attacker-" + i, now) == 0) {
+                allowed++;
+            }
+        }
+
+        assertEquals(3, allowed);
+        assertEquals(1, limiter.size());
+    }
+
+    @Test
+    void parsesLimits() {
+        assertNull(RateLimiter.parse(" ", 10, 1));
+        assertEquals("20/PT1M", RateLimiter.parse("20/PT1M", 10, 1).toString());
+        assertThrows(IllegalArgumentException.class, () -> RateLimiter.parse("20 per minute", 10, 1));
+        assertThrows(IllegalArgumentException.class, () -> RateLimiter.parse("0/PT1M", 10, 1));
+    }
+}